@@ -0,0 +1,293 @@
+package nodebox.client;
+
+import nodebox.node.*;
+import nodebox.node.event.NodeAttributeChangedEvent;
+import nodebox.node.event.NodeDirtyEvent;
+import nodebox.node.event.NodeUpdatedEvent;
+
+/**
+ * Renders upcoming animation frames in the background so they can be played back at a steady rate.
+ * <p/>
+ * Worker threads render the frames after the current frame into a ring buffer with a fixed number of slots.
+ * Each worker uses its own copy of the library. Once the buffer is full, workers wait until frames are taken out.
+ * <p/>
+ * Changes to the library invalidate the buffer: rendering starts again from the frame after the current frame.
+ * Invalidating makes a single snapshot of the library on the thread that changes it. Each worker then copies the
+ * snapshot on its own thread before rendering its next frame. Nothing changes the snapshot, so the workers can copy it
+ * at the same time. The copies are tagged with the generation of the buffer and replaced when it is invalidated.
+ * <p/>
+ * The buffer listens to the library for changes, but parameters that are already dirty don't send events, so editors
+ * should call {@link #invalidate()} after changing the library.
+ * <p/>
+ * The buffer stores the output of the network, not images, so the viewer can still zoom and draw points.
+ * Frames that fail to render store the error as their output.
+ */
+public class AnimationBuffer implements NodeEventListener {
+
+    private final NodeLibrary library;
+    private final int workerCount;
+    private final Object[] outputs;
+    private final int[] slotFrames;
+    private final boolean[] filled;
+    private String networkPath;
+    // A copy of the library that the workers copy from. It is never rendered or changed.
+    private NodeLibrary snapshot;
+    private int session;
+    private int generation;
+    private int playFrame;
+    private int nextFrameToRender;
+    private boolean running;
+    private boolean settingFrame;
+
+    /**
+     * Create an animation buffer.
+     *
+     * @param library     the library to render
+     * @param network     the network whose output is buffered
+     * @param capacity    the number of frames that are rendered ahead
+     * @param workerCount the number of threads that render frames
+     */
+    public AnimationBuffer(NodeLibrary library, Node network, int capacity, int workerCount) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity should be at least 1, not " + capacity);
+        if (workerCount < 1)
+            throw new IllegalArgumentException("The worker count should be at least 1, not " + workerCount);
+        this.library = library;
+        this.networkPath = network.getAbsolutePath();
+        this.workerCount = workerCount;
+        outputs = new Object[capacity];
+        slotFrames = new int[capacity];
+        filled = new boolean[capacity];
+    }
+
+    public int getCapacity() {
+        return outputs.length;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start rendering the frames after the current frame of the library.
+     * <p/>
+     * Call this method on the thread that changes the library, normally the event dispatch thread.
+     */
+    public void start() {
+        NodeLibrary newSnapshot = library.copy();
+        synchronized (this) {
+            if (running) return;
+            running = true;
+            session++;
+            resetBuffer(newSnapshot);
+        }
+        library.addListener(this);
+        for (int i = 0; i < workerCount; i++) {
+            final int workerSession = session;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    renderLoop(workerSession);
+                }
+            }, "AnimationBuffer-" + i);
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+        }
+    }
+
+    /**
+     * Stop rendering and clear the buffer.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            snapshot = null;
+            clearSlots();
+            notifyAll();
+        }
+        library.removeListener(this);
+    }
+
+    /**
+     * Change the network whose output is buffered. This invalidates the buffer.
+     *
+     * @param network the new network.
+     */
+    public void setNetwork(Node network) {
+        networkPath = network.getAbsolutePath();
+        invalidate();
+    }
+
+    /**
+     * Discard all buffered frames and render again from the frame after the current frame of the library.
+     * <p/>
+     * Call this method on the thread that changes the library, normally the event dispatch thread.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            if (!running) return;
+        }
+        // Copy outside the lock, so the workers can keep storing frames in the meantime.
+        NodeLibrary newSnapshot = library.copy();
+        synchronized (this) {
+            if (!running) return;
+            resetBuffer(newSnapshot);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Change the frame of the library without invalidating the buffer.
+     *
+     * @param frame the new frame
+     */
+    public void setFrame(int frame) {
+        settingFrame = true;
+        try {
+            library.setFrame(frame);
+        } finally {
+            settingFrame = false;
+        }
+    }
+
+    /**
+     * Check if the given frame is rendered.
+     *
+     * @param frame the frame number
+     * @return true if the frame can be taken from the buffer.
+     */
+    public synchronized boolean hasFrame(int frame) {
+        int slot = slotFor(frame);
+        return filled[slot] && slotFrames[slot] == frame;
+    }
+
+    /**
+     * Take the output of the given frame out of the buffer.
+     * <p/>
+     * This method does not wait: if the frame is not rendered yet, it returns null.
+     * Frames before the given frame can no longer be taken out afterwards.
+     *
+     * @param frame the frame number
+     * @return the output of the network for the frame, or null if it is not rendered yet.
+     */
+    public synchronized Object takeFrame(int frame) {
+        if (!hasFrame(frame)) return null;
+        int slot = slotFor(frame);
+        Object output = outputs[slot];
+        outputs[slot] = null;
+        filled[slot] = false;
+        // Frames that were skipped are discarded.
+        for (int i = 0; i < outputs.length; i++) {
+            if (filled[i] && slotFrames[i] < frame) {
+                outputs[i] = null;
+                filled[i] = false;
+            }
+        }
+        playFrame = frame + 1;
+        if (nextFrameToRender < playFrame)
+            nextFrameToRender = playFrame;
+        notifyAll();
+        return output;
+    }
+
+    /**
+     * Return the number of frames that are rendered and not taken out yet.
+     *
+     * @return the number of buffered frames.
+     */
+    public synchronized int getBufferedFrameCount() {
+        int count = 0;
+        for (boolean f : filled) {
+            if (f) count++;
+        }
+        return count;
+    }
+
+    public void receive(NodeEvent event) {
+        // Rendering events don't change the library.
+        if (event instanceof NodeDirtyEvent || event instanceof NodeUpdatedEvent) return;
+        // Moving nodes doesn't change the output.
+        if (event instanceof NodeAttributeChangedEvent
+                && ((NodeAttributeChangedEvent) event).getAttribute() == Node.Attribute.POSITION) return;
+        // Changing the frame marks parameters that depend on it as changed.
+        if (settingFrame) return;
+        invalidate();
+    }
+
+    /**
+     * Start from the frame after the current frame. Workers copy the new snapshot before rendering their next frame.
+     * <p/>
+     * Should be called while holding the lock.
+     *
+     * @param newSnapshot a copy of the library that is not used for anything else.
+     */
+    private void resetBuffer(NodeLibrary newSnapshot) {
+        generation++;
+        snapshot = newSnapshot;
+        clearSlots();
+        playFrame = Math.round(newSnapshot.getFrame()) + 1;
+        nextFrameToRender = playFrame;
+    }
+
+    private void clearSlots() {
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = null;
+            filled[i] = false;
+        }
+    }
+
+    private int slotFor(int frame) {
+        int slot = frame % outputs.length;
+        return slot < 0 ? slot + outputs.length : slot;
+    }
+
+    private void renderLoop(int workerSession) {
+        NodeLibrary workerLibrary = null;
+        int libraryGeneration = 0;
+        while (true) {
+            int frame, frameGeneration;
+            NodeLibrary frameSnapshot;
+            String path;
+            synchronized (this) {
+                // Wait until there is room in the buffer.
+                while (running && session == workerSession && nextFrameToRender >= playFrame + outputs.length) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // Workers of a previous session stop, even if the buffer was started again.
+                if (!running || session != workerSession) return;
+                frame = nextFrameToRender++;
+                frameGeneration = generation;
+                frameSnapshot = snapshot;
+                path = networkPath;
+            }
+            Object output;
+            try {
+                // Copy the snapshot outside of the lock. Each generation has its own snapshot, which is never changed.
+                if (workerLibrary == null || libraryGeneration != frameGeneration) {
+                    workerLibrary = frameSnapshot.copy();
+                    libraryGeneration = frameGeneration;
+                }
+                workerLibrary.setFrame(frame);
+                Node network = workerLibrary.getNodeForPath(path);
+                network.update();
+                output = network.getOutputValue();
+            } catch (Exception e) {
+                output = e;
+            }
+            synchronized (this) {
+                // Discard the frame if the buffer was invalidated or the frame was skipped while rendering.
+                if (frameGeneration != generation || frame < playFrame) continue;
+                int slot = slotFor(frame);
+                outputs[slot] = output;
+                slotFrames[slot] = frame;
+                filled[slot] = true;
+            }
+        }
+    }
+
+}
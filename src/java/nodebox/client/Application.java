@@ -59,6 +59,7 @@ public class Application implements Host {
     private Console console = null;
 
     public static final String NAME = "NodeBox";
+    public static final String PREFERENCE_OUTPUT_CACHE = "NBOutputCache";
     private static Logger logger = Logger.getLogger("nodebox.client.Application");
 
     private Application() {
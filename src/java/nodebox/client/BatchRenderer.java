@@ -0,0 +1,477 @@
+package nodebox.client;
+
+import nodebox.client.movie.Movie;
+import nodebox.client.movie.VideoFormat;
+import nodebox.graphics.Canvas;
+import nodebox.node.Node;
+import nodebox.node.NodeLibrary;
+import nodebox.node.NodeLibraryManager;
+import nodebox.node.Parameter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders NodeBox documents from the command line, without a user interface.
+ * <p/>
+ * The renderer loads a document, applies parameter overrides and renders a range of frames to image files or to a
+ * movie. Frames are spread over a number of worker threads. Each worker renders using its own copy of the library,
+ * so no state is shared between them.
+ * <p/>
+ * Run it with --help to see all options. The process exits with one of the EXIT_* codes.
+ */
+public class BatchRenderer {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_USAGE = 1;
+    public static final int EXIT_LOAD_ERROR = 2;
+    public static final int EXIT_RENDER_ERROR = 3;
+
+    private static final String USAGE =
+            "Usage: BatchRenderer [options] file.ndbx\n" +
+                    "Options:\n" +
+                    "  -o, --output DIR          Directory for the rendered images (default: current directory)\n" +
+                    "  -p, --prefix NAME         Prefix for the image file names (default: the document name)\n" +
+                    "  -f, --format FORMAT       Image format: png or pdf (default: png)\n" +
+                    "  -m, --movie FILE          Render a movie to the given file instead of images\n" +
+                    "  -v, --video-format NAME   Video format of the movie (default: " + Movie.DEFAULT_FORMAT.getDisplayName() + ")\n" +
+                    "      --from FRAME          First frame to render (default: the frame stored in the document)\n" +
+                    "      --to FRAME            Last frame to render (default: the first frame)\n" +
+                    "  -t, --threads COUNT       Number of worker threads (default: number of processors)\n" +
+                    "  -s, --set PATH=VALUE      Set a parameter value, e.g. /rect1.width=50 or canvasWidth=400\n" +
+                    "  -h, --help                Show this message";
+
+    private final NodeLibrary library;
+    private final int threadCount;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final TreeMap<Integer, BufferedImage> pendingMovieFrames = new TreeMap<Integer, BufferedImage>();
+    private int nextMovieFrame;
+
+    public BatchRenderer(NodeLibrary library, int threadCount) {
+        this(library, threadCount, System.out, System.err);
+    }
+
+    public BatchRenderer(NodeLibrary library, int threadCount, PrintStream out, PrintStream err) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count should be at least 1, not " + threadCount);
+        this.library = library;
+        this.threadCount = threadCount;
+        this.out = out;
+        this.err = err;
+    }
+
+    public NodeLibrary getLibrary() {
+        return library;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    //// Parameter overrides ////
+
+    /**
+     * Set a parameter value from an assignment string.
+     * <p/>
+     * The assignment has the form "/path/to/node.parameter=value". The path is relative to the root node.
+     * If the path is omitted, the parameter is looked up on the root node, e.g. "canvasWidth=400".
+     * <p/>
+     * An expression on the parameter is cleared, so the given value is used.
+     *
+     * @param library    the library to change
+     * @param assignment the assignment string
+     * @throws IllegalArgumentException if the node or parameter could not be found or the value could not be parsed.
+     */
+    public static void applyOverride(NodeLibrary library, String assignment) throws IllegalArgumentException {
+        int equalsIndex = assignment.indexOf('=');
+        if (equalsIndex < 0)
+            throw new IllegalArgumentException("Override " + assignment + " should have the form path.parameter=value.");
+        String target = assignment.substring(0, equalsIndex);
+        String valueString = assignment.substring(equalsIndex + 1);
+        int dotIndex = target.lastIndexOf('.');
+        String nodePath = dotIndex < 0 ? "/" : target.substring(0, dotIndex);
+        String parameterName = target.substring(dotIndex + 1);
+        if (!nodePath.startsWith("/"))
+            nodePath = "/" + nodePath;
+        Node node = library.getNodeForPath(nodePath);
+        // getNodeForPath returns the deepest node it could find, so check if we found the one we asked for.
+        String foundPath = node.getAbsolutePath();
+        if (!nodePath.equals(foundPath) && !nodePath.equals(foundPath + "/"))
+            throw new IllegalArgumentException("Node " + nodePath + " could not be found.");
+        Parameter parameter = node.getParameter(parameterName);
+        if (parameter == null)
+            throw new IllegalArgumentException("Node " + nodePath + " has no parameter " + parameterName + ".");
+        Object value = parameter.parseValue(valueString);
+        if (parameter.hasExpression())
+            parameter.clearExpression();
+        parameter.setValue(value);
+    }
+
+    //// Rendering ////
+
+    /**
+     * Render the given frames to image files in the given directory.
+     * <p/>
+     * Files are named prefix-frame.extension, the same as when exporting a range from the application.
+     * Evaluation, rasterization and encoding run concurrently using an {@link ExportPipeline}.
+     *
+     * @param fromFrame the first frame
+     * @param toFrame   the last frame, inclusive
+     * @param directory the output directory
+     * @param prefix    the file name prefix
+     * @param format    the image format
+     * @return true if all frames were rendered without errors.
+     */
+    public boolean renderImages(int fromFrame, int toFrame, File directory, String prefix, ImageFormat format) {
+        if (toFrame < fromFrame)
+            throw new IllegalArgumentException("The last frame (" + toFrame + ") comes before the first frame (" + fromFrame + ").");
+        ExportPipeline pipeline = new ExportPipeline(library, threadCount);
+        final AtomicInteger failedFrames = new AtomicInteger();
+        pipeline.setListener(new ExportPipeline.Listener() {
+            public void frameEvaluated(int frame, Canvas canvas) {
+            }
+
+            public void frameExported(int frame, File file, long elapsedMillis) {
+                out.printf("Frame %d: %d ms%n", frame, elapsedMillis);
+            }
+
+            public void frameFailed(int frame, Exception e) {
+                failedFrames.incrementAndGet();
+                err.printf("Frame %d: %s%n", frame, e);
+            }
+        });
+        long startTime = System.currentTimeMillis();
+        boolean success = pipeline.exportRange(fromFrame, toFrame, directory, prefix, format);
+        long elapsed = System.currentTimeMillis() - startTime;
+        out.printf("Rendered %d frames in %d ms (%d errors)%n", toFrame - fromFrame + 1, elapsed, failedFrames.get());
+        return success;
+    }
+
+    /**
+     * Render the given frames to a movie.
+     * <p/>
+     * Frames are rendered in parallel but added to the movie in order. Frames that finish early wait in a buffer
+     * until the frames before them are added. The buffer holds at most two frames per thread: workers that get further
+     * ahead wait until the movie catches up.
+     *
+     * @param fromFrame   the first frame
+     * @param toFrame     the last frame, inclusive
+     * @param movieFile   the movie file
+     * @param videoFormat the video format of the movie
+     * @return true if all frames were rendered without errors.
+     */
+    public boolean renderMovie(int fromFrame, int toFrame, File movieFile, VideoFormat videoFormat) {
+        Node root = library.getRootNode();
+        int width = (int) root.asFloat(NodeLibrary.CANVAS_WIDTH);
+        int height = (int) root.asFloat(NodeLibrary.CANVAS_HEIGHT);
+        final Movie movie = new Movie(videoFormat.ensureFileExtension(movieFile).getAbsolutePath(), videoFormat, width, height);
+        synchronized (pendingMovieFrames) {
+            pendingMovieFrames.clear();
+            nextMovieFrame = fromFrame;
+        }
+        boolean success = render(fromFrame, toFrame, new FrameHandler() {
+            public void handleFrame(int frame, Canvas canvas) {
+                BufferedImage image = null;
+                try {
+                    if (canvas != null)
+                        image = canvas.asImage();
+                } finally {
+                    // Frames that fail are still passed on, otherwise the frames after them would wait forever.
+                    addMovieFrame(movie, frame, image);
+                }
+            }
+        });
+        if (movie.getFrameCount() == 0) {
+            movie.cleanup();
+            return false;
+        }
+        movie.save();
+        return success;
+    }
+
+    /**
+     * Add the image to the movie once all preceding frames have been added.
+     * <p/>
+     * If the frame is too far ahead of the movie, this method waits until the preceding frames are added. The worker
+     * that renders the next frame of the movie never waits, since frames are handed out in order.
+     *
+     * @param movie the movie
+     * @param frame the frame number
+     * @param image the image, or null if the frame could not be rendered.
+     */
+    private void addMovieFrame(Movie movie, int frame, BufferedImage image) {
+        synchronized (pendingMovieFrames) {
+            while (frame >= nextMovieFrame + threadCount * 2) {
+                try {
+                    pendingMovieFrames.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Rendering was interrupted.", e);
+                }
+            }
+            pendingMovieFrames.put(frame, image);
+            try {
+                while (pendingMovieFrames.containsKey(nextMovieFrame)) {
+                    BufferedImage img = pendingMovieFrames.remove(nextMovieFrame);
+                    // The movie moves on even if adding the frame fails, so the workers waiting for it continue.
+                    nextMovieFrame++;
+                    if (img != null)
+                        movie.addFrame(img);
+                }
+            } finally {
+                pendingMovieFrames.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Render the given frames on the worker threads and pass the results to the handler.
+     * <p/>
+     * The handler is called from the worker threads. Frames that fail to render are passed as null.
+     *
+     * @param fromFrame the first frame
+     * @param toFrame   the last frame, inclusive
+     * @param handler   the handler that processes the rendered canvas
+     * @return true if all frames were rendered without errors.
+     */
+    public boolean render(final int fromFrame, final int toFrame, final FrameHandler handler) {
+        if (toFrame < fromFrame)
+            throw new IllegalArgumentException("The last frame (" + toFrame + ") comes before the first frame (" + fromFrame + ").");
+        errorCount.set(0);
+        final AtomicInteger nextFrame = new AtomicInteger(fromFrame);
+        int workerCount = Math.min(threadCount, toFrame - fromFrame + 1);
+        List<Thread> workers = new ArrayList<Thread>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            // Copies are made up front, since the original library should not be read while it is being rendered.
+            final NodeLibrary workerLibrary = library.copy();
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    int frame;
+                    while (!Thread.currentThread().isInterrupted() && (frame = nextFrame.getAndIncrement()) <= toFrame) {
+                        renderFrame(workerLibrary, frame, handler);
+                    }
+                }
+            }, "BatchRenderer-" + i);
+            workers.add(t);
+        }
+        long startTime = System.currentTimeMillis();
+        for (Thread t : workers) {
+            t.start();
+        }
+        try {
+            for (Thread t : workers) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread t : workers) {
+                t.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        int frameCount = toFrame - fromFrame + 1;
+        out.printf("Rendered %d frames in %d ms (%d errors)%n", frameCount, elapsed, errorCount.get());
+        return errorCount.get() == 0;
+    }
+
+    private void renderFrame(NodeLibrary workerLibrary, int frame, FrameHandler handler) {
+        long startTime = System.currentTimeMillis();
+        Canvas canvas = null;
+        boolean handlerCalled = false;
+        boolean completed = false;
+        try {
+            try {
+                workerLibrary.setFrame(frame);
+                Node root = workerLibrary.getRootNode();
+                root.update();
+                Object outputValue = root.getOutputValue();
+                if (!(outputValue instanceof Canvas))
+                    throw new RuntimeException("This type of output cannot be rendered " + outputValue);
+                canvas = (Canvas) outputValue;
+            } catch (Exception e) {
+                errorCount.incrementAndGet();
+                err.printf("Frame %d: %s%n", frame, e);
+            }
+            handlerCalled = true;
+            try {
+                handler.handleFrame(frame, canvas);
+            } catch (Exception e) {
+                if (canvas != null)
+                    errorCount.incrementAndGet();
+                err.printf("Frame %d: %s%n", frame, e);
+                canvas = null;
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                // An error such as running out of memory stops this worker and fails the run. The frame is still
+                // passed on, otherwise a handler that waits for the frames in order would wait forever.
+                errorCount.incrementAndGet();
+                if (!handlerCalled)
+                    handler.handleFrame(frame, null);
+            }
+        }
+        if (canvas != null)
+            out.printf("Frame %d: %d ms%n", frame, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Processes frames once they are rendered.
+     */
+    public interface FrameHandler {
+
+        /**
+         * Called when the frame is rendered.
+         *
+         * @param frame  the frame number
+         * @param canvas the rendered canvas, or null if the frame could not be rendered.
+         */
+        public void handleFrame(int frame, Canvas canvas);
+
+    }
+
+    //// Command line ////
+
+    private static VideoFormat findVideoFormat(String name) {
+        for (VideoFormat format : Movie.VIDEO_FORMATS) {
+            if (format.getDisplayName().equalsIgnoreCase(name))
+                return format;
+        }
+        return null;
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + option + " needs a number, not " + value + ".");
+        }
+    }
+
+    /**
+     * Run the renderer with the given command line arguments.
+     *
+     * @param args the command line arguments
+     * @param out  the stream for progress messages
+     * @param err  the stream for error messages
+     * @return one of the EXIT_* codes.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        File documentFile = null;
+        File outputDirectory = new File(".");
+        String prefix = null;
+        ImageFormat imageFormat = ImageFormat.PNG;
+        File movieFile = null;
+        VideoFormat videoFormat = Movie.DEFAULT_FORMAT;
+        Integer fromFrame = null;
+        Integer toFrame = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        List<String> overrides = new ArrayList<String>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")) {
+                    out.println(USAGE);
+                    return EXIT_OK;
+                } else if (!arg.startsWith("-")) {
+                    if (documentFile != null)
+                        throw new IllegalArgumentException("Only one document can be rendered at a time.");
+                    documentFile = new File(arg);
+                    continue;
+                }
+                if (i + 1 >= args.length)
+                    throw new IllegalArgumentException("Option " + arg + " needs a value.");
+                String value = args[++i];
+                if (arg.equals("-o") || arg.equals("--output")) {
+                    outputDirectory = new File(value);
+                } else if (arg.equals("-p") || arg.equals("--prefix")) {
+                    prefix = value;
+                } else if (arg.equals("-f") || arg.equals("--format")) {
+                    imageFormat = ImageFormat.of(value);
+                    if (imageFormat == null)
+                        throw new IllegalArgumentException("Unknown image format " + value + ".");
+                } else if (arg.equals("-m") || arg.equals("--movie")) {
+                    movieFile = new File(value);
+                } else if (arg.equals("-v") || arg.equals("--video-format")) {
+                    videoFormat = findVideoFormat(value);
+                    if (videoFormat == null)
+                        throw new IllegalArgumentException("Unknown video format " + value + ".");
+                } else if (arg.equals("--from")) {
+                    fromFrame = parseInt(arg, value);
+                } else if (arg.equals("--to")) {
+                    toFrame = parseInt(arg, value);
+                } else if (arg.equals("-t") || arg.equals("--threads")) {
+                    threadCount = parseInt(arg, value);
+                    if (threadCount < 1)
+                        throw new IllegalArgumentException("Option " + arg + " needs at least one thread.");
+                } else if (arg.equals("-s") || arg.equals("--set")) {
+                    overrides.add(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg + ".");
+                }
+            }
+            if (documentFile == null)
+                throw new IllegalArgumentException("No document given.");
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        NodeLibrary library;
+        try {
+            NodeLibraryManager manager = new NodeLibraryManager();
+            manager.addSearchPath(PlatformUtils.getApplicationScriptsDirectory());
+            manager.addSearchPath(PlatformUtils.getUserScriptsDirectory());
+            manager.lookForLibraries();
+            PythonUtils.initializePython();
+            library = NodeLibrary.load(documentFile, manager);
+            for (String override : overrides) {
+                applyOverride(library, override);
+            }
+        } catch (Exception e) {
+            err.println("Could not load " + documentFile + ": " + e.getMessage());
+            return EXIT_LOAD_ERROR;
+        }
+
+        int from = fromFrame != null ? fromFrame : Math.round(library.getFrame());
+        int to = toFrame != null ? toFrame : from;
+        if (to < from) {
+            err.println("The last frame (" + to + ") comes before the first frame (" + from + ").");
+            return EXIT_USAGE;
+        }
+        BatchRenderer renderer = new BatchRenderer(library, threadCount, out, err);
+        boolean success;
+        try {
+            if (movieFile != null) {
+                success = renderer.renderMovie(from, to, movieFile, videoFormat);
+            } else {
+                if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                    err.println("Could not create output directory " + outputDirectory + ".");
+                    return EXIT_RENDER_ERROR;
+                }
+                success = renderer.renderImages(from, to, outputDirectory, prefix != null ? prefix : library.getName(), imageFormat);
+            }
+        } catch (Exception e) {
+            err.println("Rendering failed: " + e);
+            return EXIT_RENDER_ERROR;
+        }
+        return success ? EXIT_OK : EXIT_RENDER_ERROR;
+    }
+
+    public static void main(String[] args) {
+        // Rendering should never open a window or connect to a display.
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+}
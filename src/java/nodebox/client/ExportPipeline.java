@@ -0,0 +1,354 @@
+package nodebox.client;
+
+import nodebox.graphics.Canvas;
+import nodebox.node.Node;
+import nodebox.node.NodeLibrary;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports a range of frames to image files using three stages that run concurrently.
+ * <p/>
+ * The stages are:
+ * <ol>
+ * <li>Evaluation: each evaluator thread updates its own copy of the library for a frame.</li>
+ * <li>Rasterization: the resulting canvas is drawn to an image.</li>
+ * <li>Encoding: the image is written to a file.</li>
+ * </ol>
+ * <p/>
+ * The stages are connected by bounded queues. If a stage falls behind, the stages before it block until there is
+ * room in the queue, so the number of frames in memory stays limited.
+ * <p/>
+ * Frames can finish out of order, but the file name only depends on the frame number: prefix-frame.extension.
+ * PDF files are written directly from the canvas, without rasterization.
+ */
+public class ExportPipeline {
+
+    private static final FrameData END_OF_FRAMES = new FrameData(-1, 0);
+
+    private final List<NodeLibrary> evaluatorLibraries;
+    private final int evaluatorCount;
+    private final int rasterizerCount;
+    private final int encoderCount;
+    private final int queueSize;
+    private Listener listener;
+    private volatile boolean cancelled;
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    /**
+     * Create a pipeline that uses all available processors.
+     *
+     * @param library the library to export. The library itself is not changed.
+     * @see #ExportPipeline(NodeLibrary, int, int, int, int)
+     */
+    public ExportPipeline(NodeLibrary library) {
+        this(library, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a pipeline with the given number of threads for each stage.
+     *
+     * @param library     the library to export. The library itself is not changed.
+     * @param threadCount the number of threads for each stage.
+     * @see #ExportPipeline(NodeLibrary, int, int, int, int)
+     */
+    public ExportPipeline(NodeLibrary library, int threadCount) {
+        this(library, threadCount, threadCount, threadCount, threadCount * 2);
+    }
+
+    /**
+     * Create a pipeline.
+     * <p/>
+     * The library is copied for each evaluator thread when the pipeline is created, so create the pipeline on the
+     * thread that changes the library. Changes made to the library afterwards are not exported.
+     *
+     * @param library         the library to export. The library itself is not changed.
+     * @param evaluatorCount  the number of threads that evaluate frames. Each one uses a copy of the library.
+     * @param rasterizerCount the number of threads that draw canvases to images.
+     * @param encoderCount    the number of threads that write images to files.
+     * @param queueSize       the maximum number of frames waiting between two stages.
+     */
+    public ExportPipeline(NodeLibrary library, int evaluatorCount, int rasterizerCount, int encoderCount, int queueSize) {
+        if (evaluatorCount < 1 || rasterizerCount < 1 || encoderCount < 1)
+            throw new IllegalArgumentException("Each stage needs at least one thread.");
+        if (queueSize < 1)
+            throw new IllegalArgumentException("The queue size should be at least 1, not " + queueSize);
+        evaluatorLibraries = new ArrayList<NodeLibrary>(evaluatorCount);
+        for (int i = 0; i < evaluatorCount; i++) {
+            evaluatorLibraries.add(library.copy());
+        }
+        this.evaluatorCount = evaluatorCount;
+        this.rasterizerCount = rasterizerCount;
+        this.encoderCount = encoderCount;
+        this.queueSize = queueSize;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stop the export. Frames that are already in the pipeline are discarded.
+     * <p/>
+     * This method can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Export the given frames to files in the given directory.
+     * <p/>
+     * This method blocks until all frames are exported. If the calling thread is interrupted, the export is cancelled
+     * and the method returns once the frames that are being processed are done. A pipeline exports one range at a
+     * time, since it reuses the same copies of the library.
+     *
+     * @param fromFrame the first frame
+     * @param toFrame   the last frame, inclusive
+     * @param directory the output directory
+     * @param prefix    the file name prefix
+     * @param format    the image format
+     * @return true if all frames were exported without errors.
+     */
+    public boolean exportRange(final int fromFrame, final int toFrame, final File directory, final String prefix, final ImageFormat format) {
+        if (toFrame < fromFrame)
+            throw new IllegalArgumentException("The last frame (" + toFrame + ") comes before the first frame (" + fromFrame + ").");
+        cancelled = false;
+        errorCount.set(0);
+        final BlockingQueue<FrameData> rasterQueue = new ArrayBlockingQueue<FrameData>(queueSize);
+        final BlockingQueue<FrameData> encodeQueue = new ArrayBlockingQueue<FrameData>(queueSize);
+        final AtomicInteger nextFrame = new AtomicInteger(fromFrame);
+        final AtomicInteger activeEvaluators = new AtomicInteger(evaluatorCount);
+        final AtomicInteger activeRasterizers = new AtomicInteger(rasterizerCount);
+        final boolean rasterize = format != ImageFormat.PDF;
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < evaluatorCount; i++) {
+            final NodeLibrary evaluatorLibrary = evaluatorLibraries.get(i);
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        int frame;
+                        while (!cancelled && (frame = nextFrame.getAndIncrement()) <= toFrame) {
+                            put(rasterQueue, evaluate(evaluatorLibrary, frame));
+                        }
+                    } finally {
+                        // The last evaluator tells the rasterizers there are no more frames.
+                        if (activeEvaluators.decrementAndGet() == 0)
+                            putEndMarkers(rasterQueue, rasterizerCount);
+                    }
+                }
+            }, "ExportPipeline-evaluate-" + i));
+        }
+        for (int i = 0; i < rasterizerCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        FrameData data;
+                        while ((data = take(rasterQueue)) != END_OF_FRAMES) {
+                            if (rasterize && data.canvas != null && !cancelled)
+                                rasterize(data);
+                            put(encodeQueue, data);
+                        }
+                    } finally {
+                        if (activeRasterizers.decrementAndGet() == 0)
+                            putEndMarkers(encodeQueue, encoderCount);
+                    }
+                }
+            }, "ExportPipeline-rasterize-" + i));
+        }
+        for (int i = 0; i < encoderCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    FrameData data;
+                    while ((data = take(encodeQueue)) != END_OF_FRAMES) {
+                        if (data.canvas != null && !cancelled)
+                            encode(data, format, format.ensureFileExtension(new File(directory, prefix + "-" + data.frame)));
+                    }
+                }
+            }, "ExportPipeline-encode-" + i));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            // Wait for the frames that are being processed, so no files are written after this method returns.
+            joinUninterruptibly(threads);
+            Thread.currentThread().interrupt();
+        }
+        return !cancelled && errorCount.get() == 0;
+    }
+
+    private static void joinUninterruptibly(List<Thread> threads) {
+        for (Thread t : threads) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ignored) {
+                    // The caller restores the interrupted status.
+                }
+            }
+        }
+    }
+
+    private FrameData evaluate(NodeLibrary evaluatorLibrary, int frame) {
+        FrameData data = new FrameData(frame, System.currentTimeMillis());
+        try {
+            evaluatorLibrary.setFrame(frame);
+            Node root = evaluatorLibrary.getRootNode();
+            root.update();
+            Object outputValue = root.getOutputValue();
+            if (!(outputValue instanceof Canvas))
+                throw new RuntimeException("This type of output cannot be exported " + outputValue);
+            // The next frame reuses the output of the nodes that did not change, so the rasterizer and the listener
+            // each get their own copy, prepared here for drawing.
+            Canvas canvas = (Canvas) outputValue;
+            data.canvas = canvas.preparedClone();
+            if (listener != null)
+                listener.frameEvaluated(frame, canvas.preparedClone());
+        } catch (Exception e) {
+            data.canvas = null;
+            fail(frame, e);
+        }
+        return data;
+    }
+
+    private void rasterize(FrameData data) {
+        try {
+            data.image = data.canvas.asImage();
+        } catch (Exception e) {
+            data.canvas = null;
+            fail(data.frame, e);
+        }
+    }
+
+    private void encode(FrameData data, ImageFormat format, File file) {
+        try {
+            if (data.image != null) {
+                format.write(data.image, file);
+            } else {
+                data.canvas.save(file);
+            }
+            if (listener != null)
+                listener.frameExported(data.frame, file, System.currentTimeMillis() - data.startTime);
+        } catch (Exception e) {
+            fail(data.frame, e);
+        }
+    }
+
+    private void fail(int frame, Exception e) {
+        errorCount.incrementAndGet();
+        if (listener != null)
+            listener.frameFailed(frame, e);
+    }
+
+    private void put(BlockingQueue<FrameData> queue, FrameData data) {
+        try {
+            queue.put(data);
+        } catch (InterruptedException e) {
+            // Pipeline threads are never interrupted by the pipeline itself.
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void putEndMarkers(BlockingQueue<FrameData> queue, int count) {
+        for (int i = 0; i < count; i++) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(END_OF_FRAMES);
+                    break;
+                } catch (InterruptedException e) {
+                    // The end markers need to arrive, otherwise the next stage waits forever.
+                    interrupted = true;
+                    cancel();
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private FrameData take(BlockingQueue<FrameData> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // Keep draining until the end marker arrives, so the previous stage never blocks forever.
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * A frame on its way through the pipeline.
+     */
+    private static class FrameData {
+        private final int frame;
+        private final long startTime;
+        private Canvas canvas;
+        private BufferedImage image;
+
+        private FrameData(int frame, long startTime) {
+            this.frame = frame;
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * Receives progress events from the pipeline.
+     * <p/>
+     * The methods are called from the pipeline threads.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a frame is evaluated.
+         *
+         * @param frame  the frame number
+         * @param canvas a copy of the output of the frame, that can be kept and drawn on any thread.
+         */
+        public void frameEvaluated(int frame, Canvas canvas);
+
+        /**
+         * Called when a frame is written to a file.
+         *
+         * @param frame         the frame number
+         * @param file          the file the frame was written to
+         * @param elapsedMillis the time between the start of the evaluation and the end of the encoding.
+         */
+        public void frameExported(int frame, File file, long elapsedMillis);
+
+        /**
+         * Called when a frame could not be evaluated, rasterized or written.
+         *
+         * @param frame the frame number
+         * @param e     the error
+         */
+        public void frameFailed(int frame, Exception e);
+
+    }
+
+}
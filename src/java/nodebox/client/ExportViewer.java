@@ -9,6 +9,7 @@ import java.awt.*;
 public class ExportViewer extends JFrame {
     private Node network;
     private Viewer viewer;
+    private volatile Object outputValue;
 
     public ExportViewer(Node exportNetwork) {
         super("Exporting...");
@@ -22,11 +23,26 @@ public class ExportViewer extends JFrame {
         viewer.repaint();
     }
 
+    /**
+     * Show the given output instead of the output of the network.
+     * <p/>
+     * Use this when frames are rendered on a different network than the one given in the constructor.
+     * This method can be called from any thread.
+     *
+     * @param outputValue the output value to show.
+     */
+    public void updateFrame(Object outputValue) {
+        this.outputValue = outputValue;
+        viewer.repaint();
+    }
+
     private class Viewer extends JComponent {
         public void paint(Graphics g) {
             Graphics2D g2 = (Graphics2D) g;
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            Object outputValue = network.getOutputValue();
+            Object outputValue = ExportViewer.this.outputValue;
+            if (outputValue == null)
+                outputValue = network.getOutputValue();
             g2.translate(getWidth() / 2, getHeight() / 2);
             if (outputValue instanceof Grob) {
                 if (outputValue instanceof nodebox.graphics.Canvas)
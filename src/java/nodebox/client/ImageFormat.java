@@ -1,6 +1,12 @@
 package nodebox.client;
 
+import nodebox.graphics.PNGWriter;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,4 +53,34 @@ public final class ImageFormat {
         return file + "." + getExtension();
     }
 
+    /**
+     * Write the image to a file in this format, with the default compression.
+     *
+     * @param image the image
+     * @param file  the file to write to
+     * @throws IOException if the image could not be written.
+     */
+    public void write(RenderedImage image, File file) throws IOException {
+        write(image, file, PNGWriter.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Write the image to a file in this format.
+     * <p/>
+     * PNG images are compressed on all processors, at the given compression level.
+     *
+     * @param image            the image
+     * @param file             the file to write to
+     * @param compressionLevel the PNG compression level, from 0 (none) to 9 (best).
+     *                         Use PNGWriter.FAST_COMPRESSION for images that are only kept for a short time.
+     * @throws IOException if the image could not be written.
+     */
+    public void write(RenderedImage image, File file, int compressionLevel) throws IOException {
+        if (this == PNG && image instanceof BufferedImage) {
+            PNGWriter.write((BufferedImage) image, file, compressionLevel);
+        } else if (!ImageIO.write(image, getExtension(), file)) {
+            throw new IOException("No image writer for " + getLabel() + " images.");
+        }
+    }
+
 }
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 
 import static nodebox.base.Preconditions.checkArgument;
 import static nodebox.base.Preconditions.checkNotNull;
@@ -33,6 +34,7 @@ import static nodebox.base.Preconditions.checkNotNull;
 public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEventListener, HandleDelegate {
 
     private final static String WINDOW_MODIFIED = "windowModified";
+    private final static int ANIMATION_BUFFER_SIZE = 30;
 
     public static String lastFilePath;
     public static String lastExportPath;
@@ -44,6 +46,7 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
     private boolean documentChanged;
     private static Logger logger = Logger.getLogger("nodebox.client.NodeBoxDocument");
     private AnimationTimer animationTimer;
+    private AnimationBuffer animationBuffer;
     private ArrayList<ParameterEditor> parameterEditors = new ArrayList<ParameterEditor>();
     private boolean loaded = false;
     private SpotlightPanel spotlightPanel;
@@ -174,6 +177,7 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
         boolean startingUp = this.nodeLibrary == null;
         this.nodeLibrary = newLibrary;
         if (!startingUp) {
+            updateOutputCache();
             setActiveNetwork(newLibrary.getRootNode());
         }
     }
@@ -622,6 +626,8 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
         viewer.repaint();
         networkView.setActiveNetwork(activeNetwork);
         networkView.setActiveNode(activeNode);
+        if (animationBuffer != null)
+            animationBuffer.setNetwork(activeNetwork);
 
         render();
     }
@@ -702,15 +708,36 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
     }
 
     public void nextFrame() {
-        setFrame(getFrame() + 1);
+        if (animationBuffer != null && animationBuffer.isRunning()) {
+            int frame = Math.round(getFrame()) + 1;
+            // If the next frame is not rendered yet, keep showing the current frame.
+            Object outputValue = animationBuffer.takeFrame(frame);
+            if (outputValue == null) return;
+            animationBuffer.setFrame(frame);
+            animationBar.updateFrame();
+            viewer.setOutputValue(outputValue);
+        } else {
+            setFrame(getFrame() + 1);
+        }
     }
 
     public void playAnimation() {
+        if (animationBuffer == null) {
+            int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            animationBuffer = new AnimationBuffer(nodeLibrary, activeNetwork, ANIMATION_BUFFER_SIZE, workerCount);
+            animationBuffer.start();
+        }
         animationTimer.start();
     }
 
     public void stopAnimation() {
         animationTimer.stop();
+        if (animationBuffer != null) {
+            animationBuffer.stop();
+            animationBuffer = null;
+            // During playback the active network was not updated, so render the current frame.
+            render();
+        }
     }
 
     public void rewindAnimation() {
@@ -747,6 +774,12 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
 
     private void render() {
         if (!loaded) return;
+        if (animationBuffer != null) {
+            // During playback, frames are rendered by the animation buffer. Since something has changed,
+            // the buffered frames are no longer valid.
+            animationBuffer.invalidate();
+            return;
+        }
         if (!activeNetwork.isDirty()) return;
         final ProcessingContext context = new ProcessingContext(activeNetwork);
         startRendering(context);
@@ -896,6 +929,19 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
     public void setDocumentFile(File documentFile) {
         this.documentFile = documentFile;
         updateTitle();
+        updateOutputCache();
+    }
+
+    /**
+     * Store node outputs in a cache directory next to the document, if enabled in the preferences.
+     */
+    private void updateOutputCache() {
+        Preferences preferences = Preferences.userNodeForPackage(Application.class);
+        if (documentFile != null && preferences.getBoolean(Application.PREFERENCE_OUTPUT_CACHE, false)) {
+            nodeLibrary.setOutputCache(new OutputCache(OutputCache.directoryForDocument(documentFile)));
+        } else {
+            nodeLibrary.setOutputCache(null);
+        }
     }
 
     public boolean isChanged() {
@@ -1120,34 +1166,35 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
         d.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
         d.setAlwaysOnTop(true);
 
-        String xml = nodeLibrary.toXml();
-        final NodeLibrary exportLibrary = NodeLibrary.load(nodeLibrary.getName(), xml, getManager());
-        exportLibrary.setFile(nodeLibrary.getFile());
-        final Node exportNetwork = exportLibrary.getRootNode();
-        final ExportViewer viewer = new ExportViewer(exportNetwork);
+        final ExportViewer viewer = new ExportViewer(nodeLibrary.getRootNode());
+        final ExportPipeline pipeline = new ExportPipeline(nodeLibrary);
+        pipeline.setListener(new ExportPipeline.Listener() {
+            public void frameEvaluated(int frame, nodebox.graphics.Canvas canvas) {
+                viewer.updateFrame(canvas);
+            }
+
+            public void frameExported(int frame, File file, long elapsedMillis) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        d.tick();
+                    }
+                });
+            }
+
+            public void frameFailed(int frame, Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        d.tick();
+                    }
+                });
+            }
+        });
 
         Thread t = new Thread(new Runnable() {
             public void run() {
                 try {
-                    for (int frame = fromValue; frame <= toValue; frame++) {
-                        if (Thread.currentThread().isInterrupted())
-                            break;
-                        // TODO: Check if rendered node is not null.
-                        try {
-                            exportLibrary.setFrame(frame);
-                            exportNetwork.update();
-                            viewer.updateFrame();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        SwingUtilities.invokeLater(new Runnable() {
-                            public void run() {
-                                d.tick();
-                            }
-                        });
-                        File exportFile = new File(directory, exportPrefix + "-" + frame);
-                        exportToFile(exportFile, exportNetwork, format);
-                    }
+                    pipeline.exportRange(fromValue, toValue, directory, exportPrefix, format);
                 } catch (Exception e) {
                     e.printStackTrace();
                 } finally {
@@ -1189,9 +1236,7 @@ public class NodeBoxDocument extends JFrame implements WindowListener, ViewerEve
         d.setAlwaysOnTop(true);
 
         file = videoFormat.ensureFileExtension(file);
-        String xml = nodeLibrary.toXml();
-        final NodeLibrary exportLibrary = NodeLibrary.load(nodeLibrary.getName(), xml, getManager());
-        exportLibrary.setFile(nodeLibrary.getFile());
+        final NodeLibrary exportLibrary = nodeLibrary.copy();
         final Node exportNetwork = exportLibrary.getRootNode();
         final int width = (int) exportNetwork.asFloat(NodeLibrary.CANVAS_WIDTH);
         final int height = (int) exportNetwork.asFloat(NodeLibrary.CANVAS_HEIGHT);
@@ -10,6 +10,7 @@ import java.util.prefs.Preferences;
 public class PreferencesDialog extends JDialog {
 
     private Preferences preferences;
+    private JCheckBox outputCacheCheck;
 
     public PreferencesDialog() {
         super((Frame) null, "Preferences");
@@ -18,8 +19,8 @@ public class PreferencesDialog extends JDialog {
         rootPanel.setLayout(new BoxLayout(rootPanel, BoxLayout.Y_AXIS));
         rootPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        JLabel label = new JLabel("<html><i>No preferences yet.</i></html>");
-        rootPanel.add(label);
+        outputCacheCheck = new JCheckBox("Store node output on disk, next to the document");
+        rootPanel.add(outputCacheCheck);
 
         rootPanel.add(Box.createVerticalStrut(10));
 
@@ -50,6 +51,7 @@ public class PreferencesDialog extends JDialog {
 
     private void readPreferences() {
         this.preferences = Preferences.userNodeForPackage(Application.class);
+        outputCacheCheck.setSelected(preferences.getBoolean(Application.PREFERENCE_OUTPUT_CACHE, false));
     }
 
     public void doCancel() {
@@ -57,8 +59,8 @@ public class PreferencesDialog extends JDialog {
     }
 
     public void doSave() {
-        // TODO Re-enable this when there are actual preferences.
-        // JOptionPane.showMessageDialog(this, "Please restart NodeBox for the changes to take effect.");
+        preferences.putBoolean(Application.PREFERENCE_OUTPUT_CACHE, outputCacheCheck.isSelected());
+        JOptionPane.showMessageDialog(this, "Please reopen your documents for the changes to take effect.");
         try {
             preferences.flush();
         } catch (BackingStoreException e) {
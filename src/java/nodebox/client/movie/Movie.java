@@ -1,11 +1,15 @@
 package nodebox.client.movie;
 
-import javax.imageio.ImageIO;
+import nodebox.client.ImageFormat;
+import nodebox.graphics.PNGWriter;
+
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 public class Movie {
@@ -15,7 +19,18 @@ public class Movie {
 
     public static final String FFMPEG_PRESET_TEMPLATE = "res/ffpresets/libx264-%s.ffpreset";
     public static final ArrayList<VideoFormat> VIDEO_FORMATS;
-    public static final VideoFormat DEFAULT_FORMAT = MP4VideoFormat.MP4Format;;
+    public static final VideoFormat DEFAULT_FORMAT = MP4VideoFormat.MP4Format;
+
+    /**
+     * Starts the encoder with its error stream merged into its output stream.
+     */
+    public static final ProcessLauncher DEFAULT_LAUNCHER = new ProcessLauncher() {
+        public Process launch(List<String> command) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            return pb.start();
+        }
+    };
 
     static {
         String osName = System.getProperty("os.name").split("\\s")[0];
@@ -46,6 +61,15 @@ public class Movie {
     private boolean verbose;
     private int frameCount = 0;
     private String temporaryFileTemplate;
+    private boolean streaming = true;
+    private ProcessLauncher processLauncher = DEFAULT_LAUNCHER;
+    private Process encoderProcess;
+    private OutputStream encoderInput;
+    private Thread encoderOutputReader;
+    private StringWriter encoderOutputBuffer;
+    private volatile PrintWriter encoderOutput;
+    private byte[] frameBytes;
+    private int[] rowPixels;
 
     public Movie(String movieFilename, VideoFormat format, int width, int height) {
         this(movieFilename, format, width, height, false);
@@ -100,13 +124,70 @@ public class Movie {
         return new File(String.format(temporaryFileTemplate, frame));
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set if frames are streamed directly to the encoder.
+     * <p/>
+     * In streaming mode, which is the default, the encoder is started when the first frame is added and receives
+     * the raw pixels of each frame on its standard input. Otherwise frames are stored as temporary PNG files and
+     * encoded when calling save().
+     *
+     * @param streaming true to stream frames to the encoder.
+     * @throws IllegalStateException if frames were already added.
+     */
+    public void setStreaming(boolean streaming) {
+        if (frameCount > 0)
+            throw new IllegalStateException("The streaming mode can only be changed before adding frames.");
+        this.streaming = streaming;
+    }
+
+    public ProcessLauncher getProcessLauncher() {
+        return processLauncher;
+    }
+
+    /**
+     * Set the object that starts the encoder process.
+     *
+     * @param processLauncher the process launcher.
+     * @throws IllegalStateException if the encoder was already started.
+     */
+    public void setProcessLauncher(ProcessLauncher processLauncher) {
+        if (encoderProcess != null)
+            throw new IllegalStateException("The encoder is already running.");
+        this.processLauncher = processLauncher;
+    }
+
+    /**
+     * Set the writer that receives the output of the encoder.
+     * <p/>
+     * In streaming mode the encoder reports its progress while frames are added. The output produced
+     * before this method is called is written to the new writer.
+     *
+     * @param sw the writer for the encoder output.
+     */
+    public void setEncoderOutput(StringWriter sw) {
+        PrintWriter out = new PrintWriter(sw, true);
+        synchronized (this) {
+            if (encoderOutputBuffer != null) {
+                out.print(encoderOutputBuffer.toString());
+                out.flush();
+                encoderOutputBuffer = null;
+            }
+            encoderOutput = out;
+        }
+    }
+
     /**
      * Add the image to the movie.
      * <p/>
      * The image size needs to be exactly the same size as the movie.
      * <p/>
-     * Internally, this saves the image to a temporary image and increases the frame counter. Temporary images are
-     * cleaned up when calling save() or if an error occurs.
+     * In streaming mode, the pixels are written to the encoder directly. Otherwise, this saves the image to a
+     * temporary image and increases the frame counter. Temporary images are cleaned up when calling save() or
+     * if an error occurs.
      *
      * @param img the image to add to the movie.
      */
@@ -114,43 +195,139 @@ public class Movie {
         if (img.getWidth() != width || img.getHeight() != height) {
             throw new RuntimeException("Given image does not have the same size as the movie.");
         }
+        if (streaming) {
+            try {
+                if (encoderProcess == null)
+                    startEncoder();
+                writeRawFrame(img);
+                frameCount++;
+            } catch (IOException e) {
+                cleanupAndThrowException(e);
+            }
+            return;
+        }
         try {
-            ImageIO.write(img, "png", temporaryFileForFrame(frameCount));
+            // The frames are only kept until the movie is encoded, so they are compressed quickly.
+            ImageFormat.PNG.write(img, temporaryFileForFrame(frameCount), PNGWriter.FAST_COMPRESSION);
             frameCount++;
         } catch (IOException e) {
             cleanupAndThrowException(e);
         }
     }
 
-    public void save() {
-        save(new StringWriter());
-    }
-
-    /**
-     * Finishes the export and save the movie.
-     */
-    public void save(StringWriter sw) {
-        PrintWriter out = new PrintWriter(sw, true);
-
+    private List<String> encoderCommand() {
         ArrayList<String> commandList = new ArrayList<String>();
         commandList.add(FFMPEG_BINARY.getAbsolutePath());
         commandList.add("-y"); // Overwrite target if exists
-        commandList.add("-i");
-        commandList.add(temporaryFileTemplate); // Input images
+        if (streaming) {
+            // Raw pixels are read from standard input.
+            commandList.add("-f");
+            commandList.add("rawvideo");
+            commandList.add("-pix_fmt");
+            commandList.add("rgba");
+            commandList.add("-s");
+            commandList.add(width + "x" + height);
+            commandList.add("-i");
+            commandList.add("-");
+        } else {
+            commandList.add("-i");
+            commandList.add(temporaryFileTemplate); // Input images
+        }
         commandList.addAll(videoFormat.getArgumentList(this)); // Video format specific arguments
         commandList.add(movieFilename); // Target file name
-
-        ProcessBuilder pb = new ProcessBuilder(commandList);
         if (verbose) {
-            for (String cmd : pb.command()) {
+            for (String cmd : commandList) {
                 System.out.print(cmd + " ");
             }
             System.out.println();
         }
-        pb.redirectErrorStream(true);
+        return commandList;
+    }
+
+    /**
+     * Start the encoder and a thread that reads its output.
+     *
+     * @throws IOException if the encoder could not be started.
+     */
+    private void startEncoder() throws IOException {
+        encoderProcess = processLauncher.launch(encoderCommand());
+        encoderInput = new BufferedOutputStream(encoderProcess.getOutputStream(), width * 4 * 16);
+        synchronized (this) {
+            if (encoderOutput == null) {
+                encoderOutputBuffer = new StringWriter();
+                encoderOutput = new PrintWriter(encoderOutputBuffer, true);
+            }
+        }
+        final BufferedReader in = new BufferedReader(new InputStreamReader(encoderProcess.getInputStream()));
+        encoderOutputReader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        synchronized (Movie.this) {
+                            encoderOutput.println(line);
+                        }
+                    }
+                } catch (IOException ignored) {
+                    // The process has ended.
+                }
+            }
+        }, "Movie-encoder-output");
+        encoderOutputReader.setDaemon(true);
+        encoderOutputReader.start();
+    }
+
+    /**
+     * Write the pixels of the image as RGBA bytes to the encoder.
+     *
+     * @param img the image.
+     * @throws IOException if the encoder can not receive the frame.
+     */
+    private void writeRawFrame(RenderedImage img) throws IOException {
+        BufferedImage bufferedImage;
+        if (img instanceof BufferedImage) {
+            bufferedImage = (BufferedImage) img;
+        } else {
+            bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = bufferedImage.createGraphics();
+            g.drawRenderedImage(img, new AffineTransform());
+            g.dispose();
+        }
+        if (frameBytes == null) {
+            frameBytes = new byte[width * 4];
+            rowPixels = new int[width];
+        }
+        for (int y = 0; y < height; y++) {
+            bufferedImage.getRGB(0, y, width, 1, rowPixels, 0, width);
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = rowPixels[x];
+                frameBytes[i++] = (byte) (argb >> 16);
+                frameBytes[i++] = (byte) (argb >> 8);
+                frameBytes[i++] = (byte) argb;
+                frameBytes[i++] = (byte) (argb >> 24);
+            }
+            encoderInput.write(frameBytes);
+        }
+    }
+
+    public void save() {
+        save(new StringWriter());
+    }
+
+    /**
+     * Finishes the export and save the movie.
+     * <p/>
+     * The output of the encoder is written to the given writer.
+     */
+    public void save(StringWriter sw) {
+        if (streaming) {
+            finishStreaming(sw);
+            return;
+        }
+        PrintWriter out = new PrintWriter(sw, true);
         Process p;
         try {
-            p = pb.start();
+            p = processLauncher.launch(encoderCommand());
             p.getOutputStream().close();
             BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
             String line;
@@ -169,7 +346,32 @@ public class Movie {
     }
 
     /**
-     * Cleans up the temporary images.
+     * Close the input of the encoder and wait until it has written the movie.
+     *
+     * @param sw the writer for the remaining encoder output.
+     */
+    private void finishStreaming(StringWriter sw) {
+        if (encoderProcess == null) return;
+        setEncoderOutput(sw);
+        try {
+            encoderInput.close();
+            encoderOutputReader.join();
+            int exitValue = encoderProcess.waitFor();
+            if (verbose) {
+                System.out.println(sw.toString());
+            }
+            if (exitValue != 0)
+                throw new IOException("The encoder exited with status " + exitValue + ".");
+        } catch (IOException e) {
+            cleanupAndThrowException(e);
+        } catch (InterruptedException e) {
+            cleanupAndThrowException(e);
+        }
+        encoderProcess = null;
+    }
+
+    /**
+     * Cleans up the temporary images, or stops the encoder in streaming mode.
      * <p/>
      * Normally you should not call this method as it is called automatically when running finish() or if an error
      * occurred. The only reason to call it is if you have added images and then decide you don't want to generate
@@ -178,6 +380,15 @@ public class Movie {
      * @see #save()
      */
     public void cleanup() {
+        if (streaming) {
+            // Stop the encoder and remove the incomplete movie.
+            if (encoderProcess != null) {
+                encoderProcess.destroy();
+                encoderProcess = null;
+                getMovieFile().delete();
+            }
+            return;
+        }
         for (int i = 0; i < frameCount; i++) {
             temporaryFileForFrame(i).delete();
         }
@@ -0,0 +1,27 @@
+package nodebox.client.movie;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Starts the external encoder process.
+ * <p/>
+ * The default launcher starts the given command as a new process with its error stream merged into its output stream.
+ * Tests can substitute a launcher that returns a fake encoder.
+ *
+ * @see Movie#setProcessLauncher(ProcessLauncher)
+ */
+public interface ProcessLauncher {
+
+    /**
+     * Start the given command.
+     * <p/>
+     * The error output of the process should be available in its input stream.
+     *
+     * @param command the command and its arguments.
+     * @return the started process.
+     * @throws IOException if the process could not be started.
+     */
+    public Process launch(List<String> command) throws IOException;
+
+}
@@ -49,6 +49,21 @@ public abstract class AbstractGeometry extends AbstractTransformable implements
         return makePoints(amount, false);
     }
 
+    /**
+     * Convert the coordinates created by a {@link Resampler} to points.
+     *
+     * @param coordinates the coordinates as x0, y0, x1, y1, ...
+     * @param amount      the number of points
+     * @return an array of points.
+     */
+    protected static Point[] toPoints(float[] coordinates, int amount) {
+        Point[] points = new Point[amount];
+        for (int i = 0; i < amount; i++) {
+            points[i] = new Point(coordinates[i * 2], coordinates[i * 2 + 1]);
+        }
+        return points;
+    }
+
     /**
      * Calculate how far the points would be apart, given the specified amount and whether the geometry is closed.
      *
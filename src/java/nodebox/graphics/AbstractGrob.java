@@ -100,4 +100,17 @@ public abstract class AbstractGrob implements Grob {
     //// Object methods ////
 
     public abstract Grob clone();
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof AbstractGrob)) return false;
+        AbstractGrob other = (AbstractGrob) obj;
+        return transform == null ? other.transform == null : transform.equals(other.transform);
+    }
+
+    @Override
+    public int hashCode() {
+        return transform == null ? 0 : transform.hashCode();
+    }
 }
@@ -0,0 +1,237 @@
+package nodebox.graphics;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+/**
+ * Combines many paths using boolean operations.
+ * <p/>
+ * Each path is converted to an Area once. The areas are merged in a balanced tree: each round merges pairs of
+ * neighbouring areas, so every area takes part in a logarithmic number of merges instead of growing one result that
+ * is merged with each following path. The merges in a round are independent, so they can run in parallel on the
+ * shared threads of {@link PathTasks}.
+ * <p/>
+ * For unions, paths whose bounds do not overlap with any other path are not merged at all: the paths are divided
+ * into groups of overlapping bounds, each group is merged separately and the results are placed side by side.
+ */
+class AreaCombiner {
+
+    private enum Operation {
+        UNION, INTERSECTION
+    }
+
+    private final boolean parallel;
+
+    /**
+     * Create a combiner.
+     *
+     * @param parallel if true, merges run on a thread for each processor.
+     */
+    AreaCombiner(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Unite all paths.
+     *
+     * @param paths the paths
+     * @return a new path with the outline of all paths.
+     */
+    Path union(List<Path> paths) {
+        Path result = new Path();
+        for (Area a : unionAreas(toAreas(paths))) {
+            result.extend(a);
+        }
+        return result;
+    }
+
+    /**
+     * Intersect all paths.
+     *
+     * @param paths the paths
+     * @return a new path with the part that lies inside all paths.
+     */
+    Path intersection(List<Path> paths) {
+        List<Area> areas = toAreas(paths);
+        if (areas.isEmpty() || areas.size() < paths.size()) return new Path();
+        // If the bounds have nothing in common, neither do the paths.
+        Rectangle2D common = areas.get(0).getBounds2D();
+        for (Area a : areas) {
+            Rectangle2D.intersect(common, a.getBounds2D(), common);
+            if (common.isEmpty()) return new Path();
+        }
+        return new Path(reduce(Collections.singletonList(areas), Operation.INTERSECTION).get(0));
+    }
+
+    /**
+     * Subtract all other paths from the first path.
+     *
+     * @param paths the paths
+     * @return a new path with the part of the first path that does not lie inside the other paths.
+     */
+    Path difference(List<Path> paths) {
+        if (paths.isEmpty()) return new Path();
+        Area result = new Area(paths.get(0).getGeneralPath());
+        Rectangle2D bounds = result.getBounds2D();
+        // Only paths that overlap the first path can remove something from it.
+        List<Area> others = new ArrayList<Area>();
+        for (Area a : toAreas(paths.subList(1, paths.size()))) {
+            if (a.getBounds2D().intersects(bounds))
+                others.add(a);
+        }
+        for (Area a : unionAreas(others)) {
+            if (a.getBounds2D().intersects(bounds))
+                result.subtract(a);
+        }
+        return new Path(result);
+    }
+
+    private static List<Area> toAreas(List<Path> paths) {
+        List<Area> areas = new ArrayList<Area>(paths.size());
+        for (Path p : paths) {
+            Area a = new Area(p.getGeneralPath());
+            if (!a.isEmpty())
+                areas.add(a);
+        }
+        return areas;
+    }
+
+    /**
+     * Unite the areas.
+     *
+     * @param areas the areas
+     * @return areas that do not overlap each other.
+     */
+    private List<Area> unionAreas(List<Area> areas) {
+        if (areas.size() < 2) return areas;
+        return reduce(groupOverlapping(areas), Operation.UNION);
+    }
+
+    /**
+     * Divide the areas into groups. Areas in different groups have bounds that do not overlap.
+     * <p/>
+     * The areas are sorted on their left edge and swept from left to right, so each area is only compared with
+     * areas that overlap it horizontally.
+     */
+    private static List<List<Area>> groupOverlapping(final List<Area> areas) {
+        int count = areas.size();
+        final Rectangle2D[] bounds = new Rectangle2D[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = areas.get(i).getBounds2D();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(bounds[a].getMinX(), bounds[b].getMinX());
+            }
+        });
+        // Union-find: each area points to an area in the same group, the root points to itself.
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        List<Integer> active = new ArrayList<Integer>();
+        for (int i : order) {
+            Rectangle2D r = bounds[i];
+            for (Iterator<Integer> it = active.iterator(); it.hasNext();) {
+                int j = it.next();
+                Rectangle2D other = bounds[j];
+                if (other.getMaxX() < r.getMinX()) {
+                    // No area that comes later can overlap this one.
+                    it.remove();
+                } else if (other.getMinY() <= r.getMaxY() && r.getMinY() <= other.getMaxY()) {
+                    parents[find(parents, i)] = find(parents, j);
+                }
+            }
+            active.add(i);
+        }
+        // Collect the groups, keeping the areas in sorted order so neighbours in a group lie close together.
+        Map<Integer, List<Area>> groups = new LinkedHashMap<Integer, List<Area>>();
+        for (int i : order) {
+            int root = find(parents, i);
+            List<Area> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<Area>();
+                groups.put(root, group);
+            }
+            group.add(areas.get(i));
+        }
+        return new ArrayList<List<Area>>(groups.values());
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merge the areas in each group until every group has a single area.
+     *
+     * @param groups    the groups of areas. The lists are not changed.
+     * @param operation the operation to merge two areas with
+     * @return an area for each group.
+     */
+    private List<Area> reduce(List<List<Area>> groups, final Operation operation) {
+        List<List<Area>> current = groups;
+        while (true) {
+            List<List<Area>> next = new ArrayList<List<Area>>(current.size());
+            final List<Area> firsts = new ArrayList<Area>();
+            final List<Area> seconds = new ArrayList<Area>();
+            for (List<Area> group : current) {
+                List<Area> nextGroup = new ArrayList<Area>((group.size() + 1) / 2);
+                for (int i = 0; i + 1 < group.size(); i += 2) {
+                    firsts.add(group.get(i));
+                    seconds.add(group.get(i + 1));
+                    // The merged area is filled in once the merges are run.
+                    nextGroup.add(null);
+                }
+                if (group.size() % 2 == 1)
+                    nextGroup.add(group.get(group.size() - 1));
+                next.add(nextGroup);
+            }
+            if (firsts.isEmpty()) break;
+            final Area[] merged = new Area[firsts.size()];
+            PathTasks.Task task = new PathTasks.Task() {
+                public void run(int index) {
+                    merged[index] = merge(firsts.get(index), seconds.get(index), operation);
+                }
+            };
+            if (parallel) {
+                PathTasks.forEach(merged.length, task);
+            } else {
+                for (int i = 0; i < merged.length; i++) {
+                    task.run(i);
+                }
+            }
+            int mergeIndex = 0;
+            for (List<Area> group : next) {
+                for (int i = 0; i < group.size(); i++) {
+                    if (group.get(i) == null)
+                        group.set(i, merged[mergeIndex++]);
+                }
+            }
+            current = next;
+        }
+        List<Area> areas = new ArrayList<Area>(current.size());
+        for (List<Area> group : current) {
+            areas.add(group.get(0));
+        }
+        return areas;
+    }
+
+    private static Area merge(Area a, Area b, Operation operation) {
+        // The areas are never used again, so the first one can be changed.
+        if (operation == Operation.UNION) {
+            a.add(b);
+        } else {
+            a.intersect(b);
+        }
+        return a;
+    }
+
+}
@@ -22,16 +22,25 @@ import nodebox.util.FileUtils;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Canvas extends AbstractTransformable {
 
     public static final float DEFAULT_WIDTH = 1000;
     public static final float DEFAULT_HEIGHT = 1000;
 
+    // Images with at least this many pixels are drawn in tiles, using a thread for each processor.
+    private static final long TILED_PIXELS = 2048 * 2048;
+    private static final int TILE_SIZE = 512;
+    // The number of pixels in a band when saving an image in bands: 64 MB of pixel data.
+    private static final long BAND_PIXELS = 4096 * 4096;
+
     private Color background = new Color(1, 1, 1);
     private float offsetX, offsetY;
     private float width, height;
@@ -196,6 +205,28 @@ public class Canvas extends AbstractTransformable {
         return new Canvas(this);
     }
 
+    /**
+     * Make a copy of this canvas that can be drawn on another thread.
+     * <p/>
+     * The caches that drawing uses are filled on the calling thread, so drawing the copy only reads it and the
+     * shapes it shares with this canvas.
+     *
+     * @return a copy of the canvas, ready to be drawn.
+     */
+    public Canvas preparedClone() {
+        Canvas copy = clone();
+        if (copy.background != null)
+            copy.background.getAwtColor();
+        for (Grob grob : copy.items) {
+            if (grob instanceof Path) {
+                ((Path) grob)._prepareDrawing();
+            } else if (grob instanceof Geometry) {
+                ((Geometry) grob)._prepareDrawing();
+            }
+        }
+        return copy;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
@@ -203,8 +234,21 @@ public class Canvas extends AbstractTransformable {
         Canvas other = (Canvas) obj;
         return width == other.width
                 && height == other.height
-                && background.equals(other.background)
-                && super.equals(other);
+                && offsetX == other.offsetX
+                && offsetY == other.offsetY
+                && (background == null ? other.background == null : background.equals(other.background))
+                && items.equals(other.items);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = items.hashCode();
+        result = 31 * result + (background != null ? background.hashCode() : 0);
+        result = 31 * result + Float.floatToIntBits(width);
+        result = 31 * result + Float.floatToIntBits(height);
+        result = 31 * result + Float.floatToIntBits(offsetX);
+        result = 31 * result + Float.floatToIntBits(offsetY);
+        return result;
     }
 
     //// Drawing ////
@@ -214,30 +258,129 @@ public class Canvas extends AbstractTransformable {
     }
 
     public void draw(Graphics2D g) {
+        draw(g, items);
+    }
+
+    private void draw(Graphics2D g, List<Grob> grobs) {
         if (background != null) {
             g.setColor(background.getAwtColor());
             g.fill(getBounds().getRectangle2D());
         }
         g.clip(getBounds().getRectangle2D());
-        for (Grob grob : items) {
-            grob.draw(g);
+        PathRenderer renderer = new PathRenderer(g);
+        for (Grob grob : grobs) {
+            renderer.draw(grob);
         }
+        renderer.flush();
     }
 
     public BufferedImage asImage() {
         Rect bounds = getBounds();
         BufferedImage img = new BufferedImage(Math.round(bounds.getWidth()), Math.round(bounds.getHeight()), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = img.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g.translate(-bounds.getX(), -bounds.getY());
-        draw(g);
+        drawImage(img, 0, img.getHeight());
         img.flush();
         return img;
     }
 
+    /**
+     * Draw a horizontal band of the canvas into the top of the image.
+     *
+     * @param img     the image to draw into
+     * @param offsetY the first row of the canvas to draw, in pixels
+     * @param height  the number of rows to draw
+     */
+    private void drawImage(BufferedImage img, int offsetY, int height) {
+        if (PathTasks.THREAD_COUNT > 1 && (long) img.getWidth() * height >= TILED_PIXELS && canDrawInParallel()) {
+            drawTiles(img, offsetY, height, TILE_SIZE);
+        } else {
+            drawRegion(img, 0, 0, img.getWidth(), height, offsetY, items);
+        }
+    }
+
+    /**
+     * Check if the items can be drawn from multiple threads at the same time.
+     * <p/>
+     * Paths and geometry only read their data while drawing, once their caches are filled. Other grobs keep
+     * drawing state of their own.
+     */
+    private boolean canDrawInParallel() {
+        for (Grob grob : items) {
+            if (!(grob instanceof Path) && !(grob instanceof Geometry)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draw a horizontal band of the canvas into the image in square tiles, using a thread for each processor.
+     * <p/>
+     * The grobs are sorted into the tiles they can change, so each tile only draws the grobs that touch it.
+     * Tiles cover separate pixels of the image, so they can be drawn at the same time without combining them
+     * afterwards.
+     *
+     * @param img      the image to draw into
+     * @param offsetY  the first row of the canvas to draw, in pixels
+     * @param height   the number of rows to draw
+     * @param tileSize the width and height of a tile, in pixels.
+     */
+    /* package private */ void drawTiles(final BufferedImage img, final int offsetY, final int height, final int tileSize) {
+        if (background != null)
+            background.getAwtColor();
+        final int columns = (img.getWidth() + tileSize - 1) / tileSize;
+        final int rows = (height + tileSize - 1) / tileSize;
+        final List<List<Grob>> tiles = new ArrayList<List<Grob>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            tiles.add(new ArrayList<Grob>());
+        }
+        Rect bounds = getBounds();
+        float top = bounds.getY() + offsetY;
+        for (Grob grob : items) {
+            Rectangle2D r;
+            if (grob instanceof Path) {
+                Path p = (Path) grob;
+                p._prepareDrawing();
+                r = PathRenderer.drawnBounds(p.getBounds(), p.getStrokeColor() == null ? 0 : p.getStrokeWidth(), 1);
+            } else {
+                Geometry g = (Geometry) grob;
+                g._prepareDrawing();
+                r = PathRenderer.drawnBounds(g.getBounds(), g._maxStrokeWidth(), 1);
+            }
+            // Convert to pixel coordinates.
+            int firstColumn = Math.max(0, (int) Math.floor((r.getMinX() - bounds.getX()) / tileSize));
+            int lastColumn = Math.min(columns - 1, (int) Math.floor((r.getMaxX() - bounds.getX()) / tileSize));
+            int firstRow = Math.max(0, (int) Math.floor((r.getMinY() - top) / tileSize));
+            int lastRow = Math.min(rows - 1, (int) Math.floor((r.getMaxY() - top) / tileSize));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    tiles.get(row * columns + column).add(grob);
+                }
+            }
+        }
+        PathTasks.forEach(columns * rows, new PathTasks.Task() {
+            public void run(int index) {
+                int x = index % columns * tileSize;
+                int y = index / columns * tileSize;
+                drawRegion(img, x, y, Math.min(tileSize, img.getWidth() - x), Math.min(tileSize, height - y),
+                        offsetY, tiles.get(index));
+            }
+        });
+    }
+
+    private void drawRegion(BufferedImage img, int x, int y, int width, int height, int offsetY, List<Grob> grobs) {
+        Rect bounds = getBounds();
+        Graphics2D g = img.createGraphics();
+        g.clipRect(x, y, width, height);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-bounds.getX(), -bounds.getY() - offsetY);
+        draw(g, grobs);
+        g.dispose();
+    }
+
     public void save(File file) {
         if (file.getName().endsWith(".pdf")) {
             PDFRenderer.render(this, file);
+        } else if ("png".equalsIgnoreCase(FileUtils.getExtension(file))) {
+            int width = Math.max(1, Math.round(getWidth()));
+            savePNG(file, (int) Math.min(Integer.MAX_VALUE, BAND_PIXELS / width));
         } else {
             try {
                 ImageIO.write(asImage(), FileUtils.getExtension(file), file);
@@ -247,6 +390,50 @@ public class Canvas extends AbstractTransformable {
         }
     }
 
+    /**
+     * Save the canvas as a PNG image, drawing it in horizontal bands.
+     * <p/>
+     * Each band is written to the file before the next one is drawn, so only a band has to fit in memory instead of
+     * the whole image.
+     *
+     * @param file       the file to write to.
+     * @param bandHeight the height of a band, in pixels.
+     */
+    /* package private */ void savePNG(File file, int bandHeight) {
+        Rect bounds = getBounds();
+        int width = Math.round(bounds.getWidth());
+        int height = Math.round(bounds.getHeight());
+        bandHeight = Math.max(1, Math.min(height, bandHeight));
+        BufferedImage band = new BufferedImage(width, bandHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        OutputStream out = null;
+        PNGWriter writer = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            writer = new PNGWriter(out, width, height);
+            for (int y = 0; y < height; y += bandHeight) {
+                int rows = Math.min(bandHeight, height - y);
+                Arrays.fill(pixels, 0);
+                drawImage(band, y, rows);
+                for (int row = 0; row < rows; row++) {
+                    writer.writeRow(pixels, row * width);
+                }
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write image file " + file, e);
+        } finally {
+            if (writer != null)
+                writer.close();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "<" + getClass().getSimpleName() + ": " + width + ", " + height + ">";
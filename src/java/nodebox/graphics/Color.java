@@ -32,6 +32,8 @@ public class Color implements Cloneable {
 
     private double r, g, b, a;
     private double h, s, v;
+    // The AWT color is created when it is first requested, and discarded when the color changes.
+    private transient java.awt.Color awtColor;
 
     public static double clamp(double v) {
         return Math.max(0.0, Math.min(1.0, v));
@@ -203,6 +205,7 @@ public class Color implements Cloneable {
         this.r = clamp(r);
         updateHSB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setR(double r) {
@@ -221,6 +224,7 @@ public class Color implements Cloneable {
         this.g = clamp(g);
         updateHSB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setG(double g) {
@@ -239,6 +243,7 @@ public class Color implements Cloneable {
         this.b = clamp(b);
         updateHSB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setB(double b) {
@@ -257,6 +262,7 @@ public class Color implements Cloneable {
         this.a = clamp(a);
         updateHSB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setA(double a) {
@@ -279,6 +285,7 @@ public class Color implements Cloneable {
         this.h = clamp(h);
         updateRGB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setH(double h) {
@@ -297,6 +304,7 @@ public class Color implements Cloneable {
         this.s = clamp(s);
         updateRGB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setS(double s) {
@@ -315,6 +323,7 @@ public class Color implements Cloneable {
         this.v = clamp(v);
         updateRGB();
         updateCMYK();
+        awtColor = null;
     }
 
     public void setV(double v) {
@@ -390,7 +399,9 @@ public class Color implements Cloneable {
     }
 
     public java.awt.Color getAwtColor() {
-        return new java.awt.Color((float) getRed(), (float) getGreen(), (float) getBlue(), (float) getAlpha());
+        if (awtColor == null)
+            awtColor = new java.awt.Color((float) getRed(), (float) getGreen(), (float) getBlue(), (float) getAlpha());
+        return awtColor;
     }
 
     @Override
@@ -410,6 +421,16 @@ public class Color implements Cloneable {
                 && Math.round(a * 255) == Math.round(other.a * 255);
     }
 
+    @Override
+    public int hashCode() {
+        // Only use the values that are compared in equals.
+        int result = (int) Math.round(r * 255);
+        result = 31 * result + (int) Math.round(g * 255);
+        result = 31 * result + (int) Math.round(b * 255);
+        result = 31 * result + (int) Math.round(a * 255);
+        return result;
+    }
+
     /**
      * Parse a hexadecimal value and return a Color object.
      * <p/>
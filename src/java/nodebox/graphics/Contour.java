@@ -3,50 +3,316 @@ package nodebox.graphics;
 import java.awt.*;
 import java.awt.geom.GeneralPath;
 import java.util.ArrayList;
-
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A sequence of points that forms a single line or shape.
+ * <p/>
+ * The points are stored in packed arrays: one array with the coordinates and one with the point types. This uses
+ * far less memory than separate Point objects, and operations such as transforming, measuring and drawing the contour
+ * run over the arrays directly.
+ * <p/>
+ * {@link #getPoints()} returns a list of Point objects. Changing these points changes the contour, so the list
+ * becomes the primary storage as soon as it is requested. Use {@link #getPoint(int)}, {@link #getX(int)} and
+ * {@link #getY(int)} to read the points without creating the list.
+ * <p/>
+ * Reading a contour does not change it, so a contour that is no longer changed can be read from several threads.
+ */
 public class Contour extends AbstractGeometry {
 
     private static final BasicStroke DEFAULT_STROKE = new BasicStroke(1f);
-    private static final int SEGMENT_ACCURACY = 20;
-
-    private ArrayList<Point> points;
+    /**
+     * The default maximum distance between a flattened curve and the original curve.
+     */
+    public static final float DEFAULT_FLATNESS = 0.1f;
+
+    // The maximum error in the length of each curve segment.
+    private static final float LENGTH_TOLERANCE = 0.01f;
+    private static final int MAX_FLATTEN_DEPTH = 16;
+    private static final int INITIAL_CAPACITY = 8;
+
+    // The coordinates of the points as x0, y0, x1, y1, ...
+    private float[] coordinates;
+    private byte[] types;
+    private int pointCount;
+    // The points handed out by getPoints(). When set, this list is the primary storage: reads use the list and
+    // the arrays are only brought up to date by operations that change all points.
+    private ArrayList<Point> pointList;
     private boolean closed;
-    private transient ArrayList<Float> segmentLengths;
-    private transient float length = -1;
+    // The segment lengths are measured when first needed. They are set in one write, so other threads reading
+    // the contour see either no segments or all of them.
+    private transient volatile Segments segments;
+    // The bounds are only cached when there are no live points, since those can change without invalidating.
+    private transient volatile Rect bounds;
 
     public Contour() {
-        points = new ArrayList<Point>();
+        coordinates = new float[INITIAL_CAPACITY * 2];
+        types = new byte[INITIAL_CAPACITY];
         closed = false;
     }
 
     public Contour(Contour other) {
-        points = new ArrayList<Point>(other.points.size());
-        for (Point p : other.points) {
-            points.add(p.clone());
-        }
+        pointCount = other.getPointCount();
+        int capacity = Math.max(pointCount, INITIAL_CAPACITY);
+        coordinates = new float[capacity * 2];
+        types = new byte[capacity];
+        System.arraycopy(other.packedCoordinates(), 0, coordinates, 0, pointCount * 2);
+        System.arraycopy(other.packedTypes(), 0, types, 0, pointCount);
         closed = other.closed;
     }
 
+    /**
+     * Create a contour that uses the given arrays as its storage.
+     *
+     * @param coordinates the coordinates as x0, y0, x1, y1, ...
+     * @param types       the point types
+     * @param pointCount  the number of points used in the arrays
+     * @param closed      if the contour is closed
+     */
+    /* package private */ Contour(float[] coordinates, byte[] types, int pointCount, boolean closed) {
+        this.coordinates = coordinates;
+        this.types = types;
+        this.pointCount = pointCount;
+        this.closed = closed;
+    }
+
     //// Point operations ////
 
     public int getPointCount() {
-        return points.size();
+        return pointList != null ? pointList.size() : pointCount;
     }
 
+    /**
+     * Get the points for this contour.
+     * <p/>
+     * This returns a live reference to the points of the contour. Changing the points will change the contour.
+     * Once the points are requested, the contour keeps them, so only request them when you need to change them.
+     *
+     * @return a list of Points.
+     */
     public java.util.List<Point> getPoints() {
-        return points;
+        if (pointList == null) {
+            pointList = new ArrayList<Point>(pointCount);
+            for (int i = 0; i < pointCount; i++) {
+                pointList.add(new Point(coordinates[i * 2], coordinates[i * 2 + 1], types[i]));
+            }
+        }
+        return pointList;
+    }
+
+    /**
+     * Get a copy of the point at the given index.
+     *
+     * @param index the point index
+     * @return a new Point. Changing it does not change the contour.
+     */
+    public Point getPoint(int index) {
+        if (pointList != null)
+            return pointList.get(index).clone();
+        checkIndex(index);
+        return new Point(coordinates[index * 2], coordinates[index * 2 + 1], types[index]);
+    }
+
+    public float getX(int index) {
+        if (pointList != null)
+            return pointList.get(index).x;
+        checkIndex(index);
+        return coordinates[index * 2];
+    }
+
+    public float getY(int index) {
+        if (pointList != null)
+            return pointList.get(index).y;
+        checkIndex(index);
+        return coordinates[index * 2 + 1];
+    }
+
+    public int getPointType(int index) {
+        if (pointList != null)
+            return pointList.get(index).type;
+        checkIndex(index);
+        return types[index];
     }
 
     public void addPoint(Point pt) {
-        points.add(pt.clone());
-        invalidate();
+        addPoint(pt.x, pt.y, pt.type);
     }
 
     public void addPoint(float x, float y) {
-        points.add(new Point(x, y));
+        addPoint(x, y, Point.LINE_TO);
+    }
+
+    public void addPoint(float x, float y, int type) {
+        if (pointList != null) {
+            pointList.add(new Point(x, y, type));
+        } else {
+            if (type < Point.LINE_TO || type > Point.CURVE_DATA)
+                throw new IllegalArgumentException("Invalid point type.");
+            ensureCapacity(pointCount + 1);
+            coordinates[pointCount * 2] = x;
+            coordinates[pointCount * 2 + 1] = y;
+            types[pointCount] = (byte) type;
+            pointCount++;
+        }
+        invalidate();
+    }
+
+    /**
+     * Move the point at the given index.
+     *
+     * @param index the point index
+     * @param x     the new horizontal coordinate
+     * @param y     the new vertical coordinate
+     */
+    public void setPoint(int index, float x, float y) {
+        if (pointList != null) {
+            Point pt = pointList.get(index);
+            pt.x = x;
+            pt.y = y;
+        } else {
+            checkIndex(index);
+            coordinates[index * 2] = x;
+            coordinates[index * 2 + 1] = y;
+        }
         invalidate();
     }
 
+    /**
+     * Visit all points of this contour, without creating Point objects.
+     *
+     * @param visitor the visitor
+     */
+    public void forEachPoint(PointVisitor visitor) {
+        int n = getPointCount();
+        for (int i = 0; i < n; i++) {
+            visitor.visit(coordinate(i * 2), coordinate(i * 2 + 1), type(i));
+        }
+    }
+
+    /**
+     * Change all points of this contour using the given kernel.
+     * <p/>
+     * The kernel works directly on the coordinate array of the contour.
+     *
+     * @param kernel the kernel
+     */
+    public void mapPoints(PointKernel kernel) {
+        syncArrays();
+        kernel.apply(coordinates, pointCount);
+        // Points handed out by getPoints() are kept up to date.
+        if (pointList != null) {
+            for (int i = 0; i < pointCount; i++) {
+                Point pt = pointList.get(i);
+                pt.x = coordinates[i * 2];
+                pt.y = coordinates[i * 2 + 1];
+            }
+        }
+        invalidate();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= pointCount)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pointCount);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= types.length) return;
+        int newCapacity = Math.max(capacity, types.length * 2);
+        float[] newCoordinates = new float[newCapacity * 2];
+        byte[] newTypes = new byte[newCapacity];
+        System.arraycopy(coordinates, 0, newCoordinates, 0, pointCount * 2);
+        System.arraycopy(types, 0, newTypes, 0, pointCount);
+        coordinates = newCoordinates;
+        types = newTypes;
+    }
+
+    /**
+     * Copy the points handed out by getPoints() back into the arrays, before changing all points at once.
+     */
+    private void syncArrays() {
+        if (pointList == null) return;
+        coordinates = packedCoordinates();
+        types = packedTypes();
+        pointCount = pointList.size();
+    }
+
+    /**
+     * Return the coordinates, as stored in the arrays or packed from the live points.
+     * Only the first getPointCount() * 2 values are used.
+     */
+    private float[] packedCoordinates() {
+        if (pointList == null) return coordinates;
+        int size = pointList.size();
+        float[] c = new float[size * 2];
+        for (int i = 0; i < size; i++) {
+            Point pt = pointList.get(i);
+            c[i * 2] = pt.x;
+            c[i * 2 + 1] = pt.y;
+        }
+        return c;
+    }
+
+    /**
+     * Return the point types, as stored in the array or packed from the live points.
+     * Only the first getPointCount() values are used.
+     */
+    private byte[] packedTypes() {
+        if (pointList == null) return types;
+        int size = pointList.size();
+        byte[] t = new byte[size];
+        for (int i = 0; i < size; i++) {
+            t[i] = (byte) pointList.get(i).type;
+        }
+        return t;
+    }
+
+    /**
+     * Read a single value from the coordinates, without checking the index.
+     *
+     * @param index the index in the coordinates, as x0, y0, x1, y1, ...
+     * @return the coordinate.
+     */
+    private float coordinate(int index) {
+        if (pointList == null) return coordinates[index];
+        Point pt = pointList.get(index >> 1);
+        return (index & 1) == 0 ? pt.x : pt.y;
+    }
+
+    private int type(int index) {
+        return pointList == null ? types[index] : pointList.get(index).type;
+    }
+
+    /**
+     * Return the coordinate array. Only the first getPointCount() * 2 values are used.
+     * <p/>
+     * The array can be the storage of the contour, so it should not be changed.
+     *
+     * @return the coordinates as x0, y0, x1, y1, ...
+     */
+    /* package private */ float[] _coordinates() {
+        return packedCoordinates();
+    }
+
+    /**
+     * Return the point type array. Only the first getPointCount() values are used.
+     *
+     * @return the point types.
+     * @see #_coordinates()
+     */
+    /* package private */ byte[] _types() {
+        return packedTypes();
+    }
+
+    /**
+     * Check if points were handed out by getPoints(). Those points can be changed without invalidating the contour,
+     * so results that depend on the positions of the points can not be cached.
+     *
+     * @return true if the points were handed out.
+     */
+    /* package private */ boolean _hasLivePoints() {
+        return pointList != null;
+    }
+
     //// Close ////
 
     public boolean isClosed() {
@@ -66,27 +332,33 @@ public class Contour extends AbstractGeometry {
     //// Geometric queries ////
 
     public boolean isEmpty() {
-        return points.isEmpty();
+        return getPointCount() == 0;
     }
 
     public Rect getBounds() {
-        if (points.isEmpty()) {
+        Rect cached = bounds;
+        if (cached != null && pointList == null) return cached;
+        if (isEmpty()) {
             return new Rect();
         }
+        int n = getPointCount();
         float minX = Float.MAX_VALUE;
         float minY = Float.MAX_VALUE;
-        float maxX = Float.MIN_VALUE;
-        float maxY = Float.MIN_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
         float px, py;
-        for (Point p : points) {
-            px = p.getX();
-            py = p.getY();
+        for (int i = 0; i < n; i++) {
+            px = coordinate(i * 2);
+            py = coordinate(i * 2 + 1);
             if (px < minX) minX = px;
             if (py < minY) minY = py;
             if (px > maxX) maxX = px;
             if (py > maxY) maxY = py;
         }
-        return new Rect(minX, minY, maxX - minX, maxY - minY);
+        Rect r = new Rect(minX, minY, maxX - minX, maxY - minY);
+        if (pointList == null)
+            bounds = r;
+        return r;
     }
 
     /**
@@ -100,48 +372,87 @@ public class Contour extends AbstractGeometry {
      */
 
     public void invalidate() {
-        segmentLengths = null;
+        bounds = null;
+        segments = null;
     }
 
     public float updateSegmentLengths() {
-        java.util.List<Point> points = getPoints();
-        segmentLengths = new ArrayList<Float>();
+        Segments s = measureSegments();
+        segments = s;
+        return s.length;
+    }
+
+    private Segments segments() {
+        Segments s = segments;
+        if (s == null) {
+            s = measureSegments();
+            segments = s;
+        }
+        return s;
+    }
+
+    private Segments measureSegments() {
+        float[] c = packedCoordinates();
+        byte[] types = packedTypes();
+        int pointCount = getPointCount();
+        // There is at most one segment per point, including the closing segment.
+        float[] cumulativeLengths = new float[pointCount];
+        int[] segmentEndPoints = new int[pointCount];
+        int segmentCount = 0;
         float totalLength = 0;
 
         // We cannot form a line or curve with the first point.
         // Since the algorithm looks back at previous points, we
         // start looking from the first useful point, which is
         // the second (index of 1).
-        for (int pi = 1; pi < points.size(); pi++) {
-            Point pt = points.get(pi);
-            if (pt.isLineTo()) {
-                Point pt0 = points.get(pi - 1);
-                float length = Path.lineLength(pt0.x, pt0.y, pt.x, pt.y);
-                segmentLengths.add(length);
-                totalLength += length;
-            } else if (pt.isCurveTo()) {
-                Point pt0 = points.get(pi - 3);
-                Point c1 = points.get(pi - 2);
-                Point c2 = points.get(pi - 1);
-                float length = Path.curveLength(pt0.x, pt0.y,
-                        c1.x, c1.y,
-                        c2.x, c2.y,
-                        pt.x, pt.y, SEGMENT_ACCURACY);
-                segmentLengths.add(length);
-                totalLength += length;
+        for (int pi = 1; pi < pointCount; pi++) {
+            int i = pi * 2;
+            if (types[pi] == Point.LINE_TO) {
+                totalLength += Path.lineLength(c[i - 2], c[i - 1], c[i], c[i + 1]);
+            } else if (types[pi] == Point.CURVE_TO) {
+                totalLength += Path.adaptiveCurveLength(c[i - 6], c[i - 5],
+                        c[i - 4], c[i - 3],
+                        c[i - 2], c[i - 1],
+                        c[i], c[i + 1], LENGTH_TOLERANCE);
+            } else {
+                continue;
             }
+            cumulativeLengths[segmentCount] = totalLength;
+            segmentEndPoints[segmentCount] = pi;
+            segmentCount++;
         }
         // If the path is closed, add the closing segment.
-        if (closed && !points.isEmpty()) {
-            Point pt0 = points.get(points.size() - 1);
-            Point pt1 = points.get(0);
-            float length = Path.lineLength(pt0.x, pt0.y, pt1.x, pt1.y);
-            segmentLengths.add(length);
-            totalLength += length;
+        if (closed && pointCount > 0) {
+            int last = (pointCount - 1) * 2;
+            totalLength += Path.lineLength(c[last], c[last + 1], c[0], c[1]);
+            cumulativeLengths[segmentCount] = totalLength;
+            segmentEndPoints[segmentCount] = 0;
+            segmentCount++;
         }
+        return new Segments(cumulativeLengths, segmentEndPoints, segmentCount, totalLength);
+    }
 
-        this.length = totalLength;
-        return totalLength;
+    /**
+     * The measured segments of a contour: the length of the contour at the end of each segment, and the index of the
+     * point that ends each segment.
+     * <p/>
+     * For curve segments, a table maps the length along the curve to the curve parameter. The tables are created
+     * when points on the segment are requested.
+     */
+    private static final class Segments {
+        private final float[] cumulativeLengths;
+        private final int[] endPoints;
+        private final int count;
+        private final float length;
+        private final AtomicReferenceArray<float[]> curveTables;
+
+        private Segments(float[] cumulativeLengths, int[] endPoints, int count, float length) {
+            this.cumulativeLengths = cumulativeLengths;
+            this.endPoints = endPoints;
+            this.count = count;
+            this.length = length;
+            this.curveTables = new AtomicReferenceArray<float[]>(count);
+        }
     }
 
     /**
@@ -150,10 +461,7 @@ public class Contour extends AbstractGeometry {
      * @return the length of the contour
      */
     public float getLength() {
-        if (segmentLengths == null)
-            updateSegmentLengths();
-        assert (length != -1);
-        return length;
+        return segments().length;
     }
 
     /**
@@ -169,98 +477,237 @@ public class Contour extends AbstractGeometry {
      * @return coordinates for point at t.
      */
     public Point pointAt(float t) {
-        if (segmentLengths == null)
-            updateSegmentLengths();
+        Segments s = segments();
 
         // Check if there is a path.
-        if (points.isEmpty())
+        if (getPointCount() == 0)
             throw new NodeBoxError("The path is empty.");
 
         // If the path has no length, return the position of the first point.
-        if (length == 0)
-            return points.get(0).clone();
+        if (s.length == 0)
+            return getPoint(0);
 
         // Since t is relative, convert it to the absolute length.
-        float absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        float resT = t;
-
-        // Find the segment that contains t.
-        int segnum = -1;
-        for (Float seglength : segmentLengths) {
-            segnum++;
-            if (absT <= seglength || segnum == segmentLengths.size() - 1)
-                break;
-            absT -= seglength;
-            resT -= seglength / length;
-        }
-        resT /= (segmentLengths.get(segnum) / length);
-
-        // Find the point index for the segment.
-        int pi = pointIndexForSegment(segnum + 1);
-        Point pt1 = points.get(pi);
+        double absT = t * (double) s.length;
+        return pointOnSegment(s, findSegment(s, absT), absT);
+    }
+
+    /**
+     * Find the segment that contains the given length using a binary search.
+     * <p/>
+     * This is the first segment that ends at or after the length. Lengths beyond the end of the contour
+     * return the last segment.
+     *
+     * @param s    the measured segments.
+     * @param absT the length along the contour.
+     * @return the segment index.
+     */
+    private static int findSegment(Segments s, double absT) {
+        int low = 0;
+        int high = s.count - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (absT <= s.cumulativeLengths[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the point on the given segment at the given length along the contour.
+     * Lengths outside of the segment extrapolate the segment.
+     *
+     * @param s       the measured segments.
+     * @param segment the segment index
+     * @param absT    the length along the contour.
+     * @return a new Point.
+     */
+    private Point pointOnSegment(Segments s, int segment, double absT) {
+        float[] position = new float[2];
+        positionOnSegment(s, segment, absT, position, 0);
+        return new Point(position[0], position[1]);
+    }
+
+    /**
+     * Write the position on the given segment at the given length along the contour to the array.
+     *
+     * @param s       the measured segments.
+     * @param segment the segment index
+     * @param absT    the length along the contour.
+     * @param out     the array that receives the x and y coordinate.
+     * @param offset  the index of the x coordinate in the array.
+     * @see #pointOnSegment(Segments, int, double)
+     */
+    private void positionOnSegment(Segments s, int segment, double absT, float[] out, int offset) {
+        float segmentStart = segment == 0 ? 0 : s.cumulativeLengths[segment - 1];
+        float segmentLength = s.cumulativeLengths[segment] - segmentStart;
+        float segmentT = segmentLength == 0 ? 0 : (float) ((absT - segmentStart) / segmentLength);
+        float segmentAbsT = (float) (absT - segmentStart);
+
+        int pi = s.endPoints[segment];
+        int type = type(pi);
+        float x1 = coordinate(pi * 2);
+        float y1 = coordinate(pi * 2 + 1);
         // If the path is closed, the point index is set to zero.
         // Set the index to the last point to get the one-but-last point for pt0. 
         if (pi == 0) {
-            pi = points.size();
-        }
-
-        if (pt1.isLineTo()) {
-            Point pt0 = points.get(pi - 1);
-            return Path.linePoint(resT, pt0.x, pt0.y, pt1.x, pt1.y);
-        } else if (pt1.isCurveTo()) {
-            Point pt0 = points.get(pi - 3);
-            Point c1 = points.get(pi - 2);
-            Point c2 = points.get(pi - 1);
-            return Path.curvePoint(resT,
-                    pt0.x, pt0.y,
-                    c1.x, c1.y,
-                    c2.x, c2.y,
-                    pt1.x, pt1.y);
+            pi = getPointCount();
+        }
+        int i = pi * 2;
+
+        if (type == Point.LINE_TO) {
+            float x0 = coordinate(i - 2);
+            float y0 = coordinate(i - 1);
+            out[offset] = x0 + segmentT * (x1 - x0);
+            out[offset + 1] = y0 + segmentT * (y1 - y0);
+        } else if (type == Point.CURVE_TO) {
+            // Points on the curve are evenly spaced by length, not by curve parameter.
+            if (segmentT > 0 && segmentT < 1)
+                segmentT = curveParameter(s, segment, i, segmentAbsT);
+            curvePosition(segmentT,
+                    coordinate(i - 6), coordinate(i - 5),
+                    coordinate(i - 4), coordinate(i - 3),
+                    coordinate(i - 2), coordinate(i - 1),
+                    x1, y1, out, offset);
         } else {
             throw new AssertionError("Incorrect point.");
         }
     }
 
     /**
-     * Same as pointAt(t).
+     * Write the position at t on the curve to the array, in the same way as {@link Path#curvePoint}.
+     */
+    private static void curvePosition(float t, float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3,
+                                      float[] out, int offset) {
+        float mint = 1 - t;
+        float x01 = x0 * mint + x1 * t;
+        float y01 = y0 * mint + y1 * t;
+        float x12 = x1 * mint + x2 * t;
+        float y12 = y1 * mint + y2 * t;
+        float x23 = x2 * mint + x3 * t;
+        float y23 = y2 * mint + y3 * t;
+        float c1x = x01 * mint + x12 * t;
+        float c1y = y01 * mint + y12 * t;
+        float c2x = x12 * mint + x23 * t;
+        float c2y = y12 * mint + y23 * t;
+        out[offset] = c1x * mint + c2x * t;
+        out[offset + 1] = c1y * mint + c2y * t;
+    }
+
+    /**
+     * Prepare the contour for calls to {@link #_sampleAt}.
+     *
+     * @return the length of the contour.
+     */
+    /* package private */ float _prepareSampling() {
+        return getLength();
+    }
+
+    /**
+     * Write the position at the given length along the contour to the array.
      * <p/>
-     * This method is here for compatibility with NodeBox 1.
+     * The search for the segment starts at the given segment, so a caller that samples the contour from start to end
+     * visits each segment once. Call {@link #_prepareSampling()} first.
      *
-     * @param t relative coordinate of the point.
-     * @return coordinates for point at t.
-     * @see #pointAt(float)
+     * @param absT    the length along the contour.
+     * @param segment the segment to start searching from.
+     * @param out     the array that receives the x and y coordinate.
+     * @param offset  the index of the x coordinate in the array.
+     * @return the segment that contains the position, to pass to the next call.
      */
-    public Point point(float t) {
-        return pointAt(t);
+    /* package private */ int _sampleAt(double absT, int segment, float[] out, int offset) {
+        Segments s = segments();
+        if (s.count == 0 || s.length == 0) {
+            out[offset] = coordinate(0);
+            out[offset + 1] = coordinate(1);
+            return segment;
+        }
+        while (segment < s.count - 1 && absT > s.cumulativeLengths[segment]) {
+            segment++;
+        }
+        positionOnSegment(s, segment, absT, out, offset);
+        return segment;
     }
 
     /**
-     * Calculate the point index for the segment number. Segments lie between points. The first point of the segment
-     * is returned. The point index will be a valid index, even if the segment number doesn't exist.
+     * Find the curve parameter at the given length along a curve segment.
      *
-     * @param segnum the segment index
-     * @return the index of the point.
-     */
-    private int pointIndexForSegment(int segnum) {
-        int pointIndex = 0;
-        for (Point pt : points) {
-            if (pt.isCurveTo() || pt.isLineTo()) {
-                if (segnum == 0) break;
-                segnum--;
+     * @param s       the measured segments.
+     * @param segment the segment index
+     * @param i       the coordinate index of the end point of the curve
+     * @param absT    the length along the segment, between zero and the length of the segment.
+     * @return the curve parameter.
+     */
+    private float curveParameter(Segments s, int segment, int i, float absT) {
+        float[] table = s.curveTables.get(segment);
+        if (table == null) {
+            CurveTable builder = new CurveTable();
+            Path.subdivideCurve(coordinate(i - 6), coordinate(i - 5), coordinate(i - 4), coordinate(i - 3),
+                    coordinate(i - 2), coordinate(i - 1), coordinate(i), coordinate(i + 1),
+                    LENGTH_TOLERANCE, 0, 1, 0, 0, builder);
+            table = builder.toArray();
+            s.curveTables.set(segment, table);
+        }
+        // The table contains pairs of parameters and lengths. Find the first piece that ends after the length.
+        int low = 0;
+        int high = table.length / 2 - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (absT <= table[mid * 2 + 1]) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
-            pointIndex++;
         }
-        int pointCount = points.size();
-        if (pointIndex < pointCount) {
-            return pointIndex;
-        } else if (closed) {
-            return 0;
-        } else {
-            return pointCount - 1;
+        float t0 = low == 0 ? 0 : table[low * 2 - 2];
+        float length0 = low == 0 ? 0 : table[low * 2 - 1];
+        float t1 = table[low * 2];
+        float length1 = table[low * 2 + 1];
+        if (length1 <= length0) return t1;
+        float t = t0 + (t1 - t0) * (absT - length0) / (length1 - length0);
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /**
+     * Collects the pieces of a subdivided curve.
+     */
+    private static class CurveTable implements Path.CurvePieceHandler {
+        private float[] values = new float[16];
+        private int size;
+
+        public void addPiece(float t, float length) {
+            if (size + 2 > values.length) {
+                float[] newValues = new float[values.length * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = t;
+            values[size++] = length;
+        }
+
+        private float[] toArray() {
+            float[] array = new float[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
         }
     }
 
+    /**
+     * Same as pointAt(t).
+     * <p/>
+     * This method is here for compatibility with NodeBox 1.
+     *
+     * @param t relative coordinate of the point.
+     * @return coordinates for point at t.
+     * @see #pointAt(float)
+     */
+    public Point point(float t) {
+        return pointAt(t);
+    }
+
     //// Geometric operations ////
 
     /**
@@ -271,26 +718,8 @@ public class Contour extends AbstractGeometry {
      */
     public Point[] makePoints(int amount) {
         // If the contour is empty, pointAt will fail. Return an empty array.
-        if (points.isEmpty()) return new Point[0];
-        Point[] points = new Point[amount];
-        float delta = 1;
-        if (closed) {
-            if (amount > 0) {
-                delta = 1f / amount;
-            }
-        } else {
-            // The delta value is divided by amount - 1, because we also want the last point (t=1.0)
-            // If I wouldn't use amount - 1, I fall one point short of the end.
-            // E.g. if amount = 4, I want point at t 0.0, 0.33, 0.66 and 1.0,
-            // if amount = 2, I want point at t 0.0 and t 1.0
-            if (amount > 2) {
-                delta = 1f / (amount - 1f);
-            }
-        }
-        for (int i = 0; i < amount; i++) {
-            points[i] = pointAt(delta * i);
-        }
-        return points;
+        if (isEmpty()) return new Point[0];
+        return toPoints(Resampler.sample(this, amount, pointDelta(amount, closed)), amount);
     }
 
     /**
@@ -328,10 +757,12 @@ public class Contour extends AbstractGeometry {
      * @return a new Contour with the given number of points.
      */
     public Contour resampleByAmount(int amount) {
-        Contour c = new Contour();
-        c.extend(makePoints(amount));
-        c.closed = closed;
-        return c;
+        if (isEmpty()) {
+            Contour c = new Contour();
+            c.closed = closed;
+            return c;
+        }
+        return Resampler.resample(this, amount, pointDelta(amount, closed), closed);
     }
 
     /**
@@ -356,12 +787,93 @@ public class Contour extends AbstractGeometry {
         }
     }
 
+    /**
+     * Replace the curves in this contour with straight lines.
+     * <p/>
+     * Points previously returned by getPoints() are no longer part of the contour.
+     */
     public void flatten() {
-        throw new UnsupportedOperationException();
+        flatten(DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Replace the curves in this contour with straight lines.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     * @see #flatten()
+     */
+    public void flatten(float flatness) {
+        Contour c = flattened(flatness);
+        coordinates = c.coordinates;
+        types = c.types;
+        pointCount = c.pointCount;
+        pointList = null;
+        invalidate();
+    }
+
+    public Contour flattened() {
+        return flattened(DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Make a copy of this contour where curves are replaced by straight lines.
+     * <p/>
+     * Curves are split in halves until each piece is flat enough, so large curves get more lines than small ones.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     * @return a new contour that only contains straight lines.
+     */
+    public Contour flattened(float flatness) {
+        if (flatness <= 0)
+            throw new IllegalArgumentException("The flatness should be greater than zero.");
+        Contour flat = new Contour();
+        float[] c = packedCoordinates();
+        byte[] types = packedTypes();
+        int pointCount = getPointCount();
+        for (int pi = 0; pi < pointCount; pi++) {
+            int i = pi * 2;
+            if (types[pi] == Point.CURVE_TO && pi >= 3) {
+                flattenCurve(c[i - 6], c[i - 5], c[i - 4], c[i - 3], c[i - 2], c[i - 1], c[i], c[i + 1],
+                        flatness * flatness, 0, flat);
+            } else if (types[pi] != Point.CURVE_DATA) {
+                flat.addPoint(c[i], c[i + 1]);
+            }
+        }
+        flat.closed = closed;
+        return flat;
     }
 
-    public IGeometry flattened() {
-        throw new UnsupportedOperationException();
+    /**
+     * Add lines that follow the curve to the given contour. The start point of the curve is not added.
+     */
+    private static void flattenCurve(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3,
+                                     float flatnessSquared, int depth, Contour out) {
+        // Measure the distance of the control points to the line between the start and end point.
+        float dx = x3 - x0;
+        float dy = y3 - y0;
+        float chordSquared = dx * dx + dy * dy;
+        float d1, d2;
+        if (chordSquared == 0) {
+            d1 = (x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0);
+            d2 = (x2 - x0) * (x2 - x0) + (y2 - y0) * (y2 - y0);
+        } else {
+            float cross1 = (x1 - x0) * dy - (y1 - y0) * dx;
+            float cross2 = (x2 - x0) * dy - (y2 - y0) * dx;
+            d1 = cross1 * cross1 / chordSquared;
+            d2 = cross2 * cross2 / chordSquared;
+        }
+        if (Math.max(d1, d2) <= flatnessSquared || depth >= MAX_FLATTEN_DEPTH) {
+            out.addPoint(x3, y3);
+            return;
+        }
+        float x01 = (x0 + x1) / 2, y01 = (y0 + y1) / 2;
+        float x12 = (x1 + x2) / 2, y12 = (y1 + y2) / 2;
+        float x23 = (x2 + x3) / 2, y23 = (y2 + y3) / 2;
+        float xa = (x01 + x12) / 2, ya = (y01 + y12) / 2;
+        float xb = (x12 + x23) / 2, yb = (y12 + y23) / 2;
+        float xm = (xa + xb) / 2, ym = (ya + yb) / 2;
+        flattenCurve(x0, y0, x01, y01, xa, ya, xm, ym, flatnessSquared, depth + 1, out);
+        flattenCurve(xm, ym, xb, yb, x23, y23, x3, y3, flatnessSquared, depth + 1, out);
     }
 
     //// Graphics ////
@@ -384,19 +896,17 @@ public class Contour extends AbstractGeometry {
     /* package private */
 
     void _extendPath(GeneralPath gp) {
-        if (points.size() == 0) return;
-        Point pt = points.get(0);
-        Point ctrl1, ctrl2;
-        gp.moveTo(pt.x, pt.y);
         int pointCount = getPointCount();
-        for (int i = 1; i < pointCount; i++) {
-            pt = points.get(i);
-            if (pt.isLineTo()) {
-                gp.lineTo(pt.x, pt.y);
-            } else if (pt.isCurveTo()) {
-                ctrl1 = points.get(i - 2);
-                ctrl2 = points.get(i - 1);
-                gp.curveTo(ctrl1.x, ctrl1.y, ctrl2.x, ctrl2.y, pt.x, pt.y);
+        if (pointCount == 0) return;
+        float[] c = packedCoordinates();
+        byte[] types = packedTypes();
+        gp.moveTo(c[0], c[1]);
+        for (int pi = 1; pi < pointCount; pi++) {
+            int i = pi * 2;
+            if (types[pi] == Point.LINE_TO) {
+                gp.lineTo(c[i], c[i + 1]);
+            } else if (types[pi] == Point.CURVE_TO) {
+                gp.curveTo(c[i - 4], c[i - 3], c[i - 2], c[i - 1], c[i], c[i + 1]);
             }
         }
         if (closed)
@@ -404,7 +914,11 @@ public class Contour extends AbstractGeometry {
     }
 
     public void transform(Transform t) {
-        t.map(getPoints());
+        if (pointList != null) {
+            t.map(pointList);
+        } else {
+            t.getAffineTransform().transform(coordinates, 0, coordinates, 0, pointCount);
+        }
         invalidate();
     }
 
@@ -419,4 +933,35 @@ public class Contour extends AbstractGeometry {
     public Contour clone() {
         return new Contour(this);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Contour)) return false;
+        Contour other = (Contour) o;
+        if (closed != other.closed) return false;
+        int n = getPointCount();
+        if (n != other.getPointCount()) return false;
+        for (int i = 0; i < n; i++) {
+            if (coordinate(i * 2) != other.coordinate(i * 2)
+                    || coordinate(i * 2 + 1) != other.coordinate(i * 2 + 1)
+                    || (byte) type(i) != (byte) other.type(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as the hash code of a list of points.
+        int n = getPointCount();
+        int result = 1;
+        for (int i = 0; i < n; i++) {
+            int pointHash = Float.floatToIntBits(coordinate(i * 2));
+            pointHash = 31 * pointHash + Float.floatToIntBits(coordinate(i * 2 + 1));
+            pointHash = 31 * pointHash + (byte) type(i);
+            result = 31 * result + pointHash;
+        }
+        return 31 * result + (closed ? 1 : 0);
+    }
 }
@@ -1,16 +1,28 @@
 package nodebox.graphics;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Geometry extends AbstractGeometry implements Colorizable {
 
     private ArrayList<Path> paths;
     private Path currentPath;
     private boolean lengthDirty = true;
-    private ArrayList<Float> pathLengths;
+    // The length of the geometry at the end of each path.
+    private float[] cumulativePathLengths;
     private float groupLength;
+    private transient SpatialIndex spatialIndex;
+    private transient PointIndex pointIndex;
+    private transient Rect bounds;
+    // The bounds of each path when the bounds of the group were calculated. Paths can be changed without
+    // invalidating the group, so the cached bounds are only used while all paths return the same bounds.
+    private transient Rect[] pathBounds;
+    // Shapes that are drawn after the paths without being copied. See addInstance.
+    private ArrayList<Instance> instances;
 
     public Geometry() {
         paths = new ArrayList<Path>();
@@ -22,6 +34,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         for (Path path : other.paths) {
             paths.add(path.clone());
         }
+        instances = copyInstances(other.instances);
         // TODO: We might want to refer to the latest Path object in the items.
         currentPath = null;
     }
@@ -37,6 +50,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return a list of primitives
      */
     public java.util.List<Path> getPaths() {
+        expand();
         return paths;
     }
 
@@ -48,13 +62,20 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @param path the geometry to add.
      */
     public void add(Path path) {
+        expand();
         paths.add(path);
         currentPath = path;
         invalidate(false);
     }
 
     public int size() {
-        return paths.size();
+        int size = paths.size();
+        if (instances != null) {
+            for (Instance instance : instances) {
+                size += instance.shape.size();
+            }
+        }
+        return size;
     }
 
     /**
@@ -64,11 +85,12 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return true if the group contains no paths.
      */
     public boolean isEmpty() {
-        return paths.isEmpty();
+        return size() == 0;
     }
 
     public void clear() {
         paths.clear();
+        instances = null;
         currentPath = null;
         invalidate(false);
     }
@@ -79,12 +101,97 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @param g the group whose paths are appended.
      */
     public void extend(Geometry g) {
+        // The paths of g come after my instances, so those have to be expanded first.
+        if (!g.paths.isEmpty())
+            expand();
         for (Path path : g.paths) {
             paths.add(path.clone());
         }
+        if (g.instances != null) {
+            if (instances == null)
+                instances = new ArrayList<Instance>();
+            instances.addAll(copyInstances(g.instances));
+        }
+        invalidate(false);
+    }
+
+    //// Instances ////
+
+    /**
+     * Add a transformed copy of the given shape to the group, without copying its paths.
+     * <p/>
+     * The shape is drawn and measured directly with the transformation. It is only copied when the paths or points of
+     * this group are requested, so copying a large shape many times takes little memory as long as nothing changes
+     * the copies.
+     * <p/>
+     * The shape is shared, not cloned: it should not be changed afterwards.
+     *
+     * @param shape     the shape to add.
+     * @param transform the transformation of the copy. The transformation is cloned.
+     */
+    public void addInstance(Geometry shape, Transform transform) {
+        if (instances == null)
+            instances = new ArrayList<Instance>();
+        instances.add(new Instance(shape, new Transform(transform)));
+        currentPath = null;
+        invalidate(false);
+    }
+
+    /**
+     * Get the number of shapes that are added as instances and not yet copied.
+     *
+     * @return the number of instances.
+     */
+    public int getInstanceCount() {
+        return instances == null ? 0 : instances.size();
+    }
+
+    /**
+     * Get the paths of this group without copying the instances.
+     */
+    /* package private */ List<Path> _paths() {
+        return paths;
+    }
+
+    /**
+     * Get the instances of this group without copying them.
+     */
+    /* package private */ List<Instance> _instances() {
+        return instances == null ? Collections.<Instance>emptyList() : instances;
+    }
+
+    /* package private */ void _addInstance(Instance instance) {
+        if (instances == null)
+            instances = new ArrayList<Instance>();
+        instances.add(instance);
+        currentPath = null;
+        invalidate(false);
+    }
+
+    /**
+     * Replace the instances by transformed copies of their paths.
+     * <p/>
+     * The shared shapes are not changed: nested instances are copied from the shapes, not expanded in them.
+     */
+    private void expand() {
+        if (instances == null) return;
+        ArrayList<Instance> pending = instances;
+        instances = null;
+        for (Instance instance : pending) {
+            instance.copyPaths(paths, new AffineTransform(instance.transform.getAffineTransform()));
+        }
         invalidate(false);
     }
 
+    private static ArrayList<Instance> copyInstances(List<Instance> instances) {
+        if (instances == null) return null;
+        ArrayList<Instance> copies = new ArrayList<Instance>(instances.size());
+        for (Instance instance : instances) {
+            copies.add(new Instance(instance));
+        }
+        return copies;
+    }
+
     /**
      * Check if the last path in this group is closed.
      * <p/>
@@ -95,6 +202,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return true if the last contour on the last path is closed.
      */
     public boolean isClosed() {
+        expand();
         if (isEmpty()) return false;
         Path lastPath = paths.get(paths.size() - 1);
         return lastPath.isClosed();
@@ -106,6 +214,12 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         for (Path path : paths) {
             path.setFillColor(fillColor);
         }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.fillColor = fillColor;
+                instance.fillColorSet = true;
+            }
+        }
     }
 
     public void setFill(Color c) {
@@ -116,6 +230,12 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         for (Path path : paths) {
             path.setStrokeColor(strokeColor);
         }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.strokeColor = strokeColor;
+                instance.strokeColorSet = true;
+            }
+        }
     }
 
     public void setStroke(Color c) {
@@ -126,11 +246,18 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         for (Path path : paths) {
             path.setStrokeWidth(strokeWidth);
         }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.strokeWidth = strokeWidth;
+                instance.strokeWidthSet = true;
+            }
+        }
     }
 
     //// Point operations ////
 
     public int getPointCount() {
+        expand();
         int pointCount = 0;
         for (Path path : paths) {
             pointCount += path.getPointCount();
@@ -146,6 +273,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return a list of Points.
      */
     public java.util.List<Point> getPoints() {
+        expand();
         ArrayList<Point> points = new ArrayList<Point>();
         for (Path path : paths) {
             points.addAll(path.getPoints());
@@ -189,6 +317,9 @@ public class Geometry extends AbstractGeometry implements Colorizable {
 
     private void invalidate(boolean recursive) {
         lengthDirty = true;
+        bounds = null;
+        spatialIndex = null;
+        pointIndex = null;
         if (recursive) {
             for (Path path : paths) {
                 path.invalidate();
@@ -196,6 +327,92 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         }
     }
 
+    //// Indexed point access ////
+
+    private PointIndex getPointIndex() {
+        if (pointIndex == null) {
+            int[] pointCounts = new int[paths.size()];
+            for (int i = 0; i < pointCounts.length; i++) {
+                pointCounts[i] = paths.get(i).getPointCount();
+            }
+            pointIndex = new PointIndex(pointCounts);
+        }
+        return pointIndex;
+    }
+
+    /**
+     * Get a copy of the point at the given index, counting the points of all paths.
+     * <p/>
+     * Unlike getPoints(), this does not create a list of all points.
+     *
+     * @param index the point index
+     * @return a new Point. Changing it does not change the geometry.
+     */
+    public Point getPoint(int index) {
+        expand();
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return paths.get(part).getPoint(index - pi.getOffset(part));
+    }
+
+    public float getX(int index) {
+        expand();
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return paths.get(part).getX(index - pi.getOffset(part));
+    }
+
+    public float getY(int index) {
+        expand();
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return paths.get(part).getY(index - pi.getOffset(part));
+    }
+
+    /**
+     * Move the point at the given index, counting the points of all paths.
+     *
+     * @param index the point index
+     * @param x     the new horizontal coordinate
+     * @param y     the new vertical coordinate
+     */
+    public void setPoint(int index, float x, float y) {
+        expand();
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        paths.get(part).setPoint(index - pi.getOffset(part), x, y);
+        invalidate(false);
+        // Moving a point does not change the number of points, so the index is still valid.
+        pointIndex = pi;
+    }
+
+    /**
+     * Visit all points of this geometry, without creating Point objects.
+     *
+     * @param visitor the visitor
+     */
+    public void forEachPoint(PointVisitor visitor) {
+        expand();
+        for (Path part : paths) {
+            part.forEachPoint(visitor);
+        }
+    }
+
+    /**
+     * Change all points of this geometry using the given kernel.
+     * <p/>
+     * The kernel is applied to the coordinate array of each contour in turn, so no Point objects are created.
+     *
+     * @param kernel the kernel
+     */
+    public void mapPoints(PointKernel kernel) {
+        expand();
+        for (Path part : paths) {
+            part.mapPoints(kernel);
+        }
+        invalidate(false);
+    }
+
     //// Geometric queries ////
 
     /**
@@ -204,14 +421,53 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return a bounding box that contains all elements in the group.
      */
     public Rect getBounds() {
+        if (bounds != null && pathBoundsUnchanged()) return bounds;
+        final Rect[] newPathBounds = new Rect[paths.size()];
+        PathTasks.forEach(paths, new PathTasks.Task() {
+            public void run(int index) {
+                newPathBounds[index] = paths.get(index).getBounds();
+            }
+        });
+        pathBounds = newPathBounds;
+        bounds = calculateBounds(null);
+        return bounds;
+    }
+
+    private boolean pathBoundsUnchanged() {
+        if (pathBounds.length != paths.size()) return false;
+        for (int i = 0; i < pathBounds.length; i++) {
+            // Paths return the same object as long as their cached bounds are valid.
+            if (paths.get(i).getBounds() != pathBounds[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the bounds this group would have after the given transformation, without changing the group.
+     *
+     * @param t the transformation, or null to use no transformation.
+     * @return the bounds of the transformed group.
+     */
+    private Rect calculateBounds(AffineTransform t) {
         if (isEmpty()) return new Rect();
         Rect r = null;
-        for (Grob g : paths) {
+        for (Path p : paths) {
+            Rect b = t == null ? p.getBounds() : p._transformedBounds(t);
             if (r == null) {
-                r = g.getBounds();
+                r = b;
             }
-            if (!g.isEmpty()) {
-                r = r.united(g.getBounds());
+            if (!p.isEmpty()) {
+                r = r.united(b);
+            }
+        }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                if (instance.shape.isEmpty()) continue;
+                AffineTransform at = new AffineTransform(instance.transform.getAffineTransform());
+                if (t != null)
+                    at.preConcatenate(t);
+                Rect b = instance.shape.calculateBounds(at);
+                r = r == null ? b : r.united(b);
             }
         }
         return r != null ? r : new Rect();
@@ -225,6 +481,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return the length of the path.
      */
     public float getLength() {
+        expand();
         if (lengthDirty) {
             updatePathLengths();
         }
@@ -232,17 +489,45 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     }
 
     private void updatePathLengths() {
-        pathLengths = new ArrayList<Float>(paths.size());
+        final float[] lengths = new float[paths.size()];
+        PathTasks.forEach(paths, new PathTasks.Task() {
+            public void run(int index) {
+                lengths[index] = paths.get(index).getLength();
+            }
+        });
+        cumulativePathLengths = new float[paths.size()];
         groupLength = 0;
-        float length;
-        for (Path p : paths) {
-            length = p.getLength();
-            pathLengths.add(length);
-            groupLength += length;
+        for (int i = 0; i < paths.size(); i++) {
+            groupLength += lengths[i];
+            cumulativePathLengths[i] = groupLength;
         }
         lengthDirty = false;
     }
 
+    /**
+     * Find the path that contains the given length using a binary search.
+     * <p/>
+     * This is the first path that ends at or after the length. Lengths beyond the end of the geometry
+     * return the last path.
+     *
+     * @param absT the length along the geometry.
+     * @return the path index.
+     */
+    private int findPath(double absT) {
+        getLength();
+        int low = 0;
+        int high = paths.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (absT <= cumulativePathLengths[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
     /**
      * Returns coordinates for point at t on the group.
      * <p/>
@@ -256,30 +541,39 @@ public class Geometry extends AbstractGeometry implements Colorizable {
      * @return coordinates for point at t.
      */
     public Point pointAt(float t) {
-        float length = getLength();
+        expand();
+        if (paths.isEmpty()) return new Point();
         // Since t is relative, convert it to the absolute length.
-        float absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        float resT = t;
-        // Find the contour that contains t.
-        float cLength;
-        Path currentPath = null;
+        double absT = t * (double) getLength();
+        return pointOnPath(findPath(absT), absT);
+    }
+
+    /**
+     * Return the point on the given path at the given length along the geometry.
+     *
+     * @param index the path index
+     * @param absT  the length along the geometry.
+     * @return a new Point.
+     */
+    private Point pointOnPath(int index, double absT) {
+        Path p = paths.get(index);
+        float pathStart = index == 0 ? 0 : cumulativePathLengths[index - 1];
+        float pathLength = p.getLength();
+        return p.pointAt(pathLength == 0 ? 0 : (float) ((absT - pathStart) / pathLength));
+    }
+
+    private List<Contour> getContours() {
+        ArrayList<Contour> contours = new ArrayList<Contour>();
         for (Path p : paths) {
-            currentPath = p;
-            cLength = p.getLength();
-            if (absT <= cLength) break;
-            absT -= cLength;
-            resT -= cLength / length;
+            contours.addAll(p.getContours());
         }
-        if (currentPath == null) return new Point();
-        resT /= (currentPath.getLength() / length);
-        return currentPath.pointAt(resT);
+        return contours;
     }
 
-
     //// Geometric queries ////
 
     public boolean contains(Point pt) {
+        expand();
         for (Path p : paths) {
             if (p.contains(pt)) {
                 return true;
@@ -289,6 +583,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     }
 
     public boolean contains(float x, float y) {
+        expand();
         for (Path p : paths) {
             if (p.contains(x, y)) {
                 return true;
@@ -298,6 +593,7 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     }
 
     public boolean contains(Rect r) {
+        expand();
         for (Path p : paths) {
             if (p.contains(r)) {
                 return true;
@@ -306,9 +602,36 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         return false;
     }
 
+    /**
+     * Get an index that finds the paths and points of this geometry by their position.
+     * <p/>
+     * The index is created when it is first requested, and created again after the geometry is invalidated.
+     *
+     * @return the spatial index.
+     */
+    public SpatialIndex getSpatialIndex() {
+        expand();
+        if (spatialIndex == null)
+            spatialIndex = new SpatialIndex(this);
+        return spatialIndex;
+    }
+
+    /**
+     * Prepare this geometry for testing a large number of points.
+     * <p/>
+     * Use this instead of calling contains repeatedly, for example when scattering points inside the geometry.
+     *
+     * @return a prepared shape.
+     */
+    public PreparedShape prepare() {
+        expand();
+        return new PreparedShape(paths, Contour.DEFAULT_FLATNESS);
+    }
+
     //// Geometric operations ////
 
     public Point[] makePoints(int amount, boolean perContour) {
+        expand();
         if (perContour) {
             ArrayList<Point> points = new ArrayList<Point>();
             for (Path p : getPaths()) {
@@ -320,45 +643,124 @@ public class Geometry extends AbstractGeometry implements Colorizable {
             return (Point[]) points.toArray();
         } else {
             // Distribute all points evenly along the combined length of the contours.
-            float delta = pointDelta(amount, isClosed());
-            Point[] points = new Point[amount];
-            for (int i = 0; i < amount; i++) {
-                points[i] = pointAt(delta * i);
-            }
-            return points;
+            return toPoints(Resampler.sample(getContours(), amount, pointDelta(amount, isClosed())), amount);
         }
     }
 
-    public Geometry resampleByAmount(int amount, boolean perContour) {
+    public Geometry resampleByAmount(final int amount, boolean perContour) {
+        expand();
         if (perContour) {
-            Geometry g = new Geometry();
-            for (Path p : paths) {
-                g.add(p.resampleByAmount(amount, true));
-            }
-            return g;
+            final Path[] resampled = new Path[paths.size()];
+            PathTasks.forEach(paths, new PathTasks.Task() {
+                public void run(int index) {
+                    resampled[index] = paths.get(index).resampleByAmount(amount, true);
+                }
+            });
+            return fromPaths(resampled);
         } else {
             Geometry g = new Geometry();
-            float delta = pointDelta(amount, isClosed());
-            for (int i = 0; i < amount; i++) {
-                g.addPoint(pointAt(delta * i));
-            }
+            boolean closed = isClosed();
+            g.add(new Path(Resampler.resample(getContours(), amount, pointDelta(amount, closed), closed)));
             return g;
         }
     }
 
-    public Geometry resampleByLength(float segmentLength) {
+    public Geometry resampleByLength(final float segmentLength) {
+        expand();
+        final Path[] resampled = new Path[paths.size()];
+        PathTasks.forEach(paths, new PathTasks.Task() {
+            public void run(int index) {
+                resampled[index] = paths.get(index).resampleByLength(segmentLength);
+            }
+        });
+        return fromPaths(resampled);
+    }
+
+    private static Geometry fromPaths(Path[] paths) {
         Geometry g = new Geometry();
         for (Path p : paths) {
-            g.add(p.resampleByLength(segmentLength));
+            g.add(p);
         }
         return g;
     }
 
+    //// Boolean operations ////
+
+    /**
+     * Unite all paths in this geometry.
+     * <p/>
+     * This gives the same result as uniting the paths one by one, but is much faster for a large number of paths.
+     *
+     * @return a new path with the outline of all paths.
+     */
+    public Path unionAll() {
+        return unionAll(false);
+    }
+
+    /**
+     * Unite all paths in this geometry.
+     *
+     * @param parallel if true, use all processors.
+     * @return a new path with the outline of all paths.
+     * @see #unionAll()
+     */
+    public Path unionAll(boolean parallel) {
+        expand();
+        return new AreaCombiner(parallel).union(paths);
+    }
+
+    /**
+     * Intersect all paths in this geometry.
+     *
+     * @return a new path with the part that lies inside all paths.
+     */
+    public Path intersectAll() {
+        return intersectAll(false);
+    }
+
+    /**
+     * Intersect all paths in this geometry.
+     *
+     * @param parallel if true, use all processors.
+     * @return a new path with the part that lies inside all paths.
+     */
+    public Path intersectAll(boolean parallel) {
+        expand();
+        return new AreaCombiner(parallel).intersection(paths);
+    }
+
+    /**
+     * Subtract all other paths in this geometry from the first path.
+     *
+     * @return a new path with the part of the first path that does not lie inside the other paths.
+     */
+    public Path subtractAll() {
+        return subtractAll(false);
+    }
+
+    /**
+     * Subtract all other paths in this geometry from the first path.
+     *
+     * @param parallel if true, use all processors.
+     * @return a new path with the part of the first path that does not lie inside the other paths.
+     */
+    public Path subtractAll(boolean parallel) {
+        expand();
+        return new AreaCombiner(parallel).difference(paths);
+    }
+
     //// Transformations ////
 
-    public void transform(Transform t) {
-        for (Path path : paths) {
-            path.transform(t);
+    public void transform(final Transform t) {
+        PathTasks.forEach(paths, new PathTasks.Task() {
+            public void run(int index) {
+                paths.get(index).transform(t);
+            }
+        });
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.transform.prepend(t);
+            }
         }
         invalidate(true);
     }
@@ -366,17 +768,90 @@ public class Geometry extends AbstractGeometry implements Colorizable {
     //// Drawing operations ////
 
     public void draw(Graphics2D g) {
-        for (Grob grob : paths) {
-            grob.draw(g);
+        PathRenderer renderer = new PathRenderer(g);
+        _render(renderer);
+        renderer.flush();
+    }
+
+    /**
+     * Create the cached data that drawing uses, so that afterwards the geometry can be drawn from multiple threads.
+     */
+    /* package private */ void _prepareDrawing() {
+        for (Path p : paths) {
+            p._prepareDrawing();
+        }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.shape._prepareDrawing();
+                if (instance.fillColor != null)
+                    instance.fillColor.getAwtColor();
+                if (instance.strokeColor != null)
+                    instance.strokeColor.getAwtColor();
+            }
+        }
+    }
+
+    /**
+     * Return the largest stroke width of all paths, including the instances.
+     */
+    /* package private */ float _maxStrokeWidth() {
+        float width = 0;
+        for (Path p : paths) {
+            width = Math.max(width, p.getStrokeWidth());
+        }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                width = Math.max(width, instance.strokeWidthSet ? instance.strokeWidth : instance.shape._maxStrokeWidth());
+            }
+        }
+        return width;
+    }
+
+    /* package private */ void _render(PathRenderer renderer) {
+        for (Path p : paths) {
+            renderer.draw(p);
+        }
+        if (instances != null) {
+            for (Instance instance : instances) {
+                instance.draw(renderer, new AffineTransform(instance.transform.getAffineTransform()));
+            }
         }
     }
 
     public void flatten() {
-        throw new UnsupportedOperationException();
+        flatten(Contour.DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Replace the curves in all paths with straight lines.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     */
+    public void flatten(float flatness) {
+        expand();
+        for (Path p : paths) {
+            p.flatten(flatness);
+        }
+        invalidate(false);
     }
 
-    public IGeometry flattened() {
-        throw new UnsupportedOperationException();
+    public Geometry flattened() {
+        return flattened(Contour.DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Make a copy of this geometry where curves are replaced by straight lines.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     * @return a flattened copy.
+     */
+    public Geometry flattened(float flatness) {
+        expand();
+        Geometry g = new Geometry();
+        for (Path p : paths) {
+            g.add(p.flattened(flatness));
+        }
+        return g;
     }
 
     //// Object methods ////
@@ -385,9 +860,162 @@ public class Geometry extends AbstractGeometry implements Colorizable {
         return new Geometry(this);
     }
 
+    /**
+     * Geometry is equal if it has equal paths and equal instances. The instances are not copied: a group with
+     * instances is not equal to a group with copies of their paths.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Geometry)) return false;
+        Geometry other = (Geometry) o;
+        return paths.equals(other.paths) && instancesEqual(_instances(), other._instances());
+    }
+
+    private static boolean instancesEqual(List<Instance> instances, List<Instance> otherInstances) {
+        if (instances.size() != otherInstances.size()) return false;
+        // Instances usually share a few shapes, so remember the last pair of shapes that was found equal.
+        Geometry equalShape = null;
+        Geometry otherEqualShape = null;
+        for (int i = 0; i < instances.size(); i++) {
+            Instance instance = instances.get(i);
+            Instance other = otherInstances.get(i);
+            if (!instance.hasSameTransformAndStyle(other)) return false;
+            if (instance.shape == other.shape) continue;
+            if (instance.shape == equalShape && other.shape == otherEqualShape) continue;
+            if (!instance.shape.equals(other.shape)) return false;
+            equalShape = instance.shape;
+            otherEqualShape = other.shape;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // The shapes of the instances are left out, so the hash code does not depend on the size of the shapes.
+        int hash = paths.hashCode();
+        for (Instance instance : _instances()) {
+            hash = 31 * hash + instance.transformAndStyleHashCode();
+        }
+        return hash;
+    }
+
     @Override
     public String toString() {
         return "<" + getClass().getSimpleName() + ">";
     }
 
+    /**
+     * A shared shape with a transformation and style of its own.
+     * <p/>
+     * The fields are accessed directly by GraphicsCodec.
+     */
+    /* package private */ static class Instance {
+        final Geometry shape;
+        final Transform transform;
+        Color fillColor;
+        Color strokeColor;
+        float strokeWidth;
+        // The style is only applied when it is set on the group, otherwise the style of the shape is used.
+        boolean fillColorSet;
+        boolean strokeColorSet;
+        boolean strokeWidthSet;
+
+        /* package private */ Instance(Geometry shape, Transform transform) {
+            this.shape = shape;
+            this.transform = transform;
+        }
+
+        private Instance(Instance other) {
+            shape = other.shape;
+            transform = new Transform(other.transform);
+            fillColor = other.fillColor;
+            strokeColor = other.strokeColor;
+            strokeWidth = other.strokeWidth;
+            fillColorSet = other.fillColorSet;
+            strokeColorSet = other.strokeColorSet;
+            strokeWidthSet = other.strokeWidthSet;
+        }
+
+        private boolean hasSameTransformAndStyle(Instance other) {
+            return transform.equals(other.transform)
+                    && fillColorSet == other.fillColorSet && (!fillColorSet || sameColor(fillColor, other.fillColor))
+                    && strokeColorSet == other.strokeColorSet && (!strokeColorSet || sameColor(strokeColor, other.strokeColor))
+                    && strokeWidthSet == other.strokeWidthSet && (!strokeWidthSet || strokeWidth == other.strokeWidth);
+        }
+
+        private int transformAndStyleHashCode() {
+            int hash = transform.hashCode();
+            hash = 31 * hash + (fillColorSet && fillColor != null ? fillColor.hashCode() : 0);
+            hash = 31 * hash + (strokeColorSet && strokeColor != null ? strokeColor.hashCode() : 0);
+            hash = 31 * hash + (strokeWidthSet ? Float.floatToIntBits(strokeWidth) : 0);
+            return hash;
+        }
+
+        private static boolean sameColor(Color a, Color b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        private void applyStyle(Instance other) {
+            if (other.fillColorSet) {
+                fillColor = other.fillColor;
+                fillColorSet = true;
+            }
+            if (other.strokeColorSet) {
+                strokeColor = other.strokeColor;
+                strokeColorSet = true;
+            }
+            if (other.strokeWidthSet) {
+                strokeWidth = other.strokeWidth;
+                strokeWidthSet = true;
+            }
+        }
+
+        /**
+         * Add transformed copies of the paths of the shape and of its nested instances to the list.
+         */
+        private void copyPaths(List<Path> out, AffineTransform t) {
+            Transform transform = new Transform(t);
+            for (Path p : shape.paths) {
+                Path copy = p.clone();
+                copy.transform(transform);
+                if (fillColorSet)
+                    copy.setFillColor(fillColor);
+                if (strokeColorSet)
+                    copy.setStrokeColor(strokeColor);
+                if (strokeWidthSet)
+                    copy.setStrokeWidth(strokeWidth);
+                out.add(copy);
+            }
+            if (shape.instances != null) {
+                for (Instance nested : shape.instances) {
+                    AffineTransform at = new AffineTransform(nested.transform.getAffineTransform());
+                    at.preConcatenate(t);
+                    Instance styled = new Instance(nested);
+                    styled.applyStyle(this);
+                    styled.copyPaths(out, at);
+                }
+            }
+        }
+
+        private void draw(PathRenderer renderer, AffineTransform t) {
+            for (Path p : shape.paths) {
+                renderer.draw(p, t,
+                        fillColorSet ? fillColor : p.getFillColor(),
+                        strokeColorSet ? strokeColor : p.getStrokeColor(),
+                        strokeWidthSet ? strokeWidth : p.getStrokeWidth());
+            }
+            if (shape.instances != null) {
+                for (Instance nested : shape.instances) {
+                    AffineTransform at = new AffineTransform(nested.transform.getAffineTransform());
+                    at.preConcatenate(t);
+                    // My style overrides the style of the nested instance.
+                    Instance styled = new Instance(nested);
+                    styled.applyStyle(this);
+                    styled.draw(renderer, at);
+                }
+            }
+        }
+    }
+
 }
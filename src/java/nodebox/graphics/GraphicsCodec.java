@@ -0,0 +1,636 @@
+package nodebox.graphics;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes graphics objects in a compact, versioned binary format.
+ * <p/>
+ * Supported are points, colors, contours, paths, geometry, text and canvases, as well as integers, floats, doubles,
+ * booleans, strings and lists of supported values. Use {@link #canEncode(Object)} to check if a value can be written.
+ * <p/>
+ * Encoded data starts with a header: the magic number "NBGC", the format version and a flags byte. The value follows,
+ * starting with a one-byte tag that identifies its type. The points of a contour are stored as a packed array of
+ * coordinates followed by a packed array of point types. Instances in geometry are kept: each shared shape is
+ * stored once, followed by the transformation and style of every instance.
+ * <p/>
+ * The data can optionally be compressed. Uncompressed data is read straight from the buffer it is stored in, so
+ * decoding a memory-mapped file does not copy it first.
+ */
+public final class GraphicsCodec {
+
+    public static final int MAGIC = 0x4e424743; // "NBGC"
+    public static final int VERSION = 2;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_POINT = 1;
+    private static final byte TAG_COLOR = 2;
+    private static final byte TAG_CONTOUR = 3;
+    private static final byte TAG_PATH = 4;
+    private static final byte TAG_GEOMETRY = 5;
+    private static final byte TAG_CANVAS = 6;
+    private static final byte TAG_TEXT = 7;
+    private static final byte TAG_INTEGER = 10;
+    private static final byte TAG_FLOAT = 11;
+    private static final byte TAG_DOUBLE = 12;
+    private static final byte TAG_BOOLEAN = 13;
+    private static final byte TAG_STRING = 14;
+    private static final byte TAG_LIST = 15;
+
+    private static final int INSTANCE_FILL = 1;
+    private static final int INSTANCE_STROKE = 2;
+    private static final int INSTANCE_STROKE_WIDTH = 4;
+
+    private static final Text.Align[] ALIGNS = Text.Align.values();
+
+    private GraphicsCodec() {
+    }
+
+    /**
+     * Check if the given value, and everything it contains, can be encoded.
+     *
+     * @param value the value to check.
+     * @return true if the value can be encoded.
+     */
+    public static boolean canEncode(Object value) {
+        if (value == null
+                || value instanceof Point
+                || value instanceof Color
+                || value instanceof Contour
+                || value instanceof Path
+                || value instanceof Geometry
+                || value instanceof Text
+                || value instanceof Integer
+                || value instanceof Float
+                || value instanceof Double
+                || value instanceof Boolean
+                || value instanceof String) {
+            return true;
+        } else if (value instanceof Canvas) {
+            for (Grob g : ((Canvas) value).getItems()) {
+                if (!canEncode(g)) return false;
+            }
+            return true;
+        } else if (value instanceof List) {
+            for (Object o : (List<?>) value) {
+                if (!canEncode(o)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encode the value without compression.
+     *
+     * @param value the value to encode.
+     * @return the encoded bytes.
+     * @throws IllegalArgumentException if the value can not be encoded.
+     */
+    public static byte[] encode(Object value) throws IllegalArgumentException {
+        return encode(value, false);
+    }
+
+    /**
+     * Encode the value.
+     *
+     * @param value    the value to encode.
+     * @param compress if true, the encoded value is compressed.
+     * @return the encoded bytes.
+     * @throws IllegalArgumentException if the value can not be encoded.
+     */
+    public static byte[] encode(Object value, boolean compress) throws IllegalArgumentException {
+        Output out = new Output(256);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) (compress ? FLAG_COMPRESSED : 0));
+        if (!compress) {
+            writeValue(value, out);
+            return out.toByteArray();
+        }
+        Output body = new Output(256);
+        writeValue(value, body);
+        byte[] compressed = deflate(body.buffer.array(), body.buffer.position());
+        out.putInt(body.buffer.position());
+        out.putInt(compressed.length);
+        out.ensureCapacity(compressed.length);
+        out.buffer.put(compressed);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a value from a byte array.
+     *
+     * @param bytes the encoded bytes.
+     * @return the decoded value.
+     * @throws IOException if the bytes do not contain a valid value.
+     */
+    public static Object decode(byte[] bytes) throws IOException {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decode a value from the buffer, starting at its current position.
+     * <p/>
+     * Afterwards the position of the buffer is right after the encoded value. The byte order of the buffer is changed.
+     *
+     * @param buffer the buffer that contains the encoded value.
+     * @return the decoded value.
+     * @throws IOException if the buffer does not contain a valid value.
+     */
+    public static Object decode(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("The data is not in the NodeBox graphics format.");
+            int version = buffer.get();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of the NodeBox graphics format.");
+            int flags = buffer.get();
+            if ((flags & FLAG_COMPRESSED) == 0)
+                return readValue(buffer);
+            int length = readCount(buffer, 0);
+            int compressedLength = readCount(buffer, 1);
+            // Deflate can not compress data more than about a thousand times.
+            if (length > compressedLength * 1100L)
+                throw new IOException("Invalid length " + length + ".");
+            byte[] compressed = new byte[compressedLength];
+            buffer.get(compressed);
+            return readValue(ByteBuffer.wrap(inflate(compressed, length)));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The data ends unexpectedly.");
+        } catch (RuntimeException e) {
+            // Values read from corrupt data can be rejected by the constructors of the graphics classes.
+            throw new IOException("The data is not valid: " + e, e);
+        }
+    }
+
+    //// Compression ////
+
+    private static byte[] deflate(byte[] bytes, int length) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+        Output out = new Output(Math.max(64, length / 2));
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.ensureCapacity(n);
+            out.buffer.put(chunk, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] bytes = new byte[length];
+        try {
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, offset, length - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("The compressed data ends unexpectedly.");
+                offset += n;
+            }
+            if (offset != length)
+                throw new IOException("The compressed data has the wrong length.");
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed data is invalid: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return bytes;
+    }
+
+    //// Writing ////
+
+    private static void writeValue(Object value, Output out) throws IllegalArgumentException {
+        if (value == null) {
+            out.put(TAG_NULL);
+        } else if (value instanceof Point) {
+            out.put(TAG_POINT);
+            Point pt = (Point) value;
+            out.putFloat(pt.x);
+            out.putFloat(pt.y);
+            out.put((byte) pt.type);
+        } else if (value instanceof Color) {
+            out.put(TAG_COLOR);
+            writeColor((Color) value, out);
+        } else if (value instanceof Contour) {
+            out.put(TAG_CONTOUR);
+            writeContour((Contour) value, out);
+        } else if (value instanceof Path) {
+            out.put(TAG_PATH);
+            writePath((Path) value, out);
+        } else if (value instanceof Geometry) {
+            out.put(TAG_GEOMETRY);
+            writeGeometry((Geometry) value, out);
+        } else if (value instanceof Text) {
+            out.put(TAG_TEXT);
+            writeText((Text) value, out);
+        } else if (value instanceof Canvas) {
+            out.put(TAG_CANVAS);
+            writeCanvas((Canvas) value, out);
+        } else if (value instanceof Integer) {
+            out.put(TAG_INTEGER);
+            out.putInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.put(TAG_FLOAT);
+            out.putFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.put(TAG_DOUBLE);
+            out.putDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.put(TAG_BOOLEAN);
+            out.put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof String) {
+            out.put(TAG_STRING);
+            writeString((String) value, out);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.put(TAG_LIST);
+            out.putInt(list.size());
+            for (Object o : list) {
+                writeValue(o, out);
+            }
+        } else {
+            throw new IllegalArgumentException("Values of type " + value.getClass().getName() + " can not be encoded.");
+        }
+    }
+
+    private static void writeString(String s, Output out) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        out.putInt(bytes.length);
+        out.ensureCapacity(bytes.length);
+        out.buffer.put(bytes);
+    }
+
+    private static void writeColor(Color c, Output out) {
+        out.putFloat((float) c.getRed());
+        out.putFloat((float) c.getGreen());
+        out.putFloat((float) c.getBlue());
+        out.putFloat((float) c.getAlpha());
+    }
+
+    private static void writeOptionalColor(Color c, Output out) {
+        out.put((byte) (c != null ? 1 : 0));
+        if (c != null)
+            writeColor(c, out);
+    }
+
+    private static void writeContour(Contour c, Output out) {
+        int count = c.getPointCount();
+        float[] coordinates = c._coordinates();
+        byte[] types = c._types();
+        out.put((byte) (c.isClosed() ? 1 : 0));
+        out.putInt(count);
+        out.ensureCapacity(count * 9);
+        ByteBuffer buffer = out.buffer;
+        buffer.asFloatBuffer().put(coordinates, 0, count * 2);
+        buffer.position(buffer.position() + count * 8);
+        buffer.put(types, 0, count);
+    }
+
+    private static void writePath(Path p, Output out) {
+        writeOptionalColor(p.getFillColor(), out);
+        writeOptionalColor(p.getStrokeColor(), out);
+        out.putFloat(p.getStrokeWidth());
+        List<Contour> contours = p.getContours();
+        out.putInt(contours.size());
+        for (Contour c : contours) {
+            writeContour(c, out);
+        }
+    }
+
+    private static void writeGeometry(Geometry g, Output out) {
+        // Calling getPaths() would replace the instances by copies.
+        List<Path> paths = g._paths();
+        out.putInt(paths.size());
+        for (Path p : paths) {
+            writePath(p, out);
+        }
+        List<Geometry.Instance> instances = g._instances();
+        Map<Geometry, Integer> shapeIndices = new IdentityHashMap<Geometry, Integer>();
+        List<Geometry> shapes = new ArrayList<Geometry>();
+        for (Geometry.Instance instance : instances) {
+            if (!shapeIndices.containsKey(instance.shape)) {
+                shapeIndices.put(instance.shape, shapes.size());
+                shapes.add(instance.shape);
+            }
+        }
+        out.putInt(shapes.size());
+        for (Geometry shape : shapes) {
+            writeGeometry(shape, out);
+        }
+        out.putInt(instances.size());
+        for (Geometry.Instance instance : instances) {
+            out.putInt(shapeIndices.get(instance.shape));
+            writeTransform(instance.transform, out);
+            int flags = (instance.fillColorSet ? INSTANCE_FILL : 0)
+                    | (instance.strokeColorSet ? INSTANCE_STROKE : 0)
+                    | (instance.strokeWidthSet ? INSTANCE_STROKE_WIDTH : 0);
+            out.put((byte) flags);
+            if (instance.fillColorSet)
+                writeOptionalColor(instance.fillColor, out);
+            if (instance.strokeColorSet)
+                writeOptionalColor(instance.strokeColor, out);
+            if (instance.strokeWidthSet)
+                out.putFloat(instance.strokeWidth);
+        }
+    }
+
+    private static void writeTransform(Transform t, Output out) {
+        double[] matrix = new double[6];
+        t.getAffineTransform().getMatrix(matrix);
+        for (double d : matrix) {
+            out.putDouble(d);
+        }
+    }
+
+    private static void writeText(Text t, Output out) {
+        writeString(t.getText(), out);
+        out.putDouble(t.getBaseLineX());
+        out.putDouble(t.getBaseLineY());
+        out.putDouble(t.getWidth());
+        out.putDouble(t.getHeight());
+        writeString(t.getFontName(), out);
+        out.putDouble(t.getFontSize());
+        out.putDouble(t.getLineHeight());
+        out.put((byte) t.getAlign().ordinal());
+        writeOptionalColor(t.getFillColor(), out);
+        writeTransform(t.getTransform(), out);
+    }
+
+    private static void writeCanvas(Canvas c, Output out) {
+        writeOptionalColor(c.getBackground(), out);
+        out.putFloat(c.getOffsetX());
+        out.putFloat(c.getOffsetY());
+        out.putFloat(c.getWidth());
+        out.putFloat(c.getHeight());
+        List<Grob> items = c.getItems();
+        out.putInt(items.size());
+        for (Grob g : items) {
+            writeValue(g, out);
+        }
+    }
+
+    //// Reading ////
+
+    private static Object readValue(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_POINT:
+                float x = in.getFloat();
+                float y = in.getFloat();
+                return new Point(x, y, readPointType(in.get()));
+            case TAG_COLOR:
+                return readColor(in);
+            case TAG_CONTOUR:
+                return readContour(in);
+            case TAG_PATH:
+                return readPath(in);
+            case TAG_GEOMETRY:
+                return readGeometry(in);
+            case TAG_TEXT:
+                return readText(in);
+            case TAG_CANVAS:
+                return readCanvas(in);
+            case TAG_INTEGER:
+                return in.getInt();
+            case TAG_FLOAT:
+                return in.getFloat();
+            case TAG_DOUBLE:
+                return in.getDouble();
+            case TAG_BOOLEAN:
+                return in.get() != 0;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_LIST:
+                int size = readCount(in, 1);
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown tag " + tag + ".");
+        }
+    }
+
+    /**
+     * Read a count, and check that the buffer contains at least the given number of bytes for each element.
+     * This avoids allocating huge arrays when reading corrupt data.
+     */
+    private static int readCount(ByteBuffer in, int elementSize) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || (long) count * elementSize > in.remaining())
+            throw new IOException("Invalid count " + count + ".");
+        return count;
+    }
+
+    private static int readPointType(byte type) throws IOException {
+        if (type < Point.LINE_TO || type > Point.CURVE_DATA)
+            throw new IOException("Invalid point type " + type + ".");
+        return type;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length == -1) return null;
+        if (length < 0 || length > in.remaining())
+            throw new IOException("Invalid string length " + length + ".");
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static Color readColor(ByteBuffer in) {
+        float r = in.getFloat();
+        float g = in.getFloat();
+        float b = in.getFloat();
+        float a = in.getFloat();
+        return new Color(r, g, b, a);
+    }
+
+    private static Color readOptionalColor(ByteBuffer in) {
+        return in.get() != 0 ? readColor(in) : null;
+    }
+
+    private static Contour readContour(ByteBuffer in) throws IOException {
+        boolean closed = in.get() != 0;
+        int count = readCount(in, 9);
+        float[] coordinates = new float[count * 2];
+        in.asFloatBuffer().get(coordinates);
+        in.position(in.position() + coordinates.length * 4);
+        byte[] types = new byte[count];
+        in.get(types);
+        for (byte type : types) {
+            readPointType(type);
+        }
+        return new Contour(coordinates, types, count, closed);
+    }
+
+    private static Path readPath(ByteBuffer in) throws IOException {
+        Path p = new Path();
+        p.setFillColor(readOptionalColor(in));
+        p.setStrokeColor(readOptionalColor(in));
+        p.setStrokeWidth(in.getFloat());
+        int count = readCount(in, 5);
+        for (int i = 0; i < count; i++) {
+            p.add(readContour(in));
+        }
+        return p;
+    }
+
+    private static Geometry readGeometry(ByteBuffer in) throws IOException {
+        Geometry g = new Geometry();
+        int count = readCount(in, 1);
+        for (int i = 0; i < count; i++) {
+            g.add(readPath(in));
+        }
+        // An empty geometry takes three counts.
+        int shapeCount = readCount(in, 12);
+        List<Geometry> shapes = new ArrayList<Geometry>(shapeCount);
+        for (int i = 0; i < shapeCount; i++) {
+            shapes.add(readGeometry(in));
+        }
+        // An instance takes at least a shape index, a transformation and the flags.
+        int instanceCount = readCount(in, 53);
+        for (int i = 0; i < instanceCount; i++) {
+            int shapeIndex = in.getInt();
+            if (shapeIndex < 0 || shapeIndex >= shapes.size())
+                throw new IOException("Invalid shape index " + shapeIndex + ".");
+            Geometry.Instance instance = new Geometry.Instance(shapes.get(shapeIndex), readTransform(in));
+            int flags = in.get();
+            if ((flags & INSTANCE_FILL) != 0) {
+                instance.fillColor = readOptionalColor(in);
+                instance.fillColorSet = true;
+            }
+            if ((flags & INSTANCE_STROKE) != 0) {
+                instance.strokeColor = readOptionalColor(in);
+                instance.strokeColorSet = true;
+            }
+            if ((flags & INSTANCE_STROKE_WIDTH) != 0) {
+                instance.strokeWidth = in.getFloat();
+                instance.strokeWidthSet = true;
+            }
+            g._addInstance(instance);
+        }
+        return g;
+    }
+
+    private static Transform readTransform(ByteBuffer in) {
+        double[] matrix = new double[6];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = in.getDouble();
+        }
+        return new Transform(matrix[0], matrix[1], matrix[2], matrix[3], matrix[4], matrix[5]);
+    }
+
+    private static Text readText(ByteBuffer in) throws IOException {
+        String s = readString(in);
+        double x = in.getDouble();
+        double y = in.getDouble();
+        double width = in.getDouble();
+        double height = in.getDouble();
+        Text t = new Text(s, x, y, width, height);
+        t.setFontName(readString(in));
+        t.setFontSize(in.getDouble());
+        t.setLineHeight(in.getDouble());
+        int align = in.get();
+        if (align < 0 || align >= ALIGNS.length)
+            throw new IOException("Invalid alignment " + align + ".");
+        t.setAlign(ALIGNS[align]);
+        t.setFillColor(readOptionalColor(in));
+        t.setTransform(readTransform(in));
+        return t;
+    }
+
+    private static Canvas readCanvas(ByteBuffer in) throws IOException {
+        Canvas c = new Canvas();
+        c.setBackground(readOptionalColor(in));
+        c.setOffsetX(in.getFloat());
+        c.setOffsetY(in.getFloat());
+        c.setSize(in.getFloat(), in.getFloat());
+        int count = readCount(in, 1);
+        for (int i = 0; i < count; i++) {
+            Object item = readValue(in);
+            if (!(item instanceof Grob))
+                throw new IOException("Canvas items should be graphic objects, not " + item);
+            c.add((Grob) item);
+        }
+        return c;
+    }
+
+    /**
+     * A byte buffer that grows as values are written to it.
+     */
+    private static final class Output {
+        private ByteBuffer buffer;
+
+        private Output(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (buffer.remaining() >= extra) return;
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+
+        private void put(byte b) {
+            ensureCapacity(1);
+            buffer.put(b);
+        }
+
+        private void putInt(int i) {
+            ensureCapacity(4);
+            buffer.putInt(i);
+        }
+
+        private void putFloat(float f) {
+            ensureCapacity(4);
+            buffer.putFloat(f);
+        }
+
+        private void putDouble(double d) {
+            ensureCapacity(8);
+            buffer.putDouble(d);
+        }
+
+        private byte[] toByteArray() {
+            byte[] bytes = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+    }
+
+}
@@ -8,6 +8,7 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.Arrays;
 
 public class Image extends AbstractGrob {
 
@@ -209,10 +210,48 @@ public class Image extends AbstractGrob {
                 && this.desiredWidth == other.desiredWidth
                 && this.desiredHeight == other.desiredHeight
                 && this.alpha == other.alpha
-                && this.image.equals(other.image)
+                && imagesEqual(this.image, other.image)
                 && super.equals(other);
     }
 
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Float.floatToIntBits(x);
+        result = 31 * result + Float.floatToIntBits(y);
+        result = 31 * result + Float.floatToIntBits(desiredWidth);
+        result = 31 * result + Float.floatToIntBits(desiredHeight);
+        result = 31 * result + Float.floatToIntBits(alpha);
+        result = 31 * result + image.getWidth();
+        result = 31 * result + image.getHeight();
+        return result;
+    }
+
+    /**
+     * Compare two images pixel by pixel.
+     * <p/>
+     * Loading the same file twice results in two different BufferedImage objects, so we can't rely on identity.
+     *
+     * @param a the first image
+     * @param b the second image
+     * @return true if both images have the same size and pixels.
+     */
+    private static boolean imagesEqual(BufferedImage a, BufferedImage b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        int width = a.getWidth();
+        int height = a.getHeight();
+        if (width != b.getWidth() || height != b.getHeight()) return false;
+        int[] rowA = new int[width];
+        int[] rowB = new int[width];
+        for (int y = 0; y < height; y++) {
+            a.getRGB(0, y, width, 1, rowA, 0, width);
+            b.getRGB(0, y, width, 1, rowB, 0, width);
+            if (!Arrays.equals(rowA, rowB)) return false;
+        }
+        return true;
+    }
+
     @Override
     public String toString() {
         return "<Image (" + getWidth() + ", " + getHeight() + ")>";
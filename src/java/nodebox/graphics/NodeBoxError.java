@@ -9,4 +9,8 @@ public class NodeBoxError extends RuntimeException {
     public NodeBoxError(String message) {
         super(message);
     }
+
+    public NodeBoxError(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,503 @@
+package nodebox.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PNG image one row at a time.
+ * <p/>
+ * Rows are collected in blocks of about 128 KB, and only a block for each processor is kept in memory, so images can
+ * be written that are much larger than would fit in memory as a whole. The image is written as 8-bit RGBA, or as
+ * 8-bit RGB for images without alpha.
+ * <p/>
+ * The blocks are filtered and compressed in parallel. Each block is compressed separately, using the end of the
+ * previous block as the dictionary, and ends on a byte boundary, so the compressed blocks can be joined into a single
+ * zlib stream. This is the approach used by pigz. Compressing on multiple threads needs Java 7 or later; on Java 6
+ * the blocks are compressed one after the other.
+ * <p/>
+ * The compressors use native memory, so always call {@link #close()} when done, also when writing fails.
+ */
+public class PNGWriter {
+
+    /**
+     * The compression level that gives a good balance between speed and size.
+     */
+    public static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * The compression level for images that are only kept for a short time, such as the frames of a movie before it
+     * is encoded. Compression is a lot faster, but the files are larger.
+     */
+    public static final int FAST_COMPRESSION = Deflater.BEST_SPEED;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_COUNT = 5;
+    private static final int FILTER_SUB = 1, FILTER_UP = 2, FILTER_AVERAGE = 3, FILTER_PAETH = 4;
+    private static final int BLOCK_SIZE = 1 << 17;
+    // Deflate looks back at most 32 KB, so a larger dictionary has no use.
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    // Deflater.SYNC_FLUSH and the deflate method that takes it were added in Java 7.
+    private static final int SYNC_FLUSH = 2;
+    private static final Method deflateWithFlush = findDeflateWithFlush();
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final int level;
+    private final boolean alpha;
+    private final int bytesPerPixel;
+    private final int rowSize;
+    private final int rowsPerBlock;
+    private final boolean parallel;
+    private final ChunkOutputStream idat;
+    private final Adler32 checksum = new Adler32();
+    // Only used when compressing the blocks one after the other.
+    private final Deflater deflater;
+    private final Block[] blocks;
+    // The raw rows of the batch, after the last row of the previous batch.
+    private final byte[] rows;
+    // The filtered rows of the batch, after the end of the filtered data of the previous batch.
+    private final byte[] filtered;
+    private int dictionaryLength;
+    private int batchRows;
+    private int rowCount;
+
+    /**
+     * Start writing an image with the default compression level.
+     *
+     * @param out    the stream to write to. The stream is not closed.
+     * @param width  the width of the image, in pixels
+     * @param height the height of the image, in pixels
+     * @throws IOException if the header could not be written.
+     */
+    public PNGWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Start writing an image.
+     *
+     * @param out              the stream to write to. The stream is not closed.
+     * @param width            the width of the image, in pixels
+     * @param height           the height of the image, in pixels
+     * @param compressionLevel the compression level, from 0 (none) to 9 (best), or one of the constants of this class.
+     * @throws IOException if the header could not be written.
+     */
+    public PNGWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+        this(out, width, height, compressionLevel, true);
+    }
+
+    /**
+     * Start writing an image.
+     *
+     * @param out              the stream to write to. The stream is not closed.
+     * @param width            the width of the image, in pixels
+     * @param height           the height of the image, in pixels
+     * @param compressionLevel the compression level, from 0 (none) to 9 (best), or one of the constants of this class.
+     * @param alpha            if false, the image is written without an alpha channel.
+     * @throws IOException if the header could not be written.
+     */
+    public PNGWriter(OutputStream out, int width, int height, int compressionLevel, boolean alpha) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image size should be positive, not " + width + "x" + height + ".");
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Compression level should be between 0 and 9, not " + compressionLevel + ".");
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.level = compressionLevel;
+        this.alpha = alpha;
+        bytesPerPixel = alpha ? 4 : 3;
+        rowSize = width * bytesPerPixel;
+        rowsPerBlock = Math.max(1, BLOCK_SIZE / rowSize);
+        parallel = deflateWithFlush != null && PathTasks.THREAD_COUNT > 1;
+        int blockCount = parallel ? PathTasks.THREAD_COUNT : 1;
+        blocks = new Block[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = new Block();
+        }
+        deflater = parallel ? null : new Deflater(level, true);
+        int capacity = blockCount * rowsPerBlock;
+        rows = new byte[(capacity + 1) * rowSize];
+        filtered = new byte[DICTIONARY_SIZE + capacity * (rowSize + 1)];
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);
+        headerData.writeByte(alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        // Compression, filter and interlace method.
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk(this.out, "IHDR", header.toByteArray(), 0, header.size());
+        idat = new ChunkOutputStream(this.out);
+        writeZlibHeader();
+    }
+
+    /**
+     * Write the image to a PNG file.
+     *
+     * @param image            the image
+     * @param file             the file to write to
+     * @param compressionLevel the compression level, from 0 (none) to 9 (best), or one of the constants of this class.
+     * @throws IOException if the file could not be written.
+     */
+    public static void write(BufferedImage image, File file, int compressionLevel) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(image, out, compressionLevel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the image as a PNG.
+     *
+     * @param image            the image
+     * @param out              the stream to write to. The stream is not closed.
+     * @param compressionLevel the compression level, from 0 (none) to 9 (best), or one of the constants of this class.
+     * @throws IOException if the image could not be written.
+     */
+    public static void write(BufferedImage image, OutputStream out, int compressionLevel) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PNGWriter writer = new PNGWriter(out, width, height, compressionLevel, image.getColorModel().hasAlpha());
+        try {
+            int type = image.getType();
+            if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                    && image.getRaster().getParent() == null
+                    && ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width) {
+                // The pixels can be read directly. Images without alpha have no alpha byte, which is ignored.
+                int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                for (int y = 0; y < height; y++) {
+                    writer.writeRow(pixels, y * width);
+                }
+            } else {
+                int[] row = new int[width];
+                for (int y = 0; y < height; y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    writer.writeRow(row, 0);
+                }
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the next row of the image.
+     *
+     * @param argb   the pixels as non-premultiplied ARGB values, as used by BufferedImage.TYPE_INT_ARGB.
+     *               If the image is written without alpha, the alpha values are ignored.
+     * @param offset the index of the first pixel of the row in the array.
+     * @throws IOException if the row could not be written.
+     */
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if (rowCount == height)
+            throw new IllegalStateException("All " + height + " rows have already been written.");
+        byte[] row = rows;
+        int i = (batchRows + 1) * rowSize;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (alpha)
+                row[i++] = (byte) (pixel >> 24);
+        }
+        batchRows++;
+        rowCount++;
+        if (batchRows == blocks.length * rowsPerBlock || rowCount == height)
+            writeBatch();
+    }
+
+    /**
+     * Write the end of the image. All rows should have been written.
+     *
+     * @throws IOException if the image could not be written.
+     */
+    public void finish() throws IOException {
+        if (rowCount != height)
+            throw new IllegalStateException("Only " + rowCount + " of " + height + " rows were written.");
+        idat.writeInt((int) checksum.getValue());
+        idat.flush();
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+        close();
+    }
+
+    /**
+     * Release the compressors.
+     * <p/>
+     * Call this in a finally block, so the compressors are also released if writing fails before the image is
+     * finished. Calling it again, or after {@link #finish()}, does nothing. Rows can no longer be written afterwards.
+     */
+    public void close() {
+        for (Block block : blocks) {
+            block.end();
+        }
+        if (deflater != null)
+            deflater.end();
+    }
+
+    private void writeZlibHeader() throws IOException {
+        int compressionMethod = 0x78;
+        int levelFlag;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            levelFlag = 2;
+        } else if (level <= 1) {
+            levelFlag = 0;
+        } else if (level <= 5) {
+            levelFlag = 1;
+        } else {
+            levelFlag = 3;
+        }
+        int flags = levelFlag << 6;
+        flags += 31 - (compressionMethod * 256 + flags) % 31;
+        idat.write(compressionMethod);
+        idat.write(flags);
+    }
+
+    /**
+     * Filter and compress the collected rows.
+     */
+    private void writeBatch() throws IOException {
+        final int blockCount = (batchRows + rowsPerBlock - 1) / rowsPerBlock;
+        final boolean lastBatch = rowCount == height;
+        PathTasks.forEach(blockCount, new PathTasks.Task() {
+            public void run(int index) {
+                int end = Math.min(batchRows, (index + 1) * rowsPerBlock);
+                for (int r = index * rowsPerBlock; r < end; r++) {
+                    blocks[index].filter(r);
+                }
+            }
+        });
+        int filteredLength = batchRows * (rowSize + 1);
+        checksum.update(filtered, DICTIONARY_SIZE, filteredLength);
+        if (parallel) {
+            PathTasks.forEach(blockCount, new PathTasks.Task() {
+                public void run(int index) {
+                    blocks[index].compress(index, lastBatch && index == blockCount - 1);
+                }
+            });
+            for (int b = 0; b < blockCount; b++) {
+                idat.write(blocks[b].output, 0, blocks[b].outputSize);
+            }
+        } else {
+            Block block = blocks[0];
+            deflater.setInput(filtered, DICTIONARY_SIZE, filteredLength);
+            if (lastBatch)
+                deflater.finish();
+            while (lastBatch ? !deflater.finished() : !deflater.needsInput()) {
+                int n = deflater.deflate(block.output);
+                idat.write(block.output, 0, n);
+            }
+        }
+        // Keep the end of the filtered data for the dictionary and the last row for filtering the next batch.
+        int keep = Math.min(DICTIONARY_SIZE, dictionaryLength + filteredLength);
+        System.arraycopy(filtered, DICTIONARY_SIZE + filteredLength - keep, filtered, DICTIONARY_SIZE - keep, keep);
+        dictionaryLength = keep;
+        System.arraycopy(rows, batchRows * rowSize, rows, 0, rowSize);
+        batchRows = 0;
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) return left;
+        if (distanceUp <= distanceUpLeft) return up;
+        return upLeft;
+    }
+
+    private static Method findDeflateWithFlush() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * The buffers for filtering and compressing a block of rows on one thread.
+     */
+    private class Block {
+        // The row filtered with each filter type, including the filter type byte.
+        private final byte[][] candidates = new byte[FILTER_COUNT][rowSize + 1];
+        private final long[] sums = new long[FILTER_COUNT];
+        private Deflater blockDeflater;
+        private byte[] output = new byte[BLOCK_SIZE / 2];
+        private int outputSize;
+
+        /**
+         * Filter the row of the batch with the given index.
+         * <p/>
+         * With fast compression, every row is filtered with the Up filter. Otherwise every filter type is tried and
+         * the one with the smallest sum of absolute differences is used, which is the heuristic that the PNG
+         * specification recommends.
+         */
+        private void filter(int row) {
+            int rowStart = (row + 1) * rowSize;
+            int previousStart = row * rowSize;
+            int target = DICTIONARY_SIZE + row * (rowSize + 1);
+            if (level >= 0 && level <= FAST_COMPRESSION) {
+                filtered[target] = FILTER_UP;
+                for (int i = 0; i < rowSize; i++) {
+                    filtered[target + 1 + i] = (byte) (rows[rowStart + i] - rows[previousStart + i]);
+                }
+                return;
+            }
+            for (int f = 0; f < FILTER_COUNT; f++) {
+                candidates[f][0] = (byte) f;
+                sums[f] = 0;
+            }
+            for (int i = 0; i < rowSize; i++) {
+                int value = rows[rowStart + i] & 0xff;
+                int left = i >= bytesPerPixel ? rows[rowStart + i - bytesPerPixel] & 0xff : 0;
+                int up = rows[previousStart + i] & 0xff;
+                int upLeft = i >= bytesPerPixel ? rows[previousStart + i - bytesPerPixel] & 0xff : 0;
+                store(0, i, value);
+                store(FILTER_SUB, i, value - left);
+                store(FILTER_UP, i, value - up);
+                store(FILTER_AVERAGE, i, value - ((left + up) >> 1));
+                store(FILTER_PAETH, i, value - paeth(left, up, upLeft));
+            }
+            int best = 0;
+            for (int f = 1; f < FILTER_COUNT; f++) {
+                if (sums[f] < sums[best])
+                    best = f;
+            }
+            System.arraycopy(candidates[best], 0, filtered, target, rowSize + 1);
+        }
+
+        private void store(int filter, int i, int difference) {
+            byte b = (byte) difference;
+            candidates[filter][i + 1] = b;
+            sums[filter] += Math.abs(b);
+        }
+
+        /**
+         * Compress the filtered block with the given index.
+         * <p/>
+         * The last block of the image ends the stream. Other blocks are flushed to a byte boundary so the next
+         * block can follow them.
+         */
+        private void compress(int index, boolean last) {
+            int start = DICTIONARY_SIZE + index * rowsPerBlock * (rowSize + 1);
+            int end = DICTIONARY_SIZE + Math.min(batchRows, (index + 1) * rowsPerBlock) * (rowSize + 1);
+            int dictionaryStart = Math.max(DICTIONARY_SIZE - dictionaryLength, start - DICTIONARY_SIZE);
+            if (blockDeflater == null) {
+                blockDeflater = new Deflater(level, true);
+            } else {
+                blockDeflater.reset();
+            }
+            if (start > dictionaryStart)
+                blockDeflater.setDictionary(filtered, dictionaryStart, start - dictionaryStart);
+            blockDeflater.setInput(filtered, start, end - start);
+            outputSize = 0;
+            if (last)
+                blockDeflater.finish();
+            while (true) {
+                if (outputSize == output.length) {
+                    byte[] larger = new byte[output.length * 2];
+                    System.arraycopy(output, 0, larger, 0, outputSize);
+                    output = larger;
+                }
+                int space = output.length - outputSize;
+                if (last) {
+                    outputSize += blockDeflater.deflate(output, outputSize, space);
+                    if (blockDeflater.finished()) break;
+                } else {
+                    int n = deflate(blockDeflater, output, outputSize, space);
+                    outputSize += n;
+                    // The flush is complete once the deflater leaves space in the output.
+                    if (n < space) break;
+                }
+            }
+        }
+
+        private void end() {
+            if (blockDeflater != null)
+                blockDeflater.end();
+        }
+
+        private int deflate(Deflater d, byte[] b, int offset, int length) {
+            try {
+                return (Integer) deflateWithFlush.invoke(d, b, offset, length, SYNC_FLUSH);
+            } catch (Exception e) {
+                throw new NodeBoxError("Could not compress the image.", e);
+            }
+        }
+    }
+
+    /**
+     * Collects the compressed image data and writes it as IDAT chunks.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private static final int CHUNK_SIZE = 1 << 16;
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        private ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == CHUNK_SIZE) flush();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (size == CHUNK_SIZE) flush();
+                int n = Math.min(length, CHUNK_SIZE - size);
+                System.arraycopy(b, offset, buffer, size, n);
+                size += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void writeInt(int v) throws IOException {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0) return;
+            writeChunk(out, "IDAT", buffer, 0, size);
+            size = 0;
+        }
+    }
+
+}
@@ -20,9 +20,12 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     private transient boolean pathDirty = true;
     private transient boolean lengthDirty = true;
     private transient java.awt.geom.GeneralPath awtPath;
+    // The bounds are only cached when no contour has live points. See Contour#_hasLivePoints.
     private transient Rect bounds;
-    private transient ArrayList<Float> contourLengths;
+    // The length of the path at the end of each contour.
+    private transient float[] cumulativeContourLengths;
     private transient float pathLength = -1;
+    private transient PointIndex pointIndex;
 
     public Path() {
         fillColor = new Color();
@@ -143,6 +146,86 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         return points;
     }
 
+    //// Indexed point access ////
+
+    private PointIndex getPointIndex() {
+        if (pointIndex == null) {
+            int[] pointCounts = new int[contours.size()];
+            for (int i = 0; i < pointCounts.length; i++) {
+                pointCounts[i] = contours.get(i).getPointCount();
+            }
+            pointIndex = new PointIndex(pointCounts);
+        }
+        return pointIndex;
+    }
+
+    /**
+     * Get a copy of the point at the given index, counting the points of all contours.
+     * <p/>
+     * Unlike getPoints(), this does not create a list of all points.
+     *
+     * @param index the point index
+     * @return a new Point. Changing it does not change the path.
+     */
+    public Point getPoint(int index) {
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return contours.get(part).getPoint(index - pi.getOffset(part));
+    }
+
+    public float getX(int index) {
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return contours.get(part).getX(index - pi.getOffset(part));
+    }
+
+    public float getY(int index) {
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        return contours.get(part).getY(index - pi.getOffset(part));
+    }
+
+    /**
+     * Move the point at the given index, counting the points of all contours.
+     *
+     * @param index the point index
+     * @param x     the new horizontal coordinate
+     * @param y     the new vertical coordinate
+     */
+    public void setPoint(int index, float x, float y) {
+        PointIndex pi = getPointIndex();
+        int part = pi.findPart(index);
+        contours.get(part).setPoint(index - pi.getOffset(part), x, y);
+        invalidate(false);
+        // Moving a point does not change the number of points, so the index is still valid.
+        pointIndex = pi;
+    }
+
+    /**
+     * Visit all points of this path, without creating Point objects.
+     *
+     * @param visitor the visitor
+     */
+    public void forEachPoint(PointVisitor visitor) {
+        for (Contour part : contours) {
+            part.forEachPoint(visitor);
+        }
+    }
+
+    /**
+     * Change all points of this path using the given kernel.
+     * <p/>
+     * The kernel is applied to the coordinate array of each contour in turn, so no Point objects are created.
+     *
+     * @param kernel the kernel
+     */
+    public void mapPoints(PointKernel kernel) {
+        for (Contour part : contours) {
+            part.mapPoints(kernel);
+        }
+        invalidate(false);
+    }
+
     //// Primitives ////
 
     public void moveto(float x, float y) {
@@ -160,9 +243,10 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void curveto(float x1, float y1, float x2, float y2, float x3, float y3) {
         if (currentContour == null)
             throw new RuntimeException("Curveto without moveto first.");
-        addPoint(new Point(x1, y1, Point.CURVE_DATA));
-        addPoint(new Point(x2, y2, Point.CURVE_DATA));
-        addPoint(new Point(x3, y3, Point.CURVE_TO));
+        currentContour.addPoint(x1, y1, Point.CURVE_DATA);
+        currentContour.addPoint(x2, y2, Point.CURVE_DATA);
+        currentContour.addPoint(x3, y3, Point.CURVE_TO);
+        invalidate(false);
     }
 
     public void close() {
@@ -212,6 +296,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     private void invalidate(boolean recursive) {
         pathDirty = true;
         lengthDirty = true;
+        bounds = null;
+        pointIndex = null;
         if (recursive) {
             for (Contour c : contours) {
                 c.invalidate();
@@ -580,6 +666,74 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         return length;
     }
 
+    /**
+     * Returns the length of the spline, within the given tolerance.
+     * <p/>
+     * The curve is split in halves until the length of each piece is known precisely enough. The length of a piece
+     * lies between the length of its chord and the length of its control polygon; their average is used as the
+     * length. Small curves are measured in a few steps, while large curves are split further.
+     *
+     * @param x0        X start coordinate
+     * @param y0        Y start coordinate
+     * @param x1        X control point 1
+     * @param y1        Y control point 1
+     * @param x2        X control point 2
+     * @param y2        Y control point 2
+     * @param x3        X end coordinate
+     * @param y3        Y end coordinate
+     * @param tolerance the maximum difference between the returned length and the real length.
+     * @return the length of the spline.
+     */
+    public static float adaptiveCurveLength(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, float tolerance) {
+        return (float) subdivideCurve(x0, y0, x1, y1, x2, y2, x3, y3, tolerance, 0, 1, 0, 0, null);
+    }
+
+    /**
+     * Receives the pieces of a curve measured by subdivideCurve, in order.
+     */
+    /* package private */ interface CurvePieceHandler {
+        void addPiece(float t, float length);
+    }
+
+    private static final int MAX_SUBDIVISIONS = 12;
+    // Pieces that are reported to a handler are split at least this many times, because a straight piece can
+    // still have an uneven speed along its curve parameter.
+    private static final int MIN_HANDLER_SUBDIVISIONS = 5;
+
+    /**
+     * Measure the part of the curve between t0 and t1. The given coordinates are the control points of that part.
+     *
+     * @param tolerance    the allowed error for this part
+     * @param lengthBefore the length of the curve before t0
+     * @param depth        the number of times the curve was split
+     * @param handler      if not null, receives the end parameter and the length up to it of each piece.
+     * @return the length of this part.
+     */
+    /* package private */ static double subdivideCurve(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3,
+                                                       double tolerance, double t0, double t1, double lengthBefore, int depth, CurvePieceHandler handler) {
+        double chord = Math.hypot(x3 - x0, y3 - y0);
+        double polygon = Math.hypot(x1 - x0, y1 - y0) + Math.hypot(x2 - x1, y2 - y1) + Math.hypot(x3 - x2, y3 - y2);
+        // The real length lies between the chord and the polygon, so the average is off by at most half the difference.
+        boolean flat = polygon - chord <= 2 * tolerance && (handler == null || depth >= MIN_HANDLER_SUBDIVISIONS);
+        if (flat || depth >= MAX_SUBDIVISIONS) {
+            double length = (chord + polygon) / 2;
+            if (handler != null)
+                handler.addPiece((float) t1, (float) (lengthBefore + length));
+            return length;
+        }
+        // Split the curve in halves using de Casteljau's algorithm.
+        double x01 = (x0 + x1) / 2, y01 = (y0 + y1) / 2;
+        double x12 = (x1 + x2) / 2, y12 = (y1 + y2) / 2;
+        double x23 = (x2 + x3) / 2, y23 = (y2 + y3) / 2;
+        double xa = (x01 + x12) / 2, ya = (y01 + y12) / 2;
+        double xb = (x12 + x23) / 2, yb = (y12 + y23) / 2;
+        double xm = (xa + xb) / 2, ym = (ya + yb) / 2;
+        double tm = (t0 + t1) / 2;
+        double left = subdivideCurve(x0, y0, x01, y01, xa, ya, xm, ym, tolerance / 2, t0, tm, lengthBefore, depth + 1, handler);
+        double right = subdivideCurve(xm, ym, xb, yb, x23, y23, x3, y3, tolerance / 2, tm, t1, lengthBefore + left, depth + 1, handler);
+        return left + right;
+    }
+
     /**
      * Returns coordinates for point at t on the spline.
      * <p/>
@@ -629,29 +783,45 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     }
 
     private void updateContourLengths() {
-        contourLengths = new ArrayList<Float>(contours.size());
+        cumulativeContourLengths = new float[contours.size()];
         pathLength = 0;
-        float length;
-        for (Contour c : contours) {
-            length = c.getLength();
-            contourLengths.add(length);
-            pathLength += length;
+        for (int i = 0; i < contours.size(); i++) {
+            pathLength += contours.get(i).getLength();
+            cumulativeContourLengths[i] = pathLength;
         }
         lengthDirty = false;
     }
 
+    /**
+     * Find the contour that contains the given length using a binary search.
+     * <p/>
+     * This is the first contour that ends at or after the length. Lengths beyond the end of the path
+     * return the last contour.
+     *
+     * @param absT the length along the path.
+     * @return the contour index.
+     */
+    private int findContour(double absT) {
+        getLength();
+        int low = 0;
+        int high = contours.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (absT <= cumulativeContourLengths[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
     public Contour contourAt(float t) {
+        if (contours.isEmpty()) return null;
         // Since t is relative, convert it to the absolute length.
         float absT = t * getLength();
-
-        // Find the contour that contains t.
-        float cLength;
-        for (Contour c : contours) {
-            cLength = c.getLength();
-            if (absT <= cLength) return c;
-            absT -= cLength;
-        }
-        return null;
+        int index = findContour(absT);
+        return absT <= cumulativeContourLengths[index] ? contours.get(index) : null;
     }
 
     /**
@@ -667,24 +837,24 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * @return coordinates for point at t.
      */
     public Point pointAt(float t) {
-        float length = getLength();
+        if (contours.isEmpty()) return new Point();
         // Since t is relative, convert it to the absolute length.
-        float absT = t * length;
-        // The resT is what remains of t after we traversed all segments.
-        float resT = t;
-        // Find the contour that contains t.
-        float cLength;
-        Contour currentContour = null;
-        for (Contour c : contours) {
-            currentContour = c;
-            cLength = c.getLength();
-            if (absT <= cLength) break;
-            absT -= cLength;
-            resT -= cLength / length;
-        }
-        if (currentContour == null) return new Point();
-        resT /= (currentContour.getLength() / length);
-        return currentContour.pointAt(resT);
+        double absT = t * (double) getLength();
+        return pointOnContour(findContour(absT), absT);
+    }
+
+    /**
+     * Return the point on the given contour at the given length along the path.
+     *
+     * @param index the contour index
+     * @param absT  the length along the path.
+     * @return a new Point.
+     */
+    private Point pointOnContour(int index, double absT) {
+        Contour c = contours.get(index);
+        float contourStart = index == 0 ? 0 : cumulativeContourLengths[index - 1];
+        float contourLength = c.getLength();
+        return c.pointAt(contourLength == 0 ? 0 : (float) ((absT - contourStart) / contourLength));
     }
 
     /**
@@ -724,12 +894,7 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
             return points;
         } else {
             // Distribute all points evenly along the combined length of the contours.
-            float delta = pointDelta(amount, isClosed());
-            Point[] points = new Point[amount];
-            for (int i = 0; i < amount; i++) {
-                points[i] = pointAt(delta * i);
-            }
-            return points;
+            return toPoints(Resampler.sample(contours, amount, pointDelta(amount, isClosed())), amount);
         }
     }
 
@@ -742,10 +907,8 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
             return p;
         } else {
             Path p = cloneAndClear();
-            float delta = pointDelta(amount, isClosed());
-            for (int i = 0; i < amount; i++) {
-                p.addPoint(pointAt(delta * i));
-            }
+            boolean closed = isClosed();
+            p.add(Resampler.resample(contours, amount, pointDelta(amount, closed), closed));
             return p;
         }
     }
@@ -866,6 +1029,17 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         return getGeneralPath().contains(r.getRectangle2D());
     }
 
+    /**
+     * Prepare this path for testing a large number of points.
+     * <p/>
+     * Use this instead of calling contains repeatedly, for example when scattering points inside the path.
+     *
+     * @return a prepared shape.
+     */
+    public PreparedShape prepare() {
+        return new PreparedShape(Collections.singletonList(this), Contour.DEFAULT_FLATNESS);
+    }
+
     //// Boolean operations ////
 
     public boolean intersects(Rect r) {
@@ -914,45 +1088,101 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     }
 
     public Rect getBounds() {
-        if (!pathDirty && bounds != null) return bounds;
-        if (isEmpty()) {
-            bounds = new Rect();
-        } else {
-            float minX = Float.MAX_VALUE;
-            float minY = Float.MAX_VALUE;
-            float maxX = -Float.MAX_VALUE;
-            float maxY = -Float.MAX_VALUE;
-            float px, py;
-            ArrayList<Point> points = (ArrayList<Point>) getPoints();
-            for (int i = 0; i < getPointCount(); i++) {
-                Point p = points.get(i);
-                if (p.getType() == Point.LINE_TO) {
-                    px = p.getX();
-                    py = p.getY();
-                    if (px < minX) minX = px;
-                    if (py < minY) minY = py;
-                    if (px > maxX) maxX = px;
-                    if (py > maxY) maxY = py;
-                } else if (p.getType() == Point.CURVE_TO) {
-                    Bezier b = new Bezier(points.get(i - 3), points.get(i - 2), points.get(i - 1), p);
-                    Rect r = b.extrema();
-                    float right = r.getX() + r.getWidth();
-                    float bottom = r.getY() + r.getHeight();
-                    if (r.getX() < minX) minX = r.getX();
-                    if (right > maxX) maxX = right;
-                    if (r.getY() < minY) minY = r.getY();
-                    if (bottom > maxY) maxY = bottom;
+        boolean live = hasLivePoints();
+        if (bounds != null && !live) return bounds;
+        Rect r = isEmpty() ? new Rect() : calculateBounds(null);
+        if (!live)
+            bounds = r;
+        return r;
+    }
+
+    private boolean hasLivePoints() {
+        for (Contour c : contours) {
+            if (c._hasLivePoints()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Calculate the bounds this path would have after the given transformation, without changing the path.
+     *
+     * @param t the transformation
+     * @return the bounds of the transformed path.
+     */
+    /* package private */ Rect _transformedBounds(AffineTransform t) {
+        return isEmpty() ? new Rect() : calculateBounds(t);
+    }
+
+    private Rect calculateBounds(AffineTransform t) {
+        // The bounds as minX, minY, maxX, maxY.
+        float[] box = {Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        float[] transformed = null;
+        for (Contour c : contours) {
+            int pointCount = c.getPointCount();
+            float[] coordinates = c._coordinates();
+            byte[] types = c._types();
+            if (t != null) {
+                if (transformed == null || transformed.length < pointCount * 2)
+                    transformed = new float[pointCount * 2];
+                t.transform(coordinates, 0, transformed, 0, pointCount);
+                coordinates = transformed;
+            }
+            for (int i = 0; i < pointCount; i++) {
+                if (types[i] == Point.LINE_TO) {
+                    includeValue(box, 0, coordinates[i * 2]);
+                    includeValue(box, 1, coordinates[i * 2 + 1]);
+                } else if (types[i] == Point.CURVE_TO) {
+                    int o = (i - 3) * 2;
+                    includeCurve(box, 0, coordinates[o], coordinates[o + 2], coordinates[o + 4], coordinates[o + 6]);
+                    includeCurve(box, 1, coordinates[o + 1], coordinates[o + 3], coordinates[o + 5], coordinates[o + 7]);
                 }
             }
-            bounds = new Rect(minX, minY, maxX - minX, maxY - minY);
         }
-        return bounds;
+        return new Rect(box[0], box[1], box[2] - box[0], box[3] - box[1]);
+    }
+
+    private static void includeValue(float[] box, int axis, float v) {
+        if (v < box[axis]) box[axis] = v;
+        if (v > box[axis + 2]) box[axis + 2] = v;
+    }
+
+    /**
+     * Extend the bounds along one axis with the extremes of a curve.
+     * <p/>
+     * Besides the end points, the extremes lie where the derivative of the curve is zero, which are the roots of
+     * a quadratic equation.
+     */
+    private static void includeCurve(float[] box, int axis, float p0, float p1, float p2, float p3) {
+        includeValue(box, axis, p0);
+        includeValue(box, axis, p3);
+        float a = 3 * (-p0 + 3 * p1 - 3 * p2 + p3);
+        float b = 6 * (p0 - 2 * p1 + p2);
+        float c = 3 * (p1 - p0);
+        if (Math.abs(a) < 1e-6f) {
+            if (Math.abs(b) >= 1e-6f)
+                includeCurveAt(box, axis, p0, p1, p2, p3, -c / b);
+        } else {
+            float discriminant = b * b - 4 * a * c;
+            if (discriminant >= 0) {
+                float root = (float) Math.sqrt(discriminant);
+                includeCurveAt(box, axis, p0, p1, p2, p3, (-b + root) / (2 * a));
+                includeCurveAt(box, axis, p0, p1, p2, p3, (-b - root) / (2 * a));
+            }
+        }
+    }
+
+    private static void includeCurveAt(float[] box, int axis, float p0, float p1, float p2, float p3, float t) {
+        if (t <= 0 || t >= 1) return;
+        float mt = 1 - t;
+        includeValue(box, axis, mt * mt * mt * p0 + 3 * mt * mt * t * p1 + 3 * mt * t * t * p2 + t * t * t * p3);
     }
 
     //// Transformations ////
 
     public void transform(Transform t) {
-        t.map(getPoints());
+        for (Contour c : contours) {
+            c.transform(t);
+        }
         invalidate(true);
     }
 
@@ -962,7 +1192,19 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * Flatten the geometry.
      */
     public void flatten() {
-        throw new UnsupportedOperationException("Not implemented.");
+        flatten(Contour.DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Replace the curves in this path with straight lines.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     */
+    public void flatten(float flatness) {
+        for (Contour c : contours) {
+            c.flatten(flatness);
+        }
+        invalidate(false);
     }
 
     /**
@@ -971,7 +1213,21 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
      * @return a flattened copy.
      */
     public Path flattened() {
-        throw new UnsupportedOperationException("Not implemented.");
+        return flattened(Contour.DEFAULT_FLATNESS);
+    }
+
+    /**
+     * Make a copy of this path where curves are replaced by straight lines.
+     *
+     * @param flatness the maximum distance between the lines and the original curves.
+     * @return a flattened copy.
+     */
+    public Path flattened(float flatness) {
+        Path p = cloneAndClear();
+        for (Contour c : contours) {
+            p.add(c.flattened(flatness));
+        }
+        return p;
     }
 
     //// Operations on the current context. ////
@@ -979,18 +1235,32 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
     public void draw(Graphics2D g) {
         // If we can't fill or stroke the path, there's nothing to draw.
         if (fillColor == null && strokeColor == null) return;
-        GeneralPath gp = getGeneralPath();
         // If there are no points, there's nothing to draw.
         if (getPointCount() == 0) return;
+        drawShape(g, getGeneralPath(), fillColor, strokeColor, strokeWidth);
+    }
+
+    /**
+     * Draw this path with the given transformation and style, without changing the path.
+     * <p/>
+     * The stroke width is not transformed, so this looks the same as drawing a transformed copy of the path.
+     */
+    /* package private */ void _drawTransformed(Graphics2D g, AffineTransform t, Color fillColor, Color strokeColor, float strokeWidth) {
+        if (fillColor == null && strokeColor == null) return;
+        if (getPointCount() == 0) return;
+        drawShape(g, t.createTransformedShape(getGeneralPath()), fillColor, strokeColor, strokeWidth);
+    }
+
+    private static void drawShape(Graphics2D g, Shape shape, Color fillColor, Color strokeColor, float strokeWidth) {
         if (fillColor != null) {
             g.setColor(fillColor.getAwtColor());
-            g.fill(gp);
+            g.fill(shape);
         }
         if (strokeWidth > 0 && strokeColor != null) {
             try {
                 g.setColor(strokeColor.getAwtColor());
-                g.setStroke(new BasicStroke(strokeWidth));
-                g.draw(gp);
+                g.setStroke(PathRenderer.getStroke(strokeWidth));
+                g.draw(shape);
             } catch (Exception e) {
                 // Invalid transformations can cause the pen to not display.
                 // Catch the exception and throw it away.
@@ -999,6 +1269,18 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         }
     }
 
+    /**
+     * Create the cached data that drawing uses, so that afterwards the path can be drawn from multiple threads.
+     */
+    /* package private */ void _prepareDrawing() {
+        getBounds();
+        getGeneralPath();
+        if (fillColor != null)
+            fillColor.getAwtColor();
+        if (strokeColor != null)
+            strokeColor.getAwtColor();
+    }
+
     public Path clone() {
         return new Path(this);
     }
@@ -1007,130 +1289,38 @@ public class Path extends AbstractGeometry implements Colorizable, Iterable<Poin
         return new Path(this, false);
     }
 
+    /**
+     * Check if the given object is a path with the same style and contours.
+     * <p/>
+     * Comparing paths is done structurally, so a clone of a path is equal to the original path.
+     *
+     * @param o the object to compare with.
+     * @return true if the paths are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Path)) return false;
+        Path other = (Path) o;
+        return strokeWidth == other.strokeWidth
+                && (fillColor == null ? other.fillColor == null : fillColor.equals(other.fillColor))
+                && (strokeColor == null ? other.strokeColor == null : strokeColor.equals(other.strokeColor))
+                && contours.equals(other.contours);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = contours.hashCode();
+        result = 31 * result + (fillColor != null ? fillColor.hashCode() : 0);
+        result = 31 * result + (strokeColor != null ? strokeColor.hashCode() : 0);
+        result = 31 * result + Float.floatToIntBits(strokeWidth);
+        return result;
+    }
+
     //// Iterator implementation
 
     public Iterator<Point> iterator() {
         return getPoints().iterator();
     }
 
-
-    private class Bezier {
-        private float x1, y1, x2, y2, x3, y3, x4, y4;
-        private float minx, maxx, miny, maxy;
-
-        public Bezier(Point p1, Point p2, Point p3, Point p4) {
-            x1 = p1.getX();
-            y1 = p1.getY();
-            x2 = p2.getX();
-            y2 = p2.getY();
-            x3 = p3.getX();
-            y3 = p3.getY();
-            x4 = p4.getX();
-            y4 = p4.getY();
-        }
-
-        private boolean fuzzyCompare(float p1, float p2) {
-            return Math.abs(p1 - p2) <= (0.000000000001 * Math.min(Math.abs(p1), Math.abs(p2)));
-        }
-
-        public Point pointAt(float t) {
-            float coeff[], a, b, c, d;
-            coeff = coefficients(t);
-            a = coeff[0];
-            b = coeff[1];
-            c = coeff[2];
-            d = coeff[3];
-            return new Point(a * x1 + b * x2 + c * x3 + d * x4, a * y1 + b * y2 + c * y3 + d * y4);
-        }
-
-        private float[] coefficients(float t) {
-            float m_t, a, b, c, d;
-            m_t = 1 - t;
-            b = m_t * m_t;
-            c = t * t;
-            d = c * t;
-            a = b * m_t;
-            b *= (3. * t);
-            c *= (3. * m_t);
-            return new float[]{a, b, c, d};
-        }
-
-        private void bezierCheck(float t) {
-            if (t >= 0 && t <= 1) {
-                Point p = pointAt(t);
-                if (p.getX() < minx) minx = p.getX();
-                else if (p.getX() > maxx) maxx = p.getX();
-                if (p.getY() < miny) miny = p.getY();
-                else if (p.getY() > maxy) maxy = p.getY();
-            }
-        }
-
-        public Rect extrema() {
-            float ax, bx, cx, ay, by, cy;
-
-            if (x1 < x4) {
-                minx = x1;
-                maxx = x4;
-            } else {
-                minx = x4;
-                maxx = x1;
-            }
-            if (y1 < y4) {
-                miny = y1;
-                maxy = y4;
-            } else {
-                miny = y4;
-                maxy = y1;
-            }
-
-            ax = 3 * (-x1 + 3 * x2 - 3 * x3 + x4);
-            bx = 6 * (x1 - 2 * x2 + x3);
-            cx = 3 * (-x1 + x2);
-
-            if (fuzzyCompare(ax + 1, 1)) {
-                if (!fuzzyCompare(bx + 1, 1)) {
-                    float t = -cx / bx;
-                    bezierCheck(t);
-                }
-            } else {
-                float tx = bx * bx - 4 * ax * cx;
-                if (tx >= 0) {
-                    float temp, rcp, t1, t2;
-                    temp = (float) Math.sqrt(tx);
-                    rcp = 1 / (2 * ax);
-                    t1 = (-bx + temp) * rcp;
-                    bezierCheck(t1);
-
-                    t2 = (-bx - temp) * rcp;
-                    bezierCheck(t2);
-                }
-            }
-
-            ay = 3 * (-y1 + 3 * y2 - 3 * y3 + y4);
-            by = 6 * (y1 - 2 * y2 + y3);
-            cy = 3 * (-y1 + y2);
-
-            if (fuzzyCompare(ay + 1, 1)) {
-                if (!fuzzyCompare(by + 1, 1)) {
-                    float t = -cy / by;
-                    bezierCheck(t);
-                }
-            } else {
-                float ty = by * by - 4 * ay * cy;
-                if (ty > 0) {
-                    float temp, rcp, t1, t2;
-                    temp = (float) Math.sqrt(ty);
-                    rcp = 1 / (2 * ay);
-                    t1 = (-by + temp) * rcp;
-                    bezierCheck(t1);
-
-                    t2 = (-by - temp) * rcp;
-                    bezierCheck(t2);
-                }
-            }
-
-            return new Rect(minx, miny, maxx - minx, maxy - miny);
-        }
-    }
-
 }
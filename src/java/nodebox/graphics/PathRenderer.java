@@ -0,0 +1,165 @@
+package nodebox.graphics;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Draws a sequence of grobs, combining paths with the same style.
+ * <p/>
+ * Consecutive paths with the same fill, stroke and stroke width are added to a single shape, which is filled and
+ * stroked once. Paths are only combined if they do not overlap, including their stroke and a pixel for
+ * antialiasing, so the result looks the same as drawing the paths one by one. Paths that lie outside of the clip are
+ * skipped.
+ * <p/>
+ * Call {@link #flush()} after the last grob to draw the remaining paths.
+ */
+class PathRenderer {
+
+    // The number of paths that are checked for overlap before a combined shape is drawn.
+    private static final int MAX_BATCH_SIZE = 256;
+    // Mitered joins extend up to half the miter limit (10 for BasicStroke) times the stroke width.
+    private static final float MITER_EXTENT = 5f;
+    private static final int MAX_CACHED_STROKES = 256;
+    private static final Map<Float, BasicStroke> strokes = new ConcurrentHashMap<Float, BasicStroke>();
+
+    private final Graphics2D g;
+    private final Rectangle2D clip;
+    private final double pixelSize;
+
+    private final GeneralPath batch = new GeneralPath(GeneralPath.WIND_NON_ZERO);
+    private final Rectangle2D[] batchBounds = new Rectangle2D[MAX_BATCH_SIZE];
+    private int batchSize;
+    private Color fillColor;
+    private Color strokeColor;
+    private float strokeWidth;
+
+    PathRenderer(Graphics2D g) {
+        this.g = g;
+        Shape clipShape = g.getClip();
+        clip = clipShape == null ? null : clipShape.getBounds2D();
+        double scale = Math.sqrt(Math.abs(g.getTransform().getDeterminant()));
+        pixelSize = scale > 0 ? 1 / scale : 0;
+    }
+
+    /**
+     * Get a stroke with the given width.
+     * <p/>
+     * Strokes can not be changed, so they are shared.
+     *
+     * @param width the stroke width
+     * @return a stroke with the default cap and join.
+     */
+    static BasicStroke getStroke(float width) {
+        BasicStroke stroke = strokes.get(width);
+        if (stroke == null) {
+            if (strokes.size() >= MAX_CACHED_STROKES)
+                strokes.clear();
+            stroke = new BasicStroke(width);
+            strokes.put(width, stroke);
+        }
+        return stroke;
+    }
+
+    void draw(Grob grob) {
+        if (grob instanceof Path) {
+            draw((Path) grob);
+        } else if (grob instanceof Geometry) {
+            ((Geometry) grob)._render(this);
+        } else {
+            flush();
+            grob.draw(g);
+        }
+    }
+
+    void draw(Path p) {
+        Color fill = p.getFillColor();
+        Color stroke = p.getStrokeColor();
+        float width = p.getStrokeWidth();
+        if (stroke != null && width <= 0) stroke = null;
+        // If we can't fill or stroke the path, there's nothing to draw.
+        if (fill == null && stroke == null) return;
+        if (p.getPointCount() == 0) return;
+        Rectangle2D bounds = drawnBounds(p.getBounds(), stroke == null ? 0 : width, pixelSize);
+        if (clip != null && !clip.intersects(bounds)) return;
+        if (batchSize > 0 && !(sameStyle(fill, stroke, width) && fitsInBatch(bounds)))
+            flush();
+        if (batchSize == 0) {
+            fillColor = fill;
+            strokeColor = stroke;
+            strokeWidth = width;
+        }
+        batch.append(p.getGeneralPath(), false);
+        batchBounds[batchSize++] = bounds;
+    }
+
+    /**
+     * Draw an instance of a path, which is not combined with other paths.
+     */
+    void draw(Path p, AffineTransform t, Color fill, Color stroke, float width) {
+        flush();
+        p._drawTransformed(g, t, fill, stroke, width);
+    }
+
+    /**
+     * Draw the combined paths.
+     */
+    void flush() {
+        if (batchSize == 0) return;
+        if (fillColor != null) {
+            g.setColor(fillColor.getAwtColor());
+            g.fill(batch);
+        }
+        if (strokeColor != null) {
+            try {
+                g.setColor(strokeColor.getAwtColor());
+                g.setStroke(getStroke(strokeWidth));
+                g.draw(batch);
+            } catch (Exception e) {
+                // Invalid transformations can cause the pen to not display.
+                // Catch the exception and throw it away.
+                // The path would be too small to be displayed anyway.
+            }
+        }
+        batch.reset();
+        for (int i = 0; i < batchSize; i++) {
+            batchBounds[i] = null;
+        }
+        batchSize = 0;
+    }
+
+    /**
+     * Return the area that drawing a shape can change: the bounds, extended with the stroke and a pixel.
+     *
+     * @param r           the bounds of the shape
+     * @param strokeWidth the width of the stroke, or zero if the shape is not stroked.
+     * @param pixelSize   the size of a pixel
+     * @return the extended bounds.
+     */
+    static Rectangle2D drawnBounds(Rect r, float strokeWidth, double pixelSize) {
+        double margin = strokeWidth * MITER_EXTENT + pixelSize;
+        return new Rectangle2D.Double(r.getX() - margin, r.getY() - margin,
+                r.getWidth() + margin * 2, r.getHeight() + margin * 2);
+    }
+
+    private boolean sameStyle(Color fill, Color stroke, float width) {
+        return sameColor(fillColor, fill) && sameColor(strokeColor, stroke)
+                && (stroke == null || strokeWidth == width);
+    }
+
+    private static boolean sameColor(Color a, Color b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private boolean fitsInBatch(Rectangle2D bounds) {
+        if (batchSize == MAX_BATCH_SIZE) return false;
+        for (int i = 0; i < batchSize; i++) {
+            if (batchBounds[i].intersects(bounds)) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,140 @@
+package nodebox.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs an operation on each path of a geometry, spreading the paths over a thread for each processor.
+ * <p/>
+ * Paths are independent, so operations on different paths can run at the same time. Each thread handles ranges of
+ * consecutive paths and results are stored by index, so the output does not depend on the order in which the threads
+ * finish. Small geometries are handled on the calling thread, since handing them to other threads costs more than
+ * it saves.
+ * <p/>
+ * The threads are shared by all geometries. They are started when they are first needed.
+ */
+class PathTasks {
+
+    /**
+     * The minimum number of points for running in parallel.
+     * <p/>
+     * The value is an estimate that has not been measured yet. Tune it using ParallelBenchmark, which changes it
+     * to compare running in parallel and on the calling thread.
+     */
+    static int parallelThreshold = 20000;
+
+    // Using more ranges than threads evens out paths that take longer than others.
+    private static final int RANGES_PER_THREAD = 4;
+    static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService executor;
+
+    /**
+     * An operation on the path, or other item, with the given index.
+     */
+    interface Task {
+        void run(int index);
+    }
+
+    /**
+     * Run the task for every path, in parallel if the paths are large enough.
+     * <p/>
+     * The method returns once the task has run for all paths.
+     *
+     * @param paths the paths
+     * @param task  the task to run for the index of each path.
+     */
+    static void forEach(List<Path> paths, Task task) {
+        if (isParallel(paths)) {
+            runParallel(paths.size(), task);
+        } else {
+            for (int i = 0; i < paths.size(); i++) {
+                task.run(i);
+            }
+        }
+    }
+
+    /**
+     * Run the task for every index from zero up to the count, in parallel if there are multiple processors.
+     * <p/>
+     * This is meant for items that each take a lot of work, such as tiles of an image.
+     *
+     * @param count the number of items
+     * @param task  the task to run for each index.
+     */
+    static void forEach(int count, Task task) {
+        if (canRunParallel() && count > 1) {
+            runParallel(count, task);
+        } else {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+        }
+    }
+
+    private static boolean canRunParallel() {
+        // Tasks that are already running on a worker thread do not wait for other workers, since all workers
+        // might be waiting.
+        return THREAD_COUNT > 1 && !(Thread.currentThread() instanceof WorkerThread);
+    }
+
+    private static boolean isParallel(List<Path> paths) {
+        if (!canRunParallel() || paths.size() < 2) return false;
+        int pointCount = 0;
+        for (Path p : paths) {
+            pointCount += p.getPointCount();
+            if (pointCount >= parallelThreshold) return true;
+        }
+        return false;
+    }
+
+    private static void runParallel(int count, final Task task) {
+        int rangeCount = Math.min(count, THREAD_COUNT * RANGES_PER_THREAD);
+        List<Callable<Object>> ranges = new ArrayList<Callable<Object>>(rangeCount);
+        for (int r = 0; r < rangeCount; r++) {
+            final int start = (int) ((long) count * r / rangeCount);
+            final int end = (int) ((long) count * (r + 1) / rangeCount);
+            ranges.add(new Callable<Object>() {
+                public Object call() {
+                    for (int i = start; i < end; i++) {
+                        task.run(i);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : getExecutor().invokeAll(ranges)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeBoxError("Processing paths was interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new NodeBoxError("Error while processing paths.", cause);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new WorkerThread(r);
+                }
+            });
+        }
+        return executor;
+    }
+
+    private static class WorkerThread extends Thread {
+        private WorkerThread(Runnable r) {
+            super(r, "PathTasks worker");
+            // The threads are idle when nothing is processed, so they should not keep the application running.
+            setDaemon(true);
+        }
+    }
+
+}
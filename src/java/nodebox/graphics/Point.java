@@ -126,6 +126,14 @@ public class Point implements Iterable<Float> {
         return x == p.x && y == p.y && type == p.type;
     }
 
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(x);
+        result = 31 * result + Float.floatToIntBits(y);
+        result = 31 * result + type;
+        return result;
+    }
+
     @Override
     public String toString() {
         return "Point(" + x + ", " + y + ")";
@@ -0,0 +1,64 @@
+package nodebox.graphics;
+
+/**
+ * Finds points by their index across a number of parts, such as the contours of a path.
+ * <p/>
+ * The index stores the number of points before each part, so the part that contains a point is found with a
+ * binary search. It is a snapshot: when points are added to or removed from the parts, a new index is needed.
+ */
+class PointIndex {
+
+    // The number of points before each part, and the total number of points at the end.
+    private final int[] offsets;
+
+    /**
+     * Create an index.
+     *
+     * @param pointCounts the number of points in each part.
+     */
+    PointIndex(int[] pointCounts) {
+        offsets = new int[pointCounts.length + 1];
+        for (int i = 0; i < pointCounts.length; i++) {
+            offsets[i + 1] = offsets[i] + pointCounts[i];
+        }
+    }
+
+    int getPointCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Find the part that contains the point.
+     *
+     * @param index the point index
+     * @return the part index.
+     * @throws IndexOutOfBoundsException if there is no point with this index.
+     */
+    int findPart(int index) {
+        if (index < 0 || index >= getPointCount())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getPointCount());
+        // Find the last part that starts at or before the index, which skips empty parts.
+        int low = 0;
+        int high = offsets.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the index of the first point of the part.
+     *
+     * @param part the part index
+     * @return the point index.
+     */
+    int getOffset(int part) {
+        return offsets[part];
+    }
+
+}
@@ -0,0 +1,20 @@
+package nodebox.graphics;
+
+/**
+ * Changes the points of a geometry in bulk.
+ * <p/>
+ * The kernel is applied to each contour in turn and changes the coordinates of the contour in place.
+ *
+ * @see Geometry#mapPoints(PointKernel)
+ */
+public interface PointKernel {
+
+    /**
+     * Change the coordinates of a contour.
+     *
+     * @param coordinates the coordinates as x0, y0, x1, y1, ... The array can be larger than needed.
+     * @param pointCount  the number of points in the array.
+     */
+    public void apply(float[] coordinates, int pointCount);
+
+}
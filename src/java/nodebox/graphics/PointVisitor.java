@@ -0,0 +1,19 @@
+package nodebox.graphics;
+
+/**
+ * Receives the points of a geometry one by one, without creating Point objects.
+ *
+ * @see Geometry#forEachPoint(PointVisitor)
+ */
+public interface PointVisitor {
+
+    /**
+     * Visit a point.
+     *
+     * @param x    the horizontal coordinate
+     * @param y    the vertical coordinate
+     * @param type the point type, such as {@link Point#LINE_TO}.
+     */
+    public void visit(float x, float y, int type);
+
+}
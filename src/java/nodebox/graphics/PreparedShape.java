@@ -0,0 +1,229 @@
+package nodebox.graphics;
+
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+/**
+ * A shape that is prepared for testing a large number of points.
+ * <p/>
+ * The paths are flattened to straight edges once. The edges are sorted into horizontal bands, so a point is only
+ * tested against the few edges in its band instead of against every segment of the shape.
+ * <p/>
+ * A point is inside the shape if it lies inside any of the paths, using the non-zero winding rule for each path.
+ * This matches {@link Path#contains(float, float)} and {@link Geometry#contains(float, float)}, except for points that
+ * lie within the flatness of a curve.
+ * <p/>
+ * The prepared shape is a snapshot: later changes to the paths are not reflected. It can be used from multiple threads.
+ *
+ * @see Path#prepare()
+ * @see Geometry#prepare()
+ */
+public class PreparedShape {
+
+    private static final int MAX_BANDS = 4096;
+
+    private final float minX, minY, maxX, maxY;
+    // The edges as x0, y0, x1, y1, with y0 < y1.
+    private final float[] edges;
+    // The winding direction of each edge: 1 if the edge goes down, -1 if it goes up.
+    private final byte[] directions;
+    // The index of the path of each edge.
+    private final int[] pathIndices;
+    private final int bandCount;
+    private final float bandHeight;
+    // The edges in band b are bandEdges[bandStarts[b]] up to bandEdges[bandStarts[b + 1]], in order of their path.
+    private final int[] bandStarts;
+    private final int[] bandEdges;
+
+    /**
+     * Prepare the given paths.
+     *
+     * @param paths    the paths
+     * @param flatness the maximum distance between the edges and the original curves.
+     */
+    /* package private */ PreparedShape(List<Path> paths, float flatness) {
+        EdgeList edgeList = new EdgeList();
+        for (int i = 0; i < paths.size(); i++) {
+            edgeList.addPath(paths.get(i), i, flatness);
+        }
+        int edgeCount = edgeList.count;
+        edges = edgeList.edges;
+        directions = edgeList.directions;
+        pathIndices = edgeList.pathIndices;
+        if (edgeCount == 0) {
+            minX = minY = maxX = maxY = 0;
+            bandCount = 0;
+            bandHeight = 0;
+            bandStarts = new int[1];
+            bandEdges = new int[0];
+            return;
+        }
+        Rectangle2D bounds = edgeList.bounds;
+        minX = (float) bounds.getMinX();
+        minY = (float) bounds.getMinY();
+        maxX = (float) bounds.getMaxX();
+        maxY = (float) bounds.getMaxY();
+        bandCount = Math.max(1, Math.min(edgeCount / 2, MAX_BANDS));
+        bandHeight = (maxY - minY) / bandCount;
+
+        // Count the edges in each band, then fill them in.
+        bandStarts = new int[bandCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            for (int b = firstBand(e), last = lastBand(e); b <= last; b++) {
+                bandStarts[b + 1]++;
+            }
+        }
+        for (int b = 0; b < bandCount; b++) {
+            bandStarts[b + 1] += bandStarts[b];
+        }
+        bandEdges = new int[bandStarts[bandCount]];
+        int[] positions = new int[bandCount];
+        System.arraycopy(bandStarts, 0, positions, 0, bandCount);
+        for (int e = 0; e < edgeCount; e++) {
+            for (int b = firstBand(e), last = lastBand(e); b <= last; b++) {
+                bandEdges[positions[b]++] = e;
+            }
+        }
+    }
+
+    private int firstBand(int edge) {
+        return band(edges[edge * 4 + 1]);
+    }
+
+    private int lastBand(int edge) {
+        return band(edges[edge * 4 + 3]);
+    }
+
+    private int band(float y) {
+        if (bandHeight == 0) return 0;
+        int b = (int) ((y - minY) / bandHeight);
+        return Math.max(0, Math.min(bandCount - 1, b));
+    }
+
+    public Rect getBounds() {
+        return new Rect(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public boolean contains(Point pt) {
+        return contains(pt.x, pt.y);
+    }
+
+    /**
+     * Check if the point lies inside the shape.
+     *
+     * @param x the horizontal coordinate
+     * @param y the vertical coordinate
+     * @return true if the point lies inside any of the paths.
+     */
+    public boolean contains(float x, float y) {
+        if (bandCount == 0 || x < minX || x >= maxX || y < minY || y >= maxY) return false;
+        int b = band(y);
+        int end = bandStarts[b + 1];
+        int currentPath = -1;
+        int winding = 0;
+        for (int i = bandStarts[b]; i < end; i++) {
+            int e = bandEdges[i];
+            if (pathIndices[e] != currentPath) {
+                if (winding != 0) return true;
+                currentPath = pathIndices[e];
+                winding = 0;
+            }
+            int o = e * 4;
+            float y0 = edges[o + 1];
+            float y1 = edges[o + 3];
+            if (y < y0 || y >= y1) continue;
+            // Count the edges that cross a ray going right from the point.
+            float x0 = edges[o];
+            float x1 = edges[o + 2];
+            if (x >= x0 && x >= x1) continue;
+            if (x < x0 && x < x1) {
+                winding += directions[e];
+                continue;
+            }
+            float xIntercept = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+            if (x < xIntercept)
+                winding += directions[e];
+        }
+        return winding != 0;
+    }
+
+    /**
+     * Collects the edges of flattened paths.
+     */
+    private static class EdgeList {
+        private float[] edges = new float[64];
+        private byte[] directions = new byte[16];
+        private int[] pathIndices = new int[16];
+        private int count;
+        private Rectangle2D bounds;
+
+        private void addPath(Path path, int pathIndex, float flatness) {
+            PathIterator it = path.getGeneralPath().getPathIterator(null, flatness);
+            float[] coords = new float[6];
+            float startX = 0, startY = 0, x = 0, y = 0;
+            while (!it.isDone()) {
+                switch (it.currentSegment(coords)) {
+                    case PathIterator.SEG_MOVETO:
+                        // Open contours are closed implicitly, like GeneralPath.contains does.
+                        addEdge(x, y, startX, startY, pathIndex);
+                        startX = x = coords[0];
+                        startY = y = coords[1];
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        addEdge(x, y, coords[0], coords[1], pathIndex);
+                        x = coords[0];
+                        y = coords[1];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        addEdge(x, y, startX, startY, pathIndex);
+                        x = startX;
+                        y = startY;
+                        break;
+                }
+                it.next();
+            }
+            addEdge(x, y, startX, startY, pathIndex);
+            Rectangle2D pathBounds = path.getGeneralPath().getBounds2D();
+            if (bounds == null) {
+                bounds = pathBounds;
+            } else {
+                bounds.add(pathBounds);
+            }
+        }
+
+        private void addEdge(float x0, float y0, float x1, float y1, int pathIndex) {
+            // Horizontal edges never cross a horizontal ray.
+            if (y0 == y1) return;
+            if (count == directions.length) {
+                int capacity = count * 2;
+                float[] newEdges = new float[capacity * 4];
+                System.arraycopy(edges, 0, newEdges, 0, count * 4);
+                edges = newEdges;
+                byte[] newDirections = new byte[capacity];
+                System.arraycopy(directions, 0, newDirections, 0, count);
+                directions = newDirections;
+                int[] newPathIndices = new int[capacity];
+                System.arraycopy(pathIndices, 0, newPathIndices, 0, count);
+                pathIndices = newPathIndices;
+            }
+            int o = count * 4;
+            if (y0 < y1) {
+                edges[o] = x0;
+                edges[o + 1] = y0;
+                edges[o + 2] = x1;
+                edges[o + 3] = y1;
+                directions[count] = 1;
+            } else {
+                edges[o] = x1;
+                edges[o + 1] = y1;
+                edges[o + 2] = x0;
+                edges[o + 3] = y0;
+                directions[count] = -1;
+            }
+            pathIndices[count] = pathIndex;
+            count++;
+        }
+    }
+
+}
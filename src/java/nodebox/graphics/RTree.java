@@ -0,0 +1,211 @@
+package nodebox.graphics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A static R-tree over boxes, built in one go using Sort-Tile-Recursive packing.
+ * <p/>
+ * Items are identified by their index in the array of boxes given to the constructor. The tree can not be changed
+ * after it is built.
+ */
+class RTree {
+
+    private static final int NODE_SIZE = 16;
+
+    // The boxes of the items as minX, minY, maxX, maxY.
+    private final float[] itemBoxes;
+    // The items in tree order: leaf node i contains items[i * NODE_SIZE] up to items[(i + 1) * NODE_SIZE].
+    private final int[] items;
+    // The boxes of the nodes per level. Level 0 contains the leaf nodes, the last level contains the root.
+    // Node i on level l contains nodes i * NODE_SIZE up to (i + 1) * NODE_SIZE on level l - 1.
+    private final float[][] levels;
+
+    /**
+     * Build a tree.
+     *
+     * @param boxes the boxes of the items as minX, minY, maxX, maxY. The array is not copied.
+     */
+    RTree(float[] boxes) {
+        itemBoxes = boxes;
+        int count = boxes.length / 4;
+        items = sortTiles(boxes, count);
+        int levelCount = 1;
+        for (int n = nodeCount(count); n > 1; n = nodeCount(n)) {
+            levelCount++;
+        }
+        levels = new float[count == 0 ? 0 : levelCount][];
+        if (count == 0) return;
+        levels[0] = groupBoxes(boxes, items, count);
+        for (int l = 1; l < levelCount; l++) {
+            levels[l] = groupBoxes(levels[l - 1], null, levels[l - 1].length / 4);
+        }
+    }
+
+    private static int nodeCount(int childCount) {
+        return (childCount + NODE_SIZE - 1) / NODE_SIZE;
+    }
+
+    /**
+     * Sort the items into vertical slices by their center x, then sort each slice by center y.
+     * Consecutive groups of items then form compact nodes.
+     */
+    private static int[] sortTiles(final float[] boxes, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Float.compare(boxes[a * 4] + boxes[a * 4 + 2], boxes[b * 4] + boxes[b * 4 + 2]);
+            }
+        });
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount(count)));
+        // Each slice holds enough items for sliceCount nodes.
+        int sliceSize = sliceCount * NODE_SIZE;
+        Comparator<Integer> byY = new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Float.compare(boxes[a * 4 + 1] + boxes[a * 4 + 3], boxes[b * 4 + 1] + boxes[b * 4 + 3]);
+            }
+        };
+        for (int start = 0; start < count; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(start + sliceSize, count), byY);
+        }
+        int[] items = new int[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = order[i];
+        }
+        return items;
+    }
+
+    /**
+     * Calculate the boxes of nodes that each contain NODE_SIZE consecutive children.
+     */
+    private static float[] groupBoxes(float[] childBoxes, int[] order, int childCount) {
+        int nodeCount = nodeCount(childCount);
+        float[] boxes = new float[nodeCount * 4];
+        for (int n = 0; n < nodeCount; n++) {
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (int c = n * NODE_SIZE, end = Math.min(c + NODE_SIZE, childCount); c < end; c++) {
+                int o = (order == null ? c : order[c]) * 4;
+                minX = Math.min(minX, childBoxes[o]);
+                minY = Math.min(minY, childBoxes[o + 1]);
+                maxX = Math.max(maxX, childBoxes[o + 2]);
+                maxY = Math.max(maxY, childBoxes[o + 3]);
+            }
+            boxes[n * 4] = minX;
+            boxes[n * 4 + 1] = minY;
+            boxes[n * 4 + 2] = maxX;
+            boxes[n * 4 + 3] = maxY;
+        }
+        return boxes;
+    }
+
+    /**
+     * Receives the items found by a query.
+     */
+    interface Visitor {
+        void visit(int item);
+    }
+
+    /**
+     * Find the items with a box that intersects the given box.
+     */
+    void search(float minX, float minY, float maxX, float maxY, Visitor visitor) {
+        if (levels.length == 0) return;
+        search(levels.length - 1, 0, minX, minY, maxX, maxY, visitor);
+    }
+
+    private void search(int level, int node, float minX, float minY, float maxX, float maxY, Visitor visitor) {
+        int childCount = level == 0 ? items.length : levels[level - 1].length / 4;
+        for (int c = node * NODE_SIZE, end = Math.min(c + NODE_SIZE, childCount); c < end; c++) {
+            if (level == 0) {
+                int item = items[c];
+                if (intersects(itemBoxes, item, minX, minY, maxX, maxY))
+                    visitor.visit(item);
+            } else if (intersects(levels[level - 1], c, minX, minY, maxX, maxY)) {
+                search(level - 1, c, minX, minY, maxX, maxY, visitor);
+            }
+        }
+    }
+
+    private static boolean intersects(float[] boxes, int i, float minX, float minY, float maxX, float maxY) {
+        int o = i * 4;
+        return boxes[o] <= maxX && boxes[o + 1] <= maxY && boxes[o + 2] >= minX && boxes[o + 3] >= minY;
+    }
+
+    /**
+     * Find the items with the boxes closest to the given position.
+     *
+     * @param x     the horizontal coordinate
+     * @param y     the vertical coordinate
+     * @param count the maximum number of items
+     * @return the items, from the closest to the farthest.
+     */
+    int[] nearest(float x, float y, int count) {
+        count = Math.min(count, items.length);
+        int[] found = new int[count];
+        if (count <= 0) return found;
+        int foundCount = 0;
+        // Search the nodes and items in order of their distance. An item that comes out of the queue is closer
+        // than anything that is still in the queue.
+        PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+        queue.add(new Entry(0, levels.length - 1, 0));
+        while (!queue.isEmpty()) {
+            Entry e = queue.poll();
+            if (e.level < 0) {
+                found[foundCount++] = e.index;
+                if (foundCount == count) break;
+                continue;
+            }
+            int childCount = e.level == 0 ? items.length : levels[e.level - 1].length / 4;
+            for (int c = e.index * NODE_SIZE, end = Math.min(c + NODE_SIZE, childCount); c < end; c++) {
+                if (e.level == 0) {
+                    int item = items[c];
+                    queue.add(new Entry(distanceSquared(itemBoxes, item, x, y), -1, item));
+                } else {
+                    queue.add(new Entry(distanceSquared(levels[e.level - 1], c, x, y), e.level - 1, c));
+                }
+            }
+        }
+        if (foundCount < count) {
+            int[] result = new int[foundCount];
+            System.arraycopy(found, 0, result, 0, foundCount);
+            return result;
+        }
+        return found;
+    }
+
+    /**
+     * Return the squared distance between the point and the box, or zero if the point lies inside the box.
+     */
+    static float distanceSquared(float[] boxes, int i, float x, float y) {
+        int o = i * 4;
+        float dx = Math.max(0, Math.max(boxes[o] - x, x - boxes[o + 2]));
+        float dy = Math.max(0, Math.max(boxes[o + 1] - y, y - boxes[o + 3]));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * A node or item waiting to be visited by the nearest neighbour search.
+     * The level of an item is -1.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final float distance;
+        private final int level;
+        private final int index;
+
+        private Entry(float distance, int level, int index) {
+            this.distance = distance;
+            this.level = level;
+            this.index = index;
+        }
+
+        public int compareTo(Entry o) {
+            return Float.compare(distance, o.distance);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package nodebox.graphics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Creates evenly spaced points along a sequence of contours.
+ * <p/>
+ * The points are in order along the contours, so the contours and their segments are walked once, from start to end.
+ * The positions are written directly into a coordinate array, which becomes the storage of the resampled contour.
+ * No Point objects are created.
+ */
+class Resampler {
+
+    private Resampler() {
+    }
+
+    /**
+     * Create a contour with points along the given contour.
+     *
+     * @param contour the contour to sample
+     * @param amount  the number of points
+     * @param delta   the relative distance between two points.
+     * @param closed  if the new contour is closed
+     * @return a new contour.
+     */
+    static Contour resample(Contour contour, int amount, float delta, boolean closed) {
+        return resample(Collections.singletonList(contour), amount, delta, closed);
+    }
+
+    /**
+     * Create a single contour with points along all of the given contours.
+     *
+     * @param contours the contours to sample, in order
+     * @param amount   the number of points
+     * @param delta    the relative distance between two points.
+     * @param closed   if the new contour is closed
+     * @return a new contour.
+     */
+    static Contour resample(List<Contour> contours, int amount, float delta, boolean closed) {
+        float[] coordinates = sample(contours, amount, delta);
+        byte[] types = new byte[amount];
+        Arrays.fill(types, (byte) Point.LINE_TO);
+        return new Contour(coordinates, types, amount, closed);
+    }
+
+    static float[] sample(Contour contour, int amount, float delta) {
+        return sample(Collections.singletonList(contour), amount, delta);
+    }
+
+    /**
+     * Sample points at evenly spaced positions along the given contours.
+     * <p/>
+     * Empty contours are skipped. If all contours are empty, all points are at the origin.
+     *
+     * @param contours the contours to sample, in order
+     * @param amount   the number of points
+     * @param delta    the relative distance between two points.
+     * @return the coordinates of the points as x0, y0, x1, y1, ...
+     */
+    static float[] sample(List<Contour> contours, int amount, float delta) {
+        float[] coordinates = new float[amount * 2];
+        int contourCount = contours.size();
+        // The length of all contours at the end of each contour.
+        float[] cumulativeLengths = new float[contourCount];
+        float length = 0;
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < contourCount; i++) {
+            Contour c = contours.get(i);
+            if (!c.isEmpty()) {
+                length += c._prepareSampling();
+                if (first < 0) first = i;
+                last = i;
+            }
+            cumulativeLengths[i] = length;
+        }
+        if (first < 0) return coordinates;
+        int index = first;
+        int segment = 0;
+        for (int i = 0; i < amount; i++) {
+            double absT = delta * i * (double) length;
+            while (index < last && (absT > cumulativeLengths[index] || contours.get(index).isEmpty())) {
+                index++;
+                segment = 0;
+            }
+            float contourStart = index == 0 ? 0 : cumulativeLengths[index - 1];
+            segment = contours.get(index)._sampleAt(absT - contourStart, segment, coordinates, i * 2);
+        }
+        return coordinates;
+    }
+
+}
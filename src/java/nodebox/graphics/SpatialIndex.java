@@ -0,0 +1,189 @@
+package nodebox.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the paths and points of a geometry by their position.
+ * <p/>
+ * The index answers range, radius and nearest neighbour queries in logarithmic time, so nodes that relate points
+ * by their distance take O(n log n) time instead of comparing every pair of points.
+ * <p/>
+ * Points are identified by their index in {@link Geometry#getPoints()}. The index is a snapshot: it does not change
+ * when the geometry changes. Use {@link Geometry#getSpatialIndex()}, which builds a new index after the geometry
+ * is invalidated.
+ */
+public class SpatialIndex {
+
+    private final List<Path> paths;
+    private final float[] coordinates;
+    private final RTree pathTree;
+    private final RTree pointTree;
+
+    public SpatialIndex(Geometry geometry) {
+        paths = new ArrayList<Path>(geometry.getPaths());
+        float[] pathBoxes = new float[paths.size() * 4];
+        int pointCount = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            Path p = paths.get(i);
+            Rect r = p.getBounds();
+            pathBoxes[i * 4] = r.getX();
+            pathBoxes[i * 4 + 1] = r.getY();
+            pathBoxes[i * 4 + 2] = r.getX() + r.getWidth();
+            pathBoxes[i * 4 + 3] = r.getY() + r.getHeight();
+            pointCount += p.getPointCount();
+        }
+        coordinates = new float[pointCount * 2];
+        int index = 0;
+        for (Path p : paths) {
+            for (Contour c : p.getContours()) {
+                for (int i = 0, n = c.getPointCount(); i < n; i++) {
+                    coordinates[index++] = c.getX(i);
+                    coordinates[index++] = c.getY(i);
+                }
+            }
+        }
+        // Points are stored as boxes without a size.
+        float[] pointBoxes = new float[pointCount * 4];
+        for (int i = 0; i < pointCount; i++) {
+            pointBoxes[i * 4] = pointBoxes[i * 4 + 2] = coordinates[i * 2];
+            pointBoxes[i * 4 + 1] = pointBoxes[i * 4 + 3] = coordinates[i * 2 + 1];
+        }
+        pathTree = new RTree(pathBoxes);
+        pointTree = new RTree(pointBoxes);
+    }
+
+    //// Paths ////
+
+    /**
+     * Find the paths with bounds that intersect the given rectangle.
+     *
+     * @param r the rectangle
+     * @return the paths, in the order of the geometry.
+     */
+    public List<Path> findPaths(Rect r) {
+        int[] found = search(pathTree, r.getX(), r.getY(), r.getX() + r.getWidth(), r.getY() + r.getHeight());
+        List<Path> result = new ArrayList<Path>(found.length);
+        for (int i : found) {
+            result.add(paths.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Find the path with the bounds closest to the given position.
+     *
+     * @param x the horizontal coordinate
+     * @param y the vertical coordinate
+     * @return the path, or null if the geometry has no paths.
+     */
+    public Path nearestPath(float x, float y) {
+        int[] found = pathTree.nearest(x, y, 1);
+        return found.length == 0 ? null : paths.get(found[0]);
+    }
+
+    //// Points ////
+
+    public int getPointCount() {
+        return coordinates.length / 2;
+    }
+
+    /**
+     * Get the point with the given index.
+     *
+     * @param index the index of the point in the geometry
+     * @return a new Point.
+     */
+    public Point getPoint(int index) {
+        return new Point(coordinates[index * 2], coordinates[index * 2 + 1]);
+    }
+
+    /**
+     * Find the points that lie inside the given rectangle.
+     *
+     * @param r the rectangle
+     * @return the indices of the points, in ascending order.
+     */
+    public int[] findPoints(Rect r) {
+        return search(pointTree, r.getX(), r.getY(), r.getX() + r.getWidth(), r.getY() + r.getHeight());
+    }
+
+    /**
+     * Find the points that lie within the given distance of a position.
+     *
+     * @param x      the horizontal coordinate
+     * @param y      the vertical coordinate
+     * @param radius the maximum distance
+     * @return the indices of the points, in ascending order.
+     */
+    public int[] findPoints(final float x, final float y, float radius) {
+        final float radiusSquared = radius * radius;
+        final IndexList found = new IndexList();
+        pointTree.search(x - radius, y - radius, x + radius, y + radius, new RTree.Visitor() {
+            public void visit(int item) {
+                float dx = coordinates[item * 2] - x;
+                float dy = coordinates[item * 2 + 1] - y;
+                if (dx * dx + dy * dy <= radiusSquared)
+                    found.add(item);
+            }
+        });
+        return found.toSortedArray();
+    }
+
+    /**
+     * Find the point closest to the given position.
+     *
+     * @param x the horizontal coordinate
+     * @param y the vertical coordinate
+     * @return the index of the point, or -1 if the geometry has no points.
+     */
+    public int nearestPoint(float x, float y) {
+        int[] found = pointTree.nearest(x, y, 1);
+        return found.length == 0 ? -1 : found[0];
+    }
+
+    /**
+     * Find the points closest to the given position.
+     *
+     * @param x     the horizontal coordinate
+     * @param y     the vertical coordinate
+     * @param count the maximum number of points
+     * @return the indices of the points, from the closest to the farthest.
+     */
+    public int[] nearestPoints(float x, float y, int count) {
+        return pointTree.nearest(x, y, count);
+    }
+
+    private static int[] search(RTree tree, float minX, float minY, float maxX, float maxY) {
+        final IndexList found = new IndexList();
+        tree.search(minX, minY, maxX, maxY, new RTree.Visitor() {
+            public void visit(int item) {
+                found.add(item);
+            }
+        });
+        return found.toSortedArray();
+    }
+
+    private static class IndexList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                int[] newValues = new int[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = value;
+        }
+
+        private int[] toSortedArray() {
+            int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            Arrays.sort(array);
+            return array;
+        }
+    }
+
+}
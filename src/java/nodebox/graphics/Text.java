@@ -249,6 +249,38 @@ public class Text extends AbstractGrob {
         return new Text(this);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Text)) return false;
+        Text other = (Text) o;
+        return baseLineX == other.baseLineX
+                && baseLineY == other.baseLineY
+                && width == other.width
+                && height == other.height
+                && fontSize == other.fontSize
+                && lineHeight == other.lineHeight
+                && align == other.align
+                && (text == null ? other.text == null : text.equals(other.text))
+                && (fontName == null ? other.fontName == null : fontName.equals(other.fontName))
+                && (fillColor == null ? other.fillColor == null : fillColor.equals(other.fillColor))
+                && super.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (text != null ? text.hashCode() : 0);
+        result = 31 * result + (fontName != null ? fontName.hashCode() : 0);
+        long temp = Double.doubleToLongBits(fontSize);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(baseLineX);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(baseLineY);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
     private class TextLayoutIterator implements Iterator<TextLayout> {
 
         private float x, y;
@@ -142,13 +142,13 @@ public class Transform implements Cloneable {
 
     public Path map(Path p) {
         Path newPath = new Path(p);
-        map(newPath.getPoints());
+        newPath.transform(this);
         return newPath;
     }
 
     public Geometry map(Geometry g) {
         Geometry newGeometry = new Geometry(g);
-        map(newGeometry.getPoints());
+        newGeometry.transform(this);
         return newGeometry;
     }
 
@@ -202,6 +202,11 @@ public class Transform implements Cloneable {
         return getAffineTransform().equals(((Transform) obj).getAffineTransform());
     }
 
+    @Override
+    public int hashCode() {
+        return getAffineTransform().hashCode();
+    }
+
     public void apply(Graphics2D g, Rect bounds) {
         AffineTransform t = fullTransform(bounds);
         g.transform(t);
@@ -52,6 +52,7 @@ public class NDBXHandler extends DefaultHandler {
     public static final String VALUE_TYPE = "type";
     public static final String PORT_NAME = "name";
     public static final String PORT_CARDINALITY = "cardinality";
+    public static final String PORT_LAZY = "lazy";
     public static final String CONNECTION_OUTPUT = "output";
     public static final String CONNECTION_INPUT = "input";
     public static final String CONNECTION_PORT = "port";
@@ -454,7 +455,13 @@ public class NDBXHandler extends DefaultHandler {
                 throw new SAXException("Invalid cardinality attribute in port tag: should be single or multiple, not " + cardinalityAsString + ".");
             }
         }
-        currentNode.addPort(name, cardinality);
+        Port port = currentNode.getPort(name);
+        if (port == null) {
+            port = currentNode.addPort(name, cardinality);
+        } else if (port.getCardinality() != cardinality) {
+            throw new SAXException("Port '" + name + "' on node '" + currentNode.getName() + "' already exists with a different cardinality.");
+        }
+        port.setLazy("true".equals(attributes.getValue(PORT_LAZY)));
     }
 
     private void startConnectionTag(Attributes attributes) throws SAXException {
@@ -237,11 +237,14 @@ public class NDBXWriter {
         if (protoPort != null
                 && protoPort.getName().equals(port.getName())
                 && protoPort.getDirection().equals(port.getDirection())
-                && protoPort.getCardinality().equals(port.getCardinality())) return;
+                && protoPort.getCardinality().equals(port.getCardinality())
+                && protoPort.isLazy() == port.isLazy()) return;
         Element el = doc.createElement("port");
         el.setAttribute("name", port.getName());
         if (port.getCardinality() != Port.Cardinality.SINGLE)
             el.setAttribute("cardinality", port.getCardinality().toString().toLowerCase(Locale.US));
+        if (port.isLazy())
+            el.setAttribute("lazy", "true");
         parent.appendChild(el);
     }
 
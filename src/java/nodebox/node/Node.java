@@ -25,6 +25,7 @@ import nodebox.handle.Handle;
 import nodebox.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -62,6 +63,8 @@ public class Node implements NodeCode {
 
     public static final Node ROOT_NODE;
 
+    private static final AtomicLong revisionCounter = new AtomicLong();
+
     public enum Attribute {
         LIBRARY, NAME, POSITION, EXPORT, DESCRIPTION, IMAGE, PARAMETER, PORT
     }
@@ -116,6 +119,28 @@ public class Node implements NodeCode {
      */
     private transient boolean dirty = true;
 
+    /**
+     * A flag that indicates whether the node itself was changed, as opposed to one of its upstream nodes.
+     * If only upstream nodes were changed, processing is skipped when none of them produced a different value.
+     */
+    private transient boolean changed = true;
+
+    /**
+     * The revision of the output value. The revision only changes when processing produces a different value.
+     */
+    private transient long outputRevision;
+
+    /**
+     * The revisions of the upstream output values the last time this node was processed.
+     * Null if the node should be processed regardless of its inputs.
+     */
+    private transient long[] processedInputRevisions;
+
+    /**
+     * The signature of the last computation. Null if the node is not processed or can not be described by a signature.
+     */
+    private transient NodeSignature signature;
+
     /**
      * A flag that indicates that this node will be exported.
      * This flag only has effect for nodes directly under the root node in a library.
@@ -1231,6 +1256,17 @@ public class Node implements NodeCode {
     //// Dirty handling ////
 
     public void markDirty() {
+        changed = true;
+        propagateDirty();
+    }
+
+    /**
+     * Mark this node and its dependent nodes as dirty without marking the node itself as changed.
+     * <p/>
+     * This is used when an upstream node changes. During processing the node can then check if its inputs
+     * actually changed.
+     */
+    private void propagateDirty() {
         if (dirty)
             return;
         dirty = true;
@@ -1251,7 +1287,7 @@ public class Node implements NodeCode {
         checkNotNull(node);
         for (Connection c : connections) {
             if (node == c.getOutputNode()) {
-                c.getInputNode().markDirty();
+                c.getInputNode().propagateDirty();
             }
         }
     }
@@ -1335,20 +1371,58 @@ public class Node implements NodeCode {
         ProcessingContext.setCurrentContext(ctx);
         // Set the current node as the one being processed.
         ctx.setNode(this);
+        Object previousOutput = outputPort.getValue();
         // Update the dependencies.
         // This might cause an exception which we don't catch, instead letting it boil up.
-        updateDependencies(ctx);
-        // All dependencies are up-to-date. Process the node.
-        ProcessingError pe = null;
         try {
-            process(ctx);
+            updateDependencies(ctx);
         } catch (ProcessingError e) {
-            pe = e;
+            processedInputRevisions = null;
+            signature = null;
+            changed = true;
+            updateOutputRevision(previousOutput, false);
+            throw e;
+        }
+        // All dependencies are up-to-date. If the node itself didn't change and none of the upstream nodes
+        // produced a different value, the previous output is still valid and processing can be skipped.
+        ProcessingError pe = null;
+        long[] inputRevisions = getInputRevisions();
+        if (changed || error != null || inputRevisions == null || !Arrays.equals(inputRevisions, processedInputRevisions)) {
+            // If another node with the same signature was already processed, share its output.
+            signature = NodeSignature.create(this, ctx);
+            // Outputs stored in a previous session can be used as well, unless the node depends on files.
+            OutputCache cache = signature != null && signature.isPersistent() ? getLibrary().getOutputCache() : null;
+            Object cachedOutput = null;
+            if (signature != null && ctx.hasSharedOutput(signature)) {
+                outputPort.setValue(ctx.getSharedOutput(signature));
+                error = null;
+            } else if (cache != null && (cachedOutput = cache.get(signature.getDigest())) != null) {
+                outputPort.setValue(cachedOutput);
+                error = null;
+                ctx.putSharedOutput(signature, cachedOutput);
+            } else {
+                long startTime = System.currentTimeMillis();
+                try {
+                    process(ctx);
+                } catch (ProcessingError e) {
+                    pe = e;
+                }
+                if (pe == null && signature != null) {
+                    ctx.putSharedOutput(signature, outputPort.getValue());
+                    if (cache != null)
+                        cache.put(signature.getDigest(), outputPort.getValue(), System.currentTimeMillis() - startTime);
+                } else {
+                    signature = null;
+                }
+            }
+            processedInputRevisions = inputRevisions;
+            updateOutputRevision(previousOutput, !changed);
         }
         // Even if an error occurred the node is still marked as clean, and events are fired.
         // Only after these steps is the error thrown.
         // It is important to mark the node as clean so that subsequent changes to the node mark it as dirty,
         // triggering an event. This allows you to fix the cause of the error in the node.
+        changed = false;
         dirty = false;
         getLibrary().fireNodeUpdated(this, ctx);
         // If exception occurs, throw it.
@@ -1356,6 +1430,76 @@ public class Node implements NodeCode {
             throw pe;
     }
 
+    /**
+     * Get the output revisions of all upstream nodes, in connection order.
+     *
+     * @return the list of revisions, or null if the inputs can not be checked before processing.
+     */
+    private long[] getInputRevisions() {
+        if (!hasParent()) return new long[0];
+        // Lazy ports only update their upstream nodes during processing.
+        for (Port port : ports.values()) {
+            if (port.isLazy()) return null;
+        }
+        int count = 0;
+        for (Connection c : parent.connections) {
+            if (c.getInputNode() == this) count++;
+        }
+        long[] revisions = new long[count];
+        int i = 0;
+        for (Connection c : parent.connections) {
+            if (c.getInputNode() == this) {
+                revisions[i++] = c.getOutputNode().outputRevision;
+            }
+        }
+        return revisions;
+    }
+
+    /**
+     * Check if processing produced a different output value and update the output revision accordingly.
+     * <p/>
+     * If the new output value is equal to the previous value, the previous value is retained so downstream
+     * nodes can skip processing.
+     * <p/>
+     * Comparing geometry or images can take as long as processing, so the output is only compared if the node
+     * was processed because an upstream node changed. A node whose parameters or code changed, or that depends on
+     * the frame, almost always produces a different value.
+     *
+     * @param previousOutput the output value before processing.
+     * @param compare        if false, the output is only checked for identity with the previous output.
+     */
+    private void updateOutputRevision(Object previousOutput, boolean compare) {
+        Object output = outputPort.getValue();
+        if (output == previousOutput) return;
+        if (compare && output != null && output.equals(previousOutput)) {
+            outputPort.setValue(previousOutput);
+        } else {
+            outputRevision = revisionCounter.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the signature of the last computation.
+     * <p/>
+     * Nodes with equal signatures compute the same output value.
+     *
+     * @return the signature, or null if the node is not processed or can't be described by a signature.
+     */
+    public NodeSignature getSignature() {
+        return signature;
+    }
+
+    /**
+     * Get the revision of the output value.
+     * <p/>
+     * The revision changes every time processing produces a value that is different from the previous one.
+     *
+     * @return the output revision.
+     */
+    public long getOutputRevision() {
+        return outputRevision;
+    }
+
     /**
      * Update all dependencies of this node.
      * <p/>
@@ -1420,8 +1564,13 @@ public class Node implements NodeCode {
         // Update all upstream nodes.
         if (!hasParent()) return;
         for (Port port : ports.values()) {
-            port.reset();
-            parent.updateChildPort(port, ctx);
+            if (port.isLazy()) {
+                // Lazy ports update their upstream nodes when the value is requested.
+                port.defer(ctx);
+            } else {
+                port.reset();
+                parent.updateChildPort(port, ctx);
+            }
         }
     }
 
@@ -1432,23 +1581,36 @@ public class Node implements NodeCode {
      * @param ctx  the processing context
      * @throws ProcessingError if an error happens during processing.
      */
-    private void updateChildPort(Port port, ProcessingContext ctx) throws ProcessingError {
+    /* package private */ void updateChildPort(Port port, ProcessingContext ctx) throws ProcessingError {
         for (Connection c : connections) {
             if (port == c.getInput()) {
-                Node outputNode = c.getOutputNode();
-                outputNode.update(ctx);
+                Object value = updateChildConnection(c, ctx);
                 // TODO: This does not work for multi-connections, where we should use input.addValue().
                 // Maybe the first time we encounter the input port we can call reset, and use addValue
                 // all the time.
                 if (port.getCardinality() == Port.Cardinality.SINGLE) {
-                    port.setValue(outputNode.getOutputValue());
+                    port.setValue(value);
                 } else {
-                    port.addValue(outputNode.getOutputValue());
+                    port.addValue(value);
                 }
             }
         }
     }
 
+    /**
+     * Update the output node of the given child connection.
+     *
+     * @param c   a child connection
+     * @param ctx the processing context
+     * @return the output value of the upstream node.
+     * @throws ProcessingError if an error happens during processing.
+     */
+    /* package private */ Object updateChildConnection(Connection c, ProcessingContext ctx) throws ProcessingError {
+        Node outputNode = c.getOutputNode();
+        outputNode.update(ctx);
+        return outputNode.getOutputValue();
+    }
+
     /**
      * This method does the actual functionality of the node.
      *
@@ -1741,6 +1903,69 @@ public class Node implements NodeCode {
         return newChildren.iterator().next();
     }
 
+    /**
+     * Create an exact copy of this node and all of its children in the given library.
+     * <p/>
+     * Names, positions, parameter values, ports, connections and the rendered child are retained. Prototypes are
+     * shared with the original. Code objects are copied, since they keep state while cooking; code that is shared
+     * by several nodes in the original is shared by their copies as well. Expressions are not set on the copy but
+     * added to the given map, so they can be set once all nodes are copied.
+     * <p/>
+     * Do not use this method directly. This method is only used when copying a complete library.
+     *
+     * @param library     the library of the new node
+     * @param copyMap     a map that will be filled with the original nodes and their copies.
+     * @param expressions a map that will be filled with the new parameters and their expressions.
+     * @param codeCopies  a map that will be filled with the original code objects and their copies.
+     * @return the new node. The node has no parent.
+     * @see NodeLibrary#copy()
+     */
+    /* package private */ Node copyInto(NodeLibrary library, Map<Node, Node> copyMap, Map<Parameter, String> expressions, Map<NodeCode, NodeCode> codeCopies) {
+        Node n = new Node(library, name, dataClass);
+        n.prototype = prototype;
+        n.x = x;
+        n.y = y;
+        n.exported = exported;
+        copyMap.put(this, n);
+        for (Parameter p : parameters.values()) {
+            Parameter newParameter = p.copy(n, codeCopies);
+            n.parameters.put(p.getName(), newParameter);
+            if (p.hasExpression()) {
+                expressions.put(newParameter, p.getExpression());
+            }
+        }
+        for (Port p : ports.values()) {
+            n.ports.put(p.getName(), p.copy(n));
+        }
+        for (Node child : children.values()) {
+            Node newChild = child.copyInto(library, copyMap, expressions, codeCopies);
+            newChild.parent = n;
+            n.children.put(newChild.getName(), newChild);
+        }
+        if (renderedChild != null) {
+            n.renderedChild = copyMap.get(renderedChild);
+        }
+        for (Connection c : connections) {
+            Node newOutputNode = copyMap.get(c.getOutputNode());
+            Node newInputNode = copyMap.get(c.getInputNode());
+            n.connections.add(new Connection(newOutputNode.getOutputPort(), newInputNode.getPort(c.getInput().getName())));
+        }
+        return n;
+    }
+
+    /**
+     * Change the prototype of copied nodes that refer to a prototype that was copied as well.
+     *
+     * @param copyMap a map of the original nodes and their copies.
+     * @see #copyInto(NodeLibrary, Map, Map, Map)
+     */
+    /* package private */ void remapPrototype(Map<Node, Node> copyMap) {
+        Node newPrototype = copyMap.get(prototype);
+        if (newPrototype != null) {
+            prototype = newPrototype;
+        }
+    }
+
     //// Output ////
 
     @Override
@@ -43,6 +43,7 @@ public class NodeLibrary {
     private float frame = 1F;
     private HashMap<String, String> variables;
     private NodeCode code;
+    private OutputCache outputCache;
     private NodeEventBus eventBus = new NodeEventBus();
     private CanvasListener canvasListener = new CanvasListener();
 
@@ -308,6 +309,23 @@ public class NodeLibrary {
         externalDependencyTriggered(ExternalEvent.FRAME);
     }
 
+    //// Output cache ////
+
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    /**
+     * Set the cache that stores node outputs between sessions.
+     * <p/>
+     * Copies of this library share the same cache.
+     *
+     * @param outputCache the output cache, or null to disable caching.
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
     //// Persistence /////
 
     public void store() throws IOException, IllegalArgumentException {
@@ -321,6 +339,41 @@ public class NodeLibrary {
         NDBXWriter.write(this, f);
     }
 
+    //// Copying ////
+
+    /**
+     * Create a copy of this library and all of its nodes.
+     * <p/>
+     * This is a faster alternative to storing the library as XML and loading it again. Nodes, parameters, ports,
+     * connections and expressions are copied directly. Python code gets a namespace of its own in the copy, so the
+     * copy can be processed at the same time as the original, but the compiled code is shared. The new library is
+     * not added to a manager.
+     * <p/>
+     * Use this to process a library in a separate thread, for example when exporting.
+     *
+     * @return a new library with the same name, file, variables and nodes.
+     */
+    public NodeLibrary copy() {
+        NodeLibrary library = new NodeLibrary(name, file);
+        library.variables.putAll(variables);
+        library.code = code instanceof PythonCode ? ((PythonCode) code).copy() : code;
+        library.frame = frame;
+        library.outputCache = outputCache;
+        Map<Node, Node> copyMap = new HashMap<Node, Node>();
+        Map<Parameter, String> expressions = new LinkedHashMap<Parameter, String>();
+        Map<NodeCode, NodeCode> codeCopies = new HashMap<NodeCode, NodeCode>();
+        library.rootNode = rootNode.copyInto(library, copyMap, expressions, codeCopies);
+        // Nodes that inherit from nodes in this library should inherit from their copies.
+        for (Node newNode : copyMap.values()) {
+            newNode.remapPrototype(copyMap);
+        }
+        // Expressions are set once all nodes exist, since they can refer to any node in the library.
+        for (Map.Entry<Parameter, String> entry : expressions.entrySet()) {
+            entry.getKey().setExpression(entry.getValue());
+        }
+        return library;
+    }
+
     /**
      * Get the full XML data for this library and all of its nodes.
      *
@@ -0,0 +1,192 @@
+package nodebox.node;
+
+import nodebox.graphics.GraphicsCodec;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A signature describes the full computation of a node: its code, its data class, the resolved values of its
+ * parameters and the signatures of all of its upstream nodes.
+ * <p/>
+ * Two nodes with equal signatures compute the same output. This is used to evaluate repeated subnetworks only once,
+ * e.g. after copy/pasting a chain of nodes.
+ * <p/>
+ * Signatures are immutable. They are created after the dependencies of a node are updated.
+ * <p/>
+ * Nodes with a file or image parameter read files that can change without changing the signature. Their signatures
+ * are not persistent: they are valid while evaluating the network, but their digest should not be used to store
+ * outputs between sessions. The same goes for all nodes downstream of them.
+ * <p/>
+ * The code of a node can also read the library code and the processing context, such as the frame and the canvas
+ * size. These are the same for all nodes in an update, so they are left out of the comparison, but they are part of
+ * the digest.
+ */
+public class NodeSignature {
+
+    // The digest changes when the format of the digest or of the stored outputs changes, and with each version of
+    // NodeBox, since a new version can change what the builtin code does without changing its source.
+    private static final String DIGEST_VERSION = "1:" + GraphicsCodec.VERSION + ":"
+            + NodeSignature.class.getPackage().getImplementationVersion();
+    private static final String[] CONTEXT_KEYS = {ProcessingContext.FRAME, ProcessingContext.LEFT,
+            ProcessingContext.TOP, ProcessingContext.WIDTH, ProcessingContext.HEIGHT};
+
+    private final NodeCode code;
+    private final Class<?> dataClass;
+    private final List<Object> values;
+    private final List<Object> inputs;
+    private final List<Object> environment;
+    private final boolean persistent;
+    private final int hashCode;
+    private String digest;
+
+    private NodeSignature(NodeCode code, Class<?> dataClass, List<Object> values, List<Object> inputs,
+                          List<Object> environment, boolean persistent) {
+        this.code = code;
+        this.dataClass = dataClass;
+        this.values = values;
+        this.inputs = inputs;
+        this.environment = environment;
+        this.persistent = persistent;
+        int result = code.hashCode();
+        result = 31 * result + dataClass.hashCode();
+        result = 31 * result + values.hashCode();
+        result = 31 * result + inputs.hashCode();
+        this.hashCode = result;
+    }
+
+    /**
+     * Create the signature for the given node.
+     * <p/>
+     * The dependencies of the node need to be up-to-date.
+     * <p/>
+     * Not all nodes can be described by their signature. Nodes with children depend on the state of their children,
+     * and lazy ports are only updated during processing. For these nodes, and for nodes that depend on them,
+     * this method returns null.
+     *
+     * @param node    the node to describe.
+     * @param context the context the node is processed in.
+     * @return the signature or null if the node can not be described by its signature.
+     */
+    static NodeSignature create(Node node, ProcessingContext context) {
+        if (node.hasChildren()) return null;
+        NodeCode code = node.asCode("_code");
+        if (code == null) return null;
+        boolean persistent = true;
+        List<Object> values = new ArrayList<Object>();
+        for (Parameter p : node.getParameters()) {
+            // Metadata parameters such as the description don't influence the output.
+            if (p.getName().startsWith("_")) continue;
+            if (p.getWidget() == Parameter.Widget.FILE || p.getWidget() == Parameter.Widget.IMAGE)
+                persistent = false;
+            values.add(p.getName());
+            values.add(p.getValue());
+        }
+        List<Object> inputs = new ArrayList<Object>();
+        for (Port port : node.getPorts()) {
+            if (port.isLazy()) return null;
+            if (!node.hasParent()) continue;
+            for (Connection c : port.getConnections()) {
+                NodeSignature upstream = c.getOutputNode().getSignature();
+                if (upstream == null) return null;
+                if (!upstream.isPersistent())
+                    persistent = false;
+                inputs.add(port.getName());
+                inputs.add(upstream);
+            }
+        }
+        // Any code can read the library code and the context, e.g. the FRAME variable in Python code.
+        List<Object> environment = new ArrayList<Object>();
+        NodeCode libraryCode = node.getLibrary().getCode();
+        environment.add(libraryCode == null ? null : libraryCode.getSource());
+        for (String key : CONTEXT_KEYS) {
+            environment.add(context.get(key));
+        }
+        return new NodeSignature(code, node.getDataClass(), values, inputs, environment, persistent);
+    }
+
+    /**
+     * Check if the output of the node can be stored between sessions under the digest of this signature.
+     * <p/>
+     * Signatures of nodes that read files, and of the nodes downstream of them, are not persistent.
+     *
+     * @return true if the digest describes the output across sessions.
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Get a digest of the contents of this signature.
+     * <p/>
+     * Unlike the signature itself, the digest does not depend on object identity: it is computed from the type and
+     * source of the code, the string form of the parameter values, the digests of the upstream nodes, the library
+     * code, the context values and the version of NodeBox. This makes it suitable as a key for storing outputs
+     * between sessions.
+     *
+     * @return a hexadecimal SHA-1 digest.
+     */
+    public synchronized String getDigest() {
+        if (digest == null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(DIGEST_VERSION).append('\0');
+            sb.append(code.getClass().getName()).append('\0');
+            sb.append(code.getType()).append('\0');
+            sb.append(code.getSource()).append('\0');
+            sb.append(dataClass.getName()).append('\0');
+            for (Object value : values) {
+                sb.append(value).append('\0');
+            }
+            for (Object input : inputs) {
+                if (input instanceof NodeSignature) {
+                    sb.append(((NodeSignature) input).getDigest()).append('\0');
+                } else {
+                    sb.append(input).append('\0');
+                }
+            }
+            for (Object value : environment) {
+                sb.append(value).append('\0');
+            }
+            digest = sha1(sb.toString());
+        }
+        return digest;
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NodeSignature)) return false;
+        NodeSignature other = (NodeSignature) o;
+        // Code objects are shared between copies, so they are compared by identity.
+        return hashCode == other.hashCode
+                && code == other.code
+                && dataClass == other.dataClass
+                && values.equals(other.values)
+                && inputs.equals(other.inputs);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+}
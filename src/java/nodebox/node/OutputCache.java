@@ -0,0 +1,278 @@
+package nodebox.node;
+
+import nodebox.graphics.GraphicsCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Stores node outputs on disk so they survive between sessions.
+ * <p/>
+ * Outputs are stored under the digest of the node signature, which describes the code, the parameter values and
+ * the upstream nodes. Each output is stored as a separate file, in the format of {@link GraphicsCodec}.
+ * Outputs that can not be encoded, or that were cheap to compute, are not stored.
+ * <p/>
+ * The cache has a maximum size. When it grows beyond that size, the least recently used outputs are removed.
+ * <p/>
+ * The cache can be used from several threads. Only the bookkeeping is synchronized: files are read and written
+ * outside of the lock, so threads don't wait for each other's disk access.
+ * <p/>
+ * Set the cache on the library using {@link NodeLibrary#setOutputCache(OutputCache)}.
+ *
+ * @see NodeSignature#getDigest()
+ */
+public class OutputCache {
+
+    public static final long DEFAULT_MAX_SIZE = 100 * 1024 * 1024;
+    public static final long DEFAULT_MINIMUM_PROCESSING_TIME = 10;
+
+    private static final String EXTENSION = ".bin";
+
+    private final File directory;
+    private final long maxSize;
+    private long minimumProcessingTime = DEFAULT_MINIMUM_PROCESSING_TIME;
+    // Maps keys to file sizes, in access order, so the first entry is the least recently used.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * Return the cache directory for the given document: a directory next to the document, with the same name
+     * and a ".cache" extension.
+     *
+     * @param documentFile the document file
+     * @return the cache directory.
+     */
+    public static File directoryForDocument(File documentFile) {
+        String name = documentFile.getName();
+        if (name.endsWith(".ndbx"))
+            name = name.substring(0, name.length() - 5);
+        return new File(documentFile.getParentFile(), name + ".cache");
+    }
+
+    public OutputCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Open a cache in the given directory. Existing outputs in the directory are retained.
+     *
+     * @param directory the cache directory. It is created when the first output is stored.
+     * @param maxSize   the maximum size in bytes.
+     */
+    public OutputCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        // Add existing files from the oldest to the newest, so they keep their order of use.
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long ma = a.lastModified();
+                long mb = b.lastModified();
+                return ma < mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(EXTENSION)) continue;
+            String key = name.substring(0, name.length() - EXTENSION.length());
+            entries.put(key, f.length());
+            size += f.length();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMinimumProcessingTime() {
+        return minimumProcessingTime;
+    }
+
+    /**
+     * Outputs that take less time to compute than the given time are not stored.
+     *
+     * @param minimumProcessingTime the time in milliseconds.
+     */
+    public void setMinimumProcessingTime(long minimumProcessingTime) {
+        this.minimumProcessingTime = minimumProcessingTime;
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Get the stored output for the given key.
+     * <p/>
+     * If the output can no longer be read, for example because the file is corrupt, it is removed from the cache.
+     *
+     * @param key the key
+     * @return the output, or null if no output is stored under this key.
+     */
+    public Object get(String key) {
+        synchronized (this) {
+            // Looking up the entry moves it to the end of the access order.
+            if (entries.get(key) == null) return null;
+        }
+        File file = fileForKey(key);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new IOException("File " + file + " ends unexpectedly.");
+            }
+            buffer.flip();
+            Object value = GraphicsCodec.decode(buffer);
+            // Mark the file as used, so it is kept the next time the cache is opened.
+            file.setLastModified(System.currentTimeMillis());
+            return value;
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        } catch (RuntimeException e) {
+            remove(key);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Store the output under the given key.
+     *
+     * @param key            the key
+     * @param value          the output
+     * @param processingTime the time in milliseconds it took to compute the output.
+     * @return true if the output was stored.
+     */
+    public boolean put(String key, Object value, long processingTime) {
+        if (processingTime < minimumProcessingTime) return false;
+        if (!GraphicsCodec.canEncode(value)) return false;
+        byte[] bytes = GraphicsCodec.encode(value);
+        long fileSize = bytes.length;
+        if (fileSize > maxSize) return false;
+        if (!directory.isDirectory() && !directory.mkdirs()) return false;
+        File file = fileForKey(key);
+        File temporaryFile = null;
+        FileOutputStream out = null;
+        try {
+            // Each write uses its own temporary file, so threads storing the same key don't overwrite each other.
+            temporaryFile = File.createTempFile("write-" + key, ".tmp", directory);
+            out = new FileOutputStream(temporaryFile);
+            out.write(bytes);
+            out.close();
+            out = null;
+            // Rename the file once it is complete, so a crash never leaves a partial output.
+            synchronized (this) {
+                Long previousSize = entries.remove(key);
+                if (previousSize != null)
+                    size -= previousSize;
+            }
+            if (!temporaryFile.renameTo(file)) {
+                // Some platforms don't replace existing files when renaming.
+                file.delete();
+                if (!temporaryFile.renameTo(file))
+                    throw new IOException("Could not rename " + temporaryFile + " to " + file);
+            }
+        } catch (IOException e) {
+            close(out);
+            if (temporaryFile != null)
+                temporaryFile.delete();
+            return false;
+        }
+        List<String> evictedKeys;
+        synchronized (this) {
+            Long previousSize = entries.put(key, fileSize);
+            if (previousSize != null)
+                size -= previousSize;
+            size += fileSize;
+            evictedKeys = evict();
+        }
+        deleteFiles(evictedKeys);
+        return true;
+    }
+
+    /**
+     * Remove the output stored under the given key.
+     *
+     * @param key the key
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            Long fileSize = entries.remove(key);
+            if (fileSize != null)
+                size -= fileSize;
+        }
+        fileForKey(key).delete();
+    }
+
+    /**
+     * Remove all outputs from the cache.
+     */
+    public void clear() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<String>(entries.keySet());
+            entries.clear();
+            size = 0;
+        }
+        deleteFiles(keys);
+    }
+
+    /**
+     * Remove the least recently used outputs until the cache is smaller than the maximum size.
+     * <p/>
+     * Should be called while holding the lock. The files of the removed outputs should be deleted afterwards,
+     * outside of the lock.
+     *
+     * @return the keys of the removed outputs.
+     */
+    private List<String> evict() {
+        List<String> evictedKeys = new ArrayList<String>();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            size -= entry.getValue();
+            evictedKeys.add(entry.getKey());
+        }
+        return evictedKeys;
+    }
+
+    private void deleteFiles(List<String> keys) {
+        for (String key : keys) {
+            fileForKey(key).delete();
+        }
+    }
+
+    private File fileForKey(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    private static void close(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+}
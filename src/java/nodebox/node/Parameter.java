@@ -195,6 +195,34 @@ public class Parameter {
         revertToDefault();
     }
 
+    /**
+     * Create a copy of the given parameter on the new node.
+     * <p/>
+     * This constructor copies all fields directly and does not fire any events.
+     *
+     * @param node  the new node
+     * @param other the parameter to copy
+     * @param value the value of the new parameter
+     * @see #copy(Node, Map)
+     */
+    private Parameter(Node node, Parameter other, Object value) {
+        this.node = node;
+        this.name = other.name;
+        this.label = other.label;
+        this.helpText = other.helpText;
+        this.type = other.type;
+        this.widget = other.widget;
+        this.value = value;
+        this.boundingMethod = other.boundingMethod;
+        this.minimumValue = other.minimumValue;
+        this.maximumValue = other.maximumValue;
+        this.displayLevel = other.displayLevel;
+        if (other.enableExpression != null)
+            this.enableExpression = new Expression(this, other.enableExpression.getExpression());
+        this.menuItems = new ArrayList<MenuItem>(other.menuItems);
+        this.dirty = true;
+    }
+
     //// Basic operations ////
 
     public Node getNode() {
@@ -1205,6 +1233,38 @@ public class Parameter {
         return p;
     }
 
+    /**
+     * Copy this parameter onto the given node, including its current value.
+     * <p/>
+     * Unlike copyWithUpstream, this method has no side effects: no events are fired and the expression is not copied,
+     * since it might refer to parameters that are not copied yet. Set the expression on the new parameter
+     * after all nodes are copied.
+     * <p/>
+     * Python code is copied, so the new library can cook it at the same time as this library. Code that was
+     * copied before is reused.
+     * <p/>
+     * Do not use this method directly. This method is only used when copying a complete library.
+     *
+     * @param newNode    the new node this parameter should be under.
+     * @param codeCopies the code objects that were copied so far, and their copies.
+     * @return a new Parameter.
+     * @see NodeLibrary#copy()
+     */
+    /* package private */ Parameter copy(Node newNode, Map<NodeCode, NodeCode> codeCopies) {
+        Object newValue = value;
+        if (value instanceof Color) {
+            newValue = ((Color) value).clone();
+        } else if (value instanceof PythonCode) {
+            NodeCode code = codeCopies.get(value);
+            if (code == null) {
+                code = ((PythonCode) value).copy();
+                codeCopies.put((PythonCode) value, code);
+            }
+            newValue = code;
+        }
+        return new Parameter(newNode, this, newValue);
+    }
+
     /**
      * Clone the parameter so that it can be added to the given node.
      * <p/>
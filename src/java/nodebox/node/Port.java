@@ -1,16 +1,23 @@
 package nodebox.node;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import static nodebox.base.Preconditions.checkArgument;
 import static nodebox.base.Preconditions.checkState;
 
 /**
  * A connectable object on a node. Ports provide input and output capabilities between nodes.
  * <p/>
  * Ports have a certain data class. Only ports with the same class of data can be connected together.
+ * <p/>
+ * Input ports can be marked as lazy. The upstream nodes of a lazy port are not updated before the node is processed,
+ * but only when the value is first requested using getValue() or getValues(). For ports with multiple cardinality,
+ * each connection is resolved separately when its value is accessed, so a node that only looks at one of its inputs
+ * (e.g. the switch node) only pays for the input it actually uses.
  */
 public class Port {
 
@@ -32,9 +39,12 @@ public class Port {
     private String name;
     private Cardinality cardinality;
     private Direction direction;
+    private boolean lazy;
     // Depending on the cardinality, either value or values is used.
     private Object value;
     private List<Object> values;
+    // For lazy ports, the processing context of the pending update. Null if the port is up-to-date.
+    private transient ProcessingContext deferredContext;
 
     public Port(Node node, String name) {
         this(node, name, Cardinality.SINGLE, Direction.IN);
@@ -93,6 +103,29 @@ public class Port {
         return direction;
     }
 
+    /**
+     * Checks if the values of this port are resolved on demand.
+     *
+     * @return true if this port is lazy.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Set whether the values of this port are resolved on demand.
+     * <p/>
+     * Only input ports can be lazy.
+     *
+     * @param lazy true if upstream nodes should only be updated when the value is requested.
+     */
+    public void setLazy(boolean lazy) {
+        checkArgument(direction == Direction.IN, "Only input ports can be lazy.");
+        if (this.lazy == lazy) return;
+        this.lazy = lazy;
+        node.getLibrary().fireNodeAttributeChanged(node, Node.Attribute.PORT);
+    }
+
     public void validate(Object value) throws IllegalArgumentException {
         node.validate(value);
     }
@@ -108,6 +141,16 @@ public class Port {
     public Object getValue() {
         if (cardinality != Cardinality.SINGLE)
             throw new AssertionError("You can only call getValue when cardinality is SINGLE.");
+        if (deferredContext != null) {
+            ProcessingContext ctx = deferredContext;
+            deferredContext = null;
+            Node currentNode = ctx.getNode();
+            try {
+                getParentNode().updateChildPort(this, ctx);
+            } finally {
+                ctx.setNode(currentNode);
+            }
+        }
         return value;
     }
 
@@ -121,6 +164,10 @@ public class Port {
     public List<Object> getValues() {
         if (cardinality != Cardinality.MULTIPLE)
             throw new AssertionError("You can only call getValues when cardinality is MULTIPLE.");
+        if (deferredContext != null) {
+            values = new LazyValues(getConnections(), deferredContext);
+            deferredContext = null;
+        }
         if (values == null) return new ArrayList<Object>();
         return values;
     }
@@ -172,6 +219,20 @@ public class Port {
     public void reset() {
         value = null;
         values = null;
+        deferredContext = null;
+    }
+
+    /**
+     * Postpone updating the upstream nodes of this port until the value is requested.
+     * <p/>
+     * This method is called automatically when nodes are updated and the port is lazy.
+     *
+     * @param ctx the processing context used to update the upstream nodes.
+     */
+    void defer(ProcessingContext ctx) {
+        checkState(lazy, "Port %s is not lazy.", this);
+        reset();
+        deferredContext = ctx;
     }
 
     //// Connections ////
@@ -303,7 +364,9 @@ public class Port {
      * @return a new Port object
      */
     public Port clone(Node n) {
-        return new Port(n, getName(), getCardinality(), getDirection());
+        Port p = new Port(n, getName(), getCardinality(), getDirection());
+        p.lazy = lazy;
+        return p;
     }
 
     /**
@@ -315,7 +378,9 @@ public class Port {
      * @return a new, cloned port.
      */
     public Port copy(Node newNode) {
-        return new Port(newNode, getName(), getCardinality(), getDirection());
+        Port p = new Port(newNode, getName(), getCardinality(), getDirection());
+        p.lazy = lazy;
+        return p;
     }
 
     /**
@@ -351,4 +416,45 @@ public class Port {
     public String toString() {
         return node.getName() + "." + getName();
     }
+
+    /**
+     * The values of a lazy port with multiple cardinality.
+     * <p/>
+     * Each value is only computed when it is accessed for the first time.
+     */
+    private class LazyValues extends AbstractList<Object> {
+
+        private final List<Connection> connections;
+        private final ProcessingContext context;
+        private final Object[] resolvedValues;
+        private final boolean[] resolved;
+
+        private LazyValues(List<Connection> connections, ProcessingContext context) {
+            this.connections = connections;
+            this.context = context;
+            this.resolvedValues = new Object[connections.size()];
+            this.resolved = new boolean[connections.size()];
+        }
+
+        @Override
+        public Object get(int index) {
+            if (!resolved[index]) {
+                Node currentNode = context.getNode();
+                try {
+                    Object v = getParentNode().updateChildConnection(connections.get(index), context);
+                    validate(v);
+                    resolvedValues[index] = v;
+                } finally {
+                    context.setNode(currentNode);
+                }
+                resolved[index] = true;
+            }
+            return resolvedValues[index];
+        }
+
+        @Override
+        public int size() {
+            return connections.size();
+        }
+    }
 }
@@ -48,6 +48,12 @@ public class ProcessingContext {
      */
     private Map<Parameter, State> updatedParameters = new HashMap<Parameter, State>();
 
+    /**
+     * The outputs of nodes processed using this context, keyed by their signature.
+     * Nodes with the same signature share their output instead of processing again.
+     */
+    private Map<NodeSignature, Object> sharedOutputs = new HashMap<NodeSignature, Object>();
+
     public ProcessingContext() {
         put(FRAME, 1f);
         putBounds(0f, 0f, 1000f, 1000f);
@@ -134,6 +140,20 @@ public class ProcessingContext {
         return (Float) get("FRAME");
     }
 
+    //// Shared outputs ////
+
+    boolean hasSharedOutput(NodeSignature signature) {
+        return sharedOutputs.containsKey(signature);
+    }
+
+    Object getSharedOutput(NodeSignature signature) {
+        return sharedOutputs.get(signature);
+    }
+
+    void putSharedOutput(NodeSignature signature, Object value) {
+        sharedOutputs.put(signature, value);
+    }
+
     //// Output/error streams  ////
 
     public PrintStream getOutputStream() {
@@ -5,6 +5,8 @@ import org.python.core.*;
 import org.python.util.PythonInterpreter;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Locale;
 
@@ -23,6 +25,10 @@ import java.util.Locale;
  * <p/>
  * The cook method on this class executes the Python "cook" function with the self reference. It also sets a number
  * of global parameters based on the ProcessingContext.
+ * <p/>
+ * The namespace is shared by all calls to cook, so a code object should only be cooked by one thread at a time.
+ * Use {@link #copy()} to get a code object for another thread. Output of the code goes to the streams of the
+ * context, even when other threads are cooking at the same time.
  */
 public class PythonCode implements NodeCode {
 
@@ -33,6 +39,17 @@ public class PythonCode implements NodeCode {
     private PyFunction cookFunction;
     private CanvasContext ctx;
 
+    // System.out and System.err are replaced once by streams that send the output of each thread
+    // to the context it is cooking with.
+    private static ThreadOutputStream threadOut;
+    private static ThreadOutputStream threadErr;
+    private static PrintStream redirectedOut;
+    private static PrintStream redirectedErr;
+
+    private static final Object workingDirLock = new Object();
+    private static int workingDirUsers;
+    private static String originalWorkingDir;
+
     static {
         // Monkey patch to facilitate access to a node's prototype cook code.
         PythonInterpreter interpreter = new PythonInterpreter();
@@ -52,6 +69,18 @@ public class PythonCode implements NodeCode {
         namespace = new PyDictionary();
     }
 
+    /**
+     * Create a copy of this code with a namespace of its own, so the copy can be cooked on a different thread
+     * than this code. If this code was already compiled, the compiled code is shared.
+     *
+     * @return a new code object with the same source.
+     */
+    public PythonCode copy() {
+        PythonCode copy = new PythonCode(source);
+        copy.code = code;
+        return copy;
+    }
+
     private void preCook() {
         // The namespace will remain bound to the interpreter.
         // Changes to this dictionary will affect the namespace of the interpreter.
@@ -80,26 +109,18 @@ public class PythonCode implements NodeCode {
     }
 
     public Object cook(Node node, ProcessingContext context) throws RuntimeException {
-        // Reassign the output and error streams.
-        PrintStream oldOutStream = System.out;
-        PrintStream oldErrStream = System.err;
-        System.setOut(context.getOutputStream());
-        System.setErr(context.getErrorStream());
-        PySystemState ss = Py.getSystemState();
-        PyObject oldStdout = ss.stdout;
-        PyObject oldStderr = ss.stderr;
-        ss.stdout = Py.java2py(context.getOutputStream());
-        ss.stderr = Py.java2py(context.getErrorStream());
+        // Send the output of this thread to the context.
+        ThreadOutputStream[] streams = redirectStreams();
+        PrintStream oldOutStream = streams[0].setStream(context.getOutputStream());
+        PrintStream oldErrStream = streams[1].setStream(context.getErrorStream());
 
         // Set the current working directory.
         File libraryFile = null;
         if (node != null && node.getLibrary() != null) {
             libraryFile = node.getLibrary().getFile();
         }
-        String originalWorkingDir = null;
         if (libraryFile != null) {
-            originalWorkingDir = Py.getSystemState().getCurrentWorkingDir();
-            Py.getSystemState().setCurrentWorkingDir(libraryFile.getParent());
+            enterWorkingDir(libraryFile.getParent());
         }
 
         // Run the Python function.
@@ -123,10 +144,12 @@ public class PythonCode implements NodeCode {
             }
         } finally {
             // Reset the output streams.
-            System.setOut(oldOutStream);
-            System.setErr(oldErrStream);
-            ss.stdout = oldStdout;
-            ss.stderr = oldStderr;
+            streams[0].setStream(oldOutStream);
+            streams[1].setStream(oldErrStream);
+            // Reset the current working directory.
+            if (libraryFile != null) {
+                exitWorkingDir();
+            }
         }
 
         // Unwrap the result.
@@ -146,12 +169,52 @@ public class PythonCode implements NodeCode {
                 result = null;
             }
         }
-        // Reset the current working directory.
-        if (originalWorkingDir != null) {
-            Py.getSystemState().setCurrentWorkingDir(originalWorkingDir);
+        return result;
+    }
+
+    /**
+     * Replace the system streams and the Python streams by streams that write to the stream set for the current
+     * thread, or to the original stream for threads that are not cooking.
+     *
+     * @return the output and error streams to set the stream of the current thread on.
+     */
+    private static synchronized ThreadOutputStream[] redirectStreams() {
+        if (System.out != redirectedOut) {
+            threadOut = new ThreadOutputStream(System.out);
+            redirectedOut = new PrintStream(threadOut, true);
+            System.setOut(redirectedOut);
+        }
+        if (System.err != redirectedErr) {
+            threadErr = new ThreadOutputStream(System.err);
+            redirectedErr = new PrintStream(threadErr, true);
+            System.setErr(redirectedErr);
         }
+        PySystemState ss = Py.getSystemState();
+        if (ss.stdout.__tojava__(PrintStream.class) != redirectedOut)
+            ss.stdout = Py.java2py(redirectedOut);
+        if (ss.stderr.__tojava__(PrintStream.class) != redirectedErr)
+            ss.stderr = Py.java2py(redirectedErr);
+        return new ThreadOutputStream[]{threadOut, threadErr};
+    }
 
-        return result;
+    /**
+     * Change the working directory for as long as code is cooking.
+     * <p/>
+     * The working directory is shared by all threads. It is changed back once no thread is cooking.
+     */
+    private static void enterWorkingDir(String dir) {
+        synchronized (workingDirLock) {
+            if (workingDirUsers++ == 0)
+                originalWorkingDir = Py.getSystemState().getCurrentWorkingDir();
+            Py.getSystemState().setCurrentWorkingDir(dir);
+        }
+    }
+
+    private static void exitWorkingDir() {
+        synchronized (workingDirLock) {
+            if (--workingDirUsers == 0)
+                Py.getSystemState().setCurrentWorkingDir(originalWorkingDir);
+        }
     }
 
     public String getSource() {
@@ -222,4 +285,48 @@ public class PythonCode implements NodeCode {
 
     }
 
+    /**
+     * Writes to the stream set for the current thread, or to the original stream if none is set.
+     */
+    private static class ThreadOutputStream extends OutputStream {
+        private final PrintStream original;
+        private final ThreadLocal<PrintStream> streams = new ThreadLocal<PrintStream>();
+
+        private ThreadOutputStream(PrintStream original) {
+            this.original = original;
+        }
+
+        /**
+         * Set the stream for the current thread.
+         *
+         * @param stream the new stream, or null to use the original stream.
+         * @return the previous stream of the current thread.
+         */
+        private PrintStream setStream(PrintStream stream) {
+            PrintStream previous = streams.get();
+            streams.set(stream);
+            return previous;
+        }
+
+        private PrintStream getStream() {
+            PrintStream stream = streams.get();
+            return stream != null ? stream : original;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            getStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            getStream().write(b, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            getStream().flush();
+        }
+    }
+
 }
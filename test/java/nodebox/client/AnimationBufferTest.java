@@ -0,0 +1,100 @@
+package nodebox.client;
+
+import junit.framework.TestCase;
+import nodebox.graphics.Canvas;
+import nodebox.node.Node;
+import nodebox.node.NodeLibrary;
+
+public class AnimationBufferTest extends TestCase {
+
+    private NodeLibrary library;
+    private Node root;
+    private AnimationBuffer buffer;
+
+    @Override
+    protected void setUp() throws Exception {
+        library = new NodeLibrary("test");
+        root = library.getRootNode();
+        // The width of the canvas changes with every frame.
+        root.getParameter(NodeLibrary.CANVAS_WIDTH).setExpression("FRAME * 10");
+        buffer = new AnimationBuffer(library, root, 4, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        buffer.stop();
+    }
+
+    public void testPlayback() throws Exception {
+        buffer.start();
+        assertTrue(buffer.isRunning());
+        for (int frame = 2; frame <= 10; frame++) {
+            Canvas canvas = (Canvas) waitForFrame(frame);
+            assertEquals(frame * 10f, canvas.getWidth());
+            buffer.setFrame(frame);
+            assertTrue(buffer.getBufferedFrameCount() <= buffer.getCapacity());
+        }
+        assertEquals(10f, library.getFrame());
+        // The original library is not rendered.
+        assertTrue(root.isDirty());
+    }
+
+    public void testBufferIsBounded() throws Exception {
+        buffer.start();
+        waitForBufferedFrames(4);
+        Thread.sleep(50);
+        assertEquals(4, buffer.getBufferedFrameCount());
+        assertTrue(buffer.hasFrame(5));
+        assertFalse(buffer.hasFrame(6));
+    }
+
+    public void testInvalidate() throws Exception {
+        buffer.start();
+        waitForBufferedFrames(4);
+        root.getParameter(NodeLibrary.CANVAS_WIDTH).setExpression("FRAME * 20");
+        // Invalidating discards the buffered frames and renders them again using the changed library.
+        buffer.invalidate();
+        Canvas canvas = (Canvas) waitForFrame(2);
+        assertEquals(40f, canvas.getWidth());
+    }
+
+    public void testRepeatedInvalidate() throws Exception {
+        buffer.start();
+        // Invalidating doesn't copy the library, the workers only copy it when they render the next frame.
+        for (int i = 0; i < 1000; i++) {
+            buffer.invalidate();
+        }
+        root.getParameter(NodeLibrary.CANVAS_WIDTH).setExpression("FRAME * 30");
+        buffer.invalidate();
+        Canvas canvas = (Canvas) waitForFrame(2);
+        assertEquals(60f, canvas.getWidth());
+    }
+
+    public void testSkipFrames() throws Exception {
+        buffer.start();
+        waitForBufferedFrames(4);
+        assertNotNull(buffer.takeFrame(4));
+        // Frames before the taken frame are discarded.
+        assertFalse(buffer.hasFrame(2));
+        assertNull(buffer.takeFrame(3));
+    }
+
+    private Object waitForFrame(int frame) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            Object output = buffer.takeFrame(frame);
+            if (output != null) return output;
+            Thread.sleep(10);
+        }
+        fail("Frame " + frame + " was not rendered.");
+        return null;
+    }
+
+    private void waitForBufferedFrames(int count) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (buffer.getBufferedFrameCount() == count) return;
+            Thread.sleep(10);
+        }
+        fail("The buffer does not contain " + count + " frames.");
+    }
+
+}
@@ -0,0 +1,128 @@
+package nodebox.client;
+
+import junit.framework.TestCase;
+import nodebox.graphics.Canvas;
+import nodebox.node.Node;
+import nodebox.node.NodeCode;
+import nodebox.node.NodeLibrary;
+import nodebox.node.Parameter;
+import nodebox.node.ProcessingContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class BatchRendererTest extends TestCase {
+
+    private PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+
+    public void testOverride() {
+        NodeLibrary library = new NodeLibrary("test");
+        Node alpha = library.getRootNode().create(Node.ROOT_NODE, "alpha");
+        Parameter pV = alpha.addParameter("v", Parameter.Type.INT);
+        pV.setExpression("1 + 1");
+        BatchRenderer.applyOverride(library, "/alpha.v=42");
+        assertFalse(pV.hasExpression());
+        assertEquals(42, alpha.getValue("v"));
+        BatchRenderer.applyOverride(library, "alpha.v=12");
+        assertEquals(12, alpha.getValue("v"));
+        BatchRenderer.applyOverride(library, NodeLibrary.CANVAS_WIDTH + "=300");
+        assertEquals(300f, library.getRootNode().asFloat(NodeLibrary.CANVAS_WIDTH));
+        assertInvalidOverride(library, "/alpha.v");
+        assertInvalidOverride(library, "/beta.v=1");
+        assertInvalidOverride(library, "/alpha.w=1");
+        assertInvalidOverride(library, "/alpha.v=abc");
+    }
+
+    public void testRender() {
+        NodeLibrary library = new NodeLibrary("test");
+        final Set<Integer> frames = Collections.synchronizedSet(new HashSet<Integer>());
+        BatchRenderer renderer = new BatchRenderer(library, 3, quiet, quiet);
+        assertTrue(renderer.render(1, 10, new BatchRenderer.FrameHandler() {
+            public void handleFrame(int frame, Canvas canvas) {
+                assertNotNull(canvas);
+                frames.add(frame);
+            }
+        }));
+        assertEquals(10, frames.size());
+        // The original library is not changed.
+        assertEquals(1f, library.getFrame());
+    }
+
+    /**
+     * A frame that fails with an error instead of an exception is still passed to the handler.
+     */
+    public void testRenderError() {
+        NodeLibrary library = new NodeLibrary("test");
+        // The parameter makes the root node process each frame.
+        library.getRootNode().addParameter("f", Parameter.Type.INT).setExpression("FRAME");
+        library.getRootNode().setValue("_code", new NodeCode() {
+            public Object cook(Node node, ProcessingContext context) {
+                if (node.asInt("f") == 4)
+                    throw new StackOverflowError("Frame 4 fails.");
+                return new Canvas();
+            }
+
+            public String getSource() {
+                return "failOnFrame4";
+            }
+
+            public String getType() {
+                return "java";
+            }
+        });
+        final Map<Integer, Canvas> frames = Collections.synchronizedMap(new HashMap<Integer, Canvas>());
+        BatchRenderer renderer = new BatchRenderer(library, 2, quiet, quiet);
+        assertFalse(renderer.render(1, 6, new BatchRenderer.FrameHandler() {
+            public void handleFrame(int frame, Canvas canvas) {
+                frames.put(frame, canvas);
+            }
+        }));
+        assertEquals(6, frames.size());
+        assertNull(frames.get(4));
+        assertNotNull(frames.get(5));
+    }
+
+    public void testRenderImages() throws Exception {
+        NodeLibrary library = new NodeLibrary("test");
+        library.getRootNode().setValue(NodeLibrary.CANVAS_WIDTH, 20f);
+        library.getRootNode().setValue(NodeLibrary.CANVAS_HEIGHT, 10f);
+        File directory = File.createTempFile("render", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            BatchRenderer renderer = new BatchRenderer(library, 2, quiet, quiet);
+            assertTrue(renderer.renderImages(3, 5, directory, "frame", ImageFormat.PNG));
+            for (int frame = 3; frame <= 5; frame++) {
+                assertTrue(new File(directory, "frame-" + frame + ".png").exists());
+            }
+        } finally {
+            for (File f : directory.listFiles()) {
+                f.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    public void testCommandLineErrors() {
+        assertEquals(BatchRenderer.EXIT_OK, BatchRenderer.run(new String[]{"--help"}, quiet, quiet));
+        assertEquals(BatchRenderer.EXIT_USAGE, BatchRenderer.run(new String[]{}, quiet, quiet));
+        assertEquals(BatchRenderer.EXIT_USAGE, BatchRenderer.run(new String[]{"--threads", "0", "test.ndbx"}, quiet, quiet));
+        assertEquals(BatchRenderer.EXIT_USAGE, BatchRenderer.run(new String[]{"--format", "gif", "test.ndbx"}, quiet, quiet));
+        assertEquals(BatchRenderer.EXIT_USAGE, BatchRenderer.run(new String[]{"--from"}, quiet, quiet));
+    }
+
+    private void assertInvalidOverride(NodeLibrary library, String assignment) {
+        try {
+            BatchRenderer.applyOverride(library, assignment);
+            fail("Override " + assignment + " should have failed.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+}
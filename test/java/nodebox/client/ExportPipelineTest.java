@@ -0,0 +1,141 @@
+package nodebox.client;
+
+import junit.framework.TestCase;
+import nodebox.graphics.Canvas;
+import nodebox.node.NodeLibrary;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ExportPipelineTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("export", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testExportRange() {
+        NodeLibrary library = createLibrary();
+        // Use a small queue so the earlier stages need to wait for the later ones.
+        ExportPipeline pipeline = new ExportPipeline(library, 3, 2, 1, 1);
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+        assertTrue(pipeline.exportRange(1, 12, directory, "frame", ImageFormat.PNG));
+        assertEquals(12, listener.evaluatedFrames.size());
+        assertEquals(12, listener.exportedFrames.size());
+        assertEquals(0, listener.failedFrames.size());
+        for (int frame = 1; frame <= 12; frame++) {
+            assertTrue(new File(directory, "frame-" + frame + ".png").exists());
+        }
+        // The original library is not changed.
+        assertEquals(1f, library.getFrame());
+    }
+
+    public void testCancel() {
+        final ExportPipeline pipeline = new ExportPipeline(createLibrary(), 1, 1, 1, 1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void frameEvaluated(int frame, Canvas canvas) {
+                super.frameEvaluated(frame, canvas);
+                pipeline.cancel();
+            }
+        };
+        pipeline.setListener(listener);
+        assertFalse(pipeline.exportRange(1, 100, directory, "frame", ImageFormat.PNG));
+        assertTrue(pipeline.isCancelled());
+        assertTrue(listener.evaluatedFrames.size() < 100);
+    }
+
+    /**
+     * Interrupting the export waits for the pipeline threads to stop.
+     */
+    public void testInterrupt() {
+        final ExportPipeline pipeline = new ExportPipeline(createLibrary(), 1, 1, 1, 1);
+        final Thread exportThread = Thread.currentThread();
+        pipeline.setListener(new RecordingListener() {
+            @Override
+            public void frameEvaluated(int frame, Canvas canvas) {
+                super.frameEvaluated(frame, canvas);
+                exportThread.interrupt();
+            }
+        });
+        assertFalse(pipeline.exportRange(1, 100, directory, "frame", ImageFormat.PNG));
+        assertTrue(Thread.interrupted());
+        assertTrue(pipeline.isCancelled());
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName().startsWith("ExportPipeline-"));
+        }
+    }
+
+    /**
+     * The library is copied when the pipeline is created.
+     */
+    public void testCopyOnCreation() throws IOException {
+        NodeLibrary library = createLibrary();
+        ExportPipeline pipeline = new ExportPipeline(library, 1, 1, 1, 1);
+        library.getRootNode().setValue(NodeLibrary.CANVAS_WIDTH, 40f);
+        assertTrue(pipeline.exportRange(1, 1, directory, "frame", ImageFormat.PNG));
+        assertEquals(20, ImageIO.read(new File(directory, "frame-1.png")).getWidth());
+    }
+
+    /**
+     * The listener gets its own copy of each frame, since the evaluator reuses the output of unchanged nodes.
+     */
+    public void testListenerGetsCopies() {
+        final List<Canvas> canvases = Collections.synchronizedList(new ArrayList<Canvas>());
+        ExportPipeline pipeline = new ExportPipeline(createLibrary(), 1, 1, 1, 1);
+        pipeline.setListener(new RecordingListener() {
+            @Override
+            public void frameEvaluated(int frame, Canvas canvas) {
+                super.frameEvaluated(frame, canvas);
+                canvases.add(canvas);
+            }
+        });
+        assertTrue(pipeline.exportRange(1, 3, directory, "frame", ImageFormat.PNG));
+        assertEquals(3, canvases.size());
+        assertNotSame(canvases.get(0), canvases.get(1));
+        assertNotSame(canvases.get(1), canvases.get(2));
+        assertEquals(canvases.get(0), canvases.get(2));
+    }
+
+    private NodeLibrary createLibrary() {
+        NodeLibrary library = new NodeLibrary("test");
+        library.getRootNode().setValue(NodeLibrary.CANVAS_WIDTH, 20f);
+        library.getRootNode().setValue(NodeLibrary.CANVAS_HEIGHT, 10f);
+        return library;
+    }
+
+    private static class RecordingListener implements ExportPipeline.Listener {
+        private Set<Integer> evaluatedFrames = Collections.synchronizedSet(new HashSet<Integer>());
+        private Set<Integer> exportedFrames = Collections.synchronizedSet(new HashSet<Integer>());
+        private Set<Integer> failedFrames = Collections.synchronizedSet(new HashSet<Integer>());
+
+        public void frameEvaluated(int frame, Canvas canvas) {
+            evaluatedFrames.add(frame);
+        }
+
+        public void frameExported(int frame, File file, long elapsedMillis) {
+            exportedFrames.add(frame);
+        }
+
+        public void frameFailed(int frame, Exception e) {
+            failedFrames.add(frame);
+        }
+    }
+
+}
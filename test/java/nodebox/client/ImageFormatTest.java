@@ -1,8 +1,12 @@
 package nodebox.client;
 
 import junit.framework.TestCase;
+import nodebox.graphics.PNGWriter;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 
 public class ImageFormatTest extends TestCase {
 
@@ -18,4 +22,65 @@ public class ImageFormatTest extends TestCase {
         assertEquals(new File("/a/b.test/c.pdf").getAbsolutePath(), ImageFormat.PDF.ensureFileExtension(new File("/a/b.test/c")).getAbsolutePath());
     }
 
+    /**
+     * Write images that are split in several blocks at each compression level, and read them back.
+     */
+    public void testWritePNG() throws IOException {
+        BufferedImage argb = createImage(BufferedImage.TYPE_INT_ARGB, 300, 700);
+        BufferedImage rgb = createImage(BufferedImage.TYPE_INT_RGB, 150, 41);
+        int[] levels = {PNGWriter.DEFAULT_COMPRESSION, PNGWriter.FAST_COMPRESSION, 0, 9};
+        File file = File.createTempFile("image", ".png");
+        try {
+            for (int level : levels) {
+                ImageFormat.PNG.write(argb, file, level);
+                assertImageEquals(argb, ImageIO.read(file));
+                ImageFormat.PNG.write(rgb, file, level);
+                assertImageEquals(rgb, ImageIO.read(file));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Images without alpha are written as RGB.
+     */
+    public void testWriteRGB() throws IOException {
+        BufferedImage rgb = createImage(BufferedImage.TYPE_INT_RGB, 150, 41);
+        File file = File.createTempFile("image", ".png");
+        try {
+            ImageFormat.PNG.write(rgb, file);
+            BufferedImage read = ImageIO.read(file);
+            assertFalse(read.getColorModel().hasAlpha());
+            assertImageEquals(rgb, read);
+            ImageFormat.PNG.write(createImage(BufferedImage.TYPE_INT_ARGB, 150, 41), file);
+            assertTrue(ImageIO.read(file).getColorModel().hasAlpha());
+        } finally {
+            file.delete();
+        }
+    }
+
+        private static BufferedImage createImage(int type, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Mix smooth gradients with noise, so every filter type gets used.
+                int noise = (x * 7919 + y * 104729) % 37;
+                int alpha = x < width / 2 ? 255 : (y * 3) & 0xff;
+                img.setRGB(x, y, alpha << 24 | (x & 0xff) << 16 | (y & 0xff) << 8 | noise);
+            }
+        }
+        return img;
+    }
+
+    private static void assertImageEquals(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
 }
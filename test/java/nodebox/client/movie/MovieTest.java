@@ -0,0 +1,120 @@
+package nodebox.client.movie;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.List;
+
+public class MovieTest extends TestCase {
+
+    /**
+     * Test if frames are streamed as raw RGBA pixels to the encoder.
+     */
+    public void testStreaming() {
+        FakeLauncher launcher = new FakeLauncher("frame=    2 fps=0.0\n", 0);
+        Movie movie = new Movie("test.mp4", MP4VideoFormat.MP4Format, 2, 1);
+        movie.setProcessLauncher(launcher);
+        assertTrue(movie.isStreaming());
+        BufferedImage img = new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB);
+        img.setRGB(0, 0, 0xff102030);
+        img.setRGB(1, 0, 0x80405060);
+        movie.addFrame(img);
+        movie.addFrame(img);
+        assertEquals(2, movie.getFrameCount());
+        StringWriter sw = new StringWriter();
+        movie.save(sw);
+
+        List<String> command = launcher.command;
+        assertTrue(command.contains("rawvideo"));
+        assertTrue(command.contains("2x1"));
+        assertEquals("test.mp4", command.get(command.size() - 1));
+        byte[] frame = {0x10, 0x20, 0x30, (byte) 0xff, 0x40, 0x50, 0x60, (byte) 0x80};
+        byte[] written = launcher.process.input.toByteArray();
+        assertEquals(16, written.length);
+        for (int i = 0; i < written.length; i++) {
+            assertEquals(frame[i % 8], written[i]);
+        }
+        assertTrue(sw.toString().startsWith("frame="));
+    }
+
+    public void testStreamingEncoderError() {
+        FakeLauncher launcher = new FakeLauncher("Unknown encoder\n", 1);
+        Movie movie = new Movie("test.mp4", MP4VideoFormat.MP4Format, 2, 1);
+        movie.setProcessLauncher(launcher);
+        movie.addFrame(new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB));
+        try {
+            movie.save();
+            fail("The encoder failed, so saving should fail.");
+        } catch (RuntimeException ignored) {
+        }
+        assertTrue(launcher.process.destroyed);
+    }
+
+    public void testStreamingMode() {
+        Movie movie = new Movie("test.mp4", MP4VideoFormat.MP4Format, 2, 1);
+        movie.setProcessLauncher(new FakeLauncher("", 0));
+        movie.addFrame(new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB));
+        try {
+            movie.setStreaming(false);
+            fail("The mode can not be changed after adding frames.");
+        } catch (IllegalStateException ignored) {
+        }
+        movie.cleanup();
+    }
+
+    private static class FakeLauncher implements ProcessLauncher {
+        private final String output;
+        private final int exitValue;
+        private List<String> command;
+        private FakeProcess process;
+
+        private FakeLauncher(String output, int exitValue) {
+            this.output = output;
+            this.exitValue = exitValue;
+        }
+
+        public Process launch(List<String> command) throws IOException {
+            this.command = command;
+            process = new FakeProcess(output, exitValue);
+            return process;
+        }
+    }
+
+    private static class FakeProcess extends Process {
+        private final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        private final InputStream output;
+        private final int exitValue;
+        private boolean destroyed;
+
+        private FakeProcess(String output, int exitValue) {
+            this.output = new ByteArrayInputStream(output.getBytes());
+            this.exitValue = exitValue;
+        }
+
+        public OutputStream getOutputStream() {
+            return input;
+        }
+
+        public InputStream getInputStream() {
+            return output;
+        }
+
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        public int waitFor() {
+            return exitValue;
+        }
+
+        public int exitValue() {
+            return exitValue;
+        }
+
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+}
@@ -2,6 +2,12 @@ package nodebox.graphics;
 
 import junit.framework.TestCase;
 
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
 public class CanvasTest extends TestCase {
 
     public void testCloning() {
@@ -14,4 +20,108 @@ public class CanvasTest extends TestCase {
         assertEquals(backgroundColor, c.getBackground());
     }
 
+    /**
+     * Paths with the same style are drawn together, which looks the same as drawing them one by one.
+     */
+    public void testDrawCombinesPaths() {
+        Canvas c = new Canvas(200, 200);
+        for (int i = 0; i < 50; i++) {
+            Path p = new Path();
+            p.ellipse(-90 + (i % 10) * 20, -90 + (i / 10) * 20, 10 + i % 3 * 6, 10);
+            p.setFillColor(new nodebox.graphics.Color(i < 25 ? 1 : 0, 0, 0, 0.5));
+            if (i % 4 == 0) {
+                p.setStrokeColor(new nodebox.graphics.Color(0, 0, 1));
+                p.setStrokeWidth(3);
+            } else {
+                p.setStrokeColor(null);
+            }
+            c.add(p);
+        }
+        // A path outside of the canvas.
+        Path outside = new Path();
+        outside.rect(500, 500, 10, 10);
+        c.add(outside);
+        BufferedImage expected = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = expected.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(100, 100);
+        g.setColor(c.getBackground().getAwtColor());
+        g.fill(c.getBounds().getRectangle2D());
+        for (Grob grob : c.getItems()) {
+            grob.draw(g);
+        }
+        g.dispose();
+        BufferedImage actual = c.asImage();
+        for (int x = 0; x < 200; x++) {
+            for (int y = 0; y < 200; y++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Drawing in tiles gives the same image as drawing the whole canvas at once.
+     */
+    public void testDrawTiles() {
+        Canvas c = new Canvas(300, 200);
+        for (int i = 0; i < 40; i++) {
+            Path p = new Path();
+            p.ellipse(-140 + i * 7, -90 + (i % 9) * 21, 30, 18);
+            p.setFillColor(new nodebox.graphics.Color(i % 2, 0.5, 0, 0.7));
+            c.add(p);
+        }
+        // A path with live points and a geometry with instances.
+        Path live = new Path();
+        live.rect(0, 0, 50, 50);
+        live.getPoints().get(0).x = -30;
+        c.add(live);
+        Geometry shape = new Geometry();
+        Path star = new Path();
+        star.ellipse(0, 0, 20, 40);
+        shape.add(star);
+        Geometry g = new Geometry();
+        for (int i = 0; i < 10; i++) {
+            g.addInstance(shape, Transform.translated(-100 + i * 25, 60));
+        }
+        c.add(g);
+        BufferedImage expected = c.asImage();
+        BufferedImage tiled = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        c.drawTiles(tiled, 0, 200, 64);
+        for (int x = 0; x < 300; x++) {
+            for (int y = 0; y < 200; y++) {
+                assertEquals(expected.getRGB(x, y), tiled.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Saving a PNG in bands gives the same image as drawing the whole canvas at once.
+     */
+    public void testSavePNGInBands() throws IOException {
+        Canvas c = new Canvas(120, 90);
+        c.setBackground(null);
+        for (int i = 0; i < 12; i++) {
+            Path p = new Path();
+            p.ellipse(-50 + i * 9, -35 + i * 6, 25, 15);
+            p.setFillColor(new nodebox.graphics.Color(0.1 * i, 0.5, 1 - 0.05 * i, 0.6));
+            p.setStrokeColor(new nodebox.graphics.Color(0));
+            c.add(p);
+        }
+        File file = File.createTempFile("canvas", ".png");
+        try {
+            c.savePNG(file, 7);
+            BufferedImage actual = ImageIO.read(file);
+            BufferedImage expected = c.asImage();
+            assertEquals(120, actual.getWidth());
+            assertEquals(90, actual.getHeight());
+            for (int x = 0; x < 120; x++) {
+                for (int y = 0; y < 90; y++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
 }
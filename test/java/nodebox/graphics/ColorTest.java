@@ -9,4 +9,14 @@ public class ColorTest extends TestCase {
         assertTrue(c.isVisible());
         assertEquals(1.0, c.getAlpha());
     }
+
+    public void testAwtColor() {
+        Color c = new Color(1, 0, 0);
+        assertEquals(java.awt.Color.RED, c.getAwtColor());
+        c.setGreen(1);
+        assertEquals(java.awt.Color.YELLOW, c.getAwtColor());
+        c.setBrightness(0);
+        assertEquals(java.awt.Color.BLACK, c.getAwtColor());
+    }
+
 }
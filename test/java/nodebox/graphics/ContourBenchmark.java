@@ -0,0 +1,89 @@
+package nodebox.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the memory use and speed of contours with a large number of points.
+ * <p/>
+ * The packed contour storage is compared with a list of Point objects, which is how contours used to store points.
+ * This is not a unit test; run it using "java -Xmx2g nodebox.graphics.ContourBenchmark [pointCount...]".
+ * The default point counts are one million and ten million.
+ */
+public class ContourBenchmark {
+
+    public static void main(String[] args) {
+        int[] pointCounts = {1000000, 10000000};
+        if (args.length > 0) {
+            pointCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                pointCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int pointCount : pointCounts) {
+            benchmarkPointList(pointCount);
+            benchmarkContour(pointCount);
+        }
+    }
+
+    private static void benchmarkPointList(int pointCount) {
+        long memory = usedMemory();
+        long t = System.nanoTime();
+        List<Point> points = new ArrayList<Point>();
+        for (int i = 0; i < pointCount; i++) {
+            points.add(new Point(i % 1000, i / 1000));
+        }
+        long createTime = System.nanoTime() - t;
+        long size = usedMemory() - memory;
+        t = System.nanoTime();
+        Transform.translated(10, 20).map(points);
+        long transformTime = System.nanoTime() - t;
+        t = System.nanoTime();
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+        for (Point pt : points) {
+            if (pt.x < minX) minX = pt.x;
+            if (pt.x > maxX) maxX = pt.x;
+        }
+        long boundsTime = System.nanoTime() - t;
+        report("Point list", pointCount, size, createTime, transformTime, boundsTime, -1);
+        points.clear();
+    }
+
+    private static void benchmarkContour(int pointCount) {
+        long memory = usedMemory();
+        long t = System.nanoTime();
+        Contour c = new Contour();
+        for (int i = 0; i < pointCount; i++) {
+            c.addPoint(i % 1000, i / 1000);
+        }
+        long createTime = System.nanoTime() - t;
+        long size = usedMemory() - memory;
+        t = System.nanoTime();
+        c.transform(Transform.translated(10, 20));
+        long transformTime = System.nanoTime() - t;
+        t = System.nanoTime();
+        c.getBounds();
+        long boundsTime = System.nanoTime() - t;
+        t = System.nanoTime();
+        c.getLength();
+        long lengthTime = System.nanoTime() - t;
+        report("Contour", pointCount, size, createTime, transformTime, boundsTime, lengthTime);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, int pointCount, long size, long createTime, long transformTime, long boundsTime, long lengthTime) {
+        System.out.printf("%-10s %,11d points: %,7d KB, create %,6d ms, transform %,5d ms, bounds %,5d ms",
+                name, pointCount, size / 1024, createTime / 1000000, transformTime / 1000000, boundsTime / 1000000);
+        if (lengthTime >= 0)
+            System.out.printf(", length %,5d ms", lengthTime / 1000000);
+        System.out.println();
+    }
+
+}
@@ -70,6 +70,26 @@ public class ContourTest extends GraphicsTestCase {
         assertEquals(new Point(150, 0), c1.pointAt(1.5f));
     }
 
+    /**
+     * Making points sweeps through the segments once; the result should be the same as calling pointAt.
+     */
+    public void testMakePointsManySegments() {
+        Contour c = new Contour();
+        for (int i = 0; i < 500; i++) {
+            c.addPoint(i, i % 2 == 0 ? 0 : 10);
+        }
+        c.addPoint(new Point(600, 100, Point.CURVE_DATA));
+        c.addPoint(new Point(700, -100, Point.CURVE_DATA));
+        c.addPoint(new Point(800, 0, Point.CURVE_TO));
+        c.close();
+        Point[] points = c.makePoints(1234);
+        assertEquals(1234, points.length);
+        float delta = 1f / 1234;
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(c.pointAt(delta * i), points[i]);
+        }
+    }
+
     public void testLength() {
         testLength(0, 0);
         testLength(100, 200);
@@ -225,6 +245,162 @@ public class ContourTest extends GraphicsTestCase {
         assertEquals(new Rect(), r);
     }
 
+    public void testNegativeBounds() {
+        Contour c = new Contour();
+        c.addPoint(-10, -20);
+        c.addPoint(-5, -2);
+        assertEquals(new Rect(-10, -20, 5, 18), c.getBounds());
+        c.addPoint(5, 0);
+        assertEquals(new Rect(-10, -20, 15, 20), c.getBounds());
+    }
+
+    /**
+     * Points can be read without creating Point objects for the whole contour.
+     */
+    public void testPointAccess() {
+        Contour c = new Contour();
+        for (int i = 0; i < 20; i++) {
+            c.addPoint(i, i * 2);
+        }
+        c.addPoint(100, 200, Point.CURVE_DATA);
+        assertEquals(21, c.getPointCount());
+        assertEquals(5f, c.getX(5));
+        assertEquals(10f, c.getY(5));
+        assertEquals(Point.CURVE_DATA, c.getPointType(20));
+        // Changing a point returned by getPoint does not change the contour.
+        Point pt = c.getPoint(3);
+        pt.x = 99;
+        assertEquals(3f, c.getX(3));
+        try {
+            c.getPoint(21);
+            fail("The contour has only 21 points.");
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        try {
+            c.addPoint(0, 0, 42);
+            fail("42 is not a valid point type.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Points returned by getPoints are live: changing them changes the contour.
+     */
+    public void testLivePoints() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(10, 0);
+        List<Point> points = c.getPoints();
+        points.get(1).x = 20;
+        points.add(new Point(20, 30));
+        assertEquals(3, c.getPointCount());
+        assertEquals(20f, c.getX(1));
+        assertEquals(Rect.centeredRect(10, 15, 20, 30), c.getBounds());
+        c.invalidate();
+        assertEquals(50f, c.getLength());
+        // Points added through the contour show up in the list.
+        c.addPoint(0, 30);
+        assertEquals(4, points.size());
+        // Transforming the contour changes the points in the list.
+        c.transform(Transform.translated(5, 0));
+        assertEquals(25f, points.get(1).x);
+        // Copies don't share points.
+        Contour copy = c.clone();
+        assertEquals(c, copy);
+        assertEquals(c.hashCode(), copy.hashCode());
+        points.get(0).y = -10;
+        assertFalse(c.equals(copy));
+    }
+
+    /**
+     * Measuring and sampling read the live points directly.
+     */
+    public void testLivePointsSampling() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(100, 0);
+        List<Point> points = c.getPoints();
+        assertEquals(new Point(50, 0), c.pointAt(0.5f));
+        points.get(1).y = 100;
+        points.get(1).x = 0;
+        c.invalidate();
+        assertEquals(100f, c.getLength());
+        assertEquals(new Point(0, 50), c.pointAt(0.5f));
+        Point[] sampled = c.makePoints(3);
+        assertEquals(new Point(0, 100), sampled[2]);
+        assertEquals(new Contour(c), c);
+    }
+
+    public void testTransform() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(10, 20);
+        c.transform(Transform.translated(5, 5));
+        assertPointEquals(5, 5, c.getPoint(0));
+        assertPointEquals(15, 25, c.getPoint(1));
+        Path p = new Path(c);
+        Path moved = Transform.scaled(2).map(p);
+        assertPointEquals(30, 50, moved.getContours().get(0).getPoint(1));
+        // The original path is not changed.
+        assertPointEquals(15, 25, c.getPoint(1));
+    }
+
+    public void testCurveLength() {
+        // A straight curve has the length of the line.
+        assertEquals(100f, Path.adaptiveCurveLength(0, 0, 90, 0, 100, 0, 100, 0, 0.01f), 0.01f);
+        float precise = Path.curveLength(0, 0, 55, 0, 100, 45, 100, 100, 10000);
+        assertEquals(precise, Path.adaptiveCurveLength(0, 0, 55, 0, 100, 45, 100, 100, 0.01f), 0.01f);
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(55, 0, Point.CURVE_DATA);
+        c.addPoint(100, 45, Point.CURVE_DATA);
+        c.addPoint(100, 100, Point.CURVE_TO);
+        assertEquals(precise, c.getLength(), 0.02f);
+    }
+
+    /**
+     * Points on curves are spaced by length, not by curve parameter.
+     */
+    public void testCurvePointsEvenlySpaced() {
+        Contour c = new Contour();
+        c.addPoint(0, 0);
+        c.addPoint(90, 0, Point.CURVE_DATA);
+        c.addPoint(100, 0, Point.CURVE_DATA);
+        c.addPoint(100, 0, Point.CURVE_TO);
+        assertPointEquals(0, 0, c.pointAt(0));
+        assertEquals(25f, c.pointAt(0.25f).x, 0.05f);
+        assertEquals(50f, c.pointAt(0.5f).x, 0.05f);
+        assertEquals(75f, c.pointAt(0.75f).x, 0.05f);
+        assertPointEquals(100, 0, c.pointAt(1));
+    }
+
+    public void testFlattened() {
+        Path p = new Path();
+        p.ellipse(0, 0, 100, 100);
+        Contour c = p.getContours().get(0);
+        Contour flat = c.flattened(0.1f);
+        assertTrue(flat.getPointCount() > c.getPointCount() / 3);
+        for (Point pt : flat.getPoints()) {
+            assertEquals(Point.LINE_TO, pt.type);
+            // All points lie on the circle.
+            assertEquals(50f, (float) Math.hypot(pt.x, pt.y), 0.1f);
+        }
+        assertEquals(c.isClosed(), flat.isClosed());
+        Rect bounds = flat.getBounds();
+        assertEquals(-50f, bounds.getX(), 0.1f);
+        assertEquals(100f, bounds.getWidth(), 0.1f);
+        // A lower flatness creates more points.
+        assertTrue(c.flattened(0.01f).getPointCount() > flat.getPointCount());
+        // Flatten the contour in place.
+        c.flatten(0.1f);
+        assertEquals(flat, c);
+        try {
+            c.flattened(0);
+            fail("The flatness should be greater than zero.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
     private void assertRectPoints(IGeometry g, float x, float y, float width, float height) {
         assertEquals(4, g.getPointCount());
         List<Point> points = g.getPoints();
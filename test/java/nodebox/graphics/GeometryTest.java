@@ -1,5 +1,7 @@
 package nodebox.graphics;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.util.List;
 
 public class GeometryTest extends GraphicsTestCase {
@@ -12,6 +14,20 @@ public class GeometryTest extends GraphicsTestCase {
         assertEquals(Rect.centeredRect(10, 20, 30, 40), g1.getBounds());
     }
 
+    public void testCachedBounds() {
+        Geometry g = new Geometry();
+        g.add(rectPath(0, 0, 10, 10));
+        g.add(rectPath(20, 0, 10, 10));
+        Rect r = g.getBounds();
+        assertEquals(new Rect(0, 0, 30, 10), r);
+        assertSame(r, g.getBounds());
+        // Changing a path directly does not invalidate the group, but the bounds are still up to date.
+        g.getPaths().get(1).translate(0, 10);
+        assertEquals(new Rect(0, 0, 30, 20), g.getBounds());
+        g.add(rectPath(-10, 0, 10, 10));
+        assertEquals(new Rect(-10, 0, 40, 20), g.getBounds());
+    }
+
     public void testTransformedBounds() {
         Path r1 = new Path();
         r1.rect(10, 20, 30, 40);
@@ -41,6 +57,30 @@ public class GeometryTest extends GraphicsTestCase {
         assertEquals(r, g2.getBounds());
     }
 
+    /**
+     * Geometry is compared structurally.
+     */
+    public void testEquals() {
+        Path p1 = new Path();
+        p1.rect(10, 20, 30, 40);
+        Geometry g1 = new Geometry();
+        g1.add(p1);
+        Geometry g2 = g1.clone();
+        assertEquals(g1, g2);
+        assertEquals(g1.hashCode(), g2.hashCode());
+        g2.getPaths().get(0).setFillColor(new Color(1, 0, 0));
+        assertFalse(g1.equals(g2));
+        g2 = g1.clone();
+        g2.translate(5, 0);
+        assertFalse(g1.equals(g2));
+        Canvas c1 = new Canvas();
+        c1.add(p1);
+        Canvas c2 = c1.clone();
+        assertEquals(c1, c2);
+        c2.add(new Path());
+        assertFalse(c1.equals(c2));
+    }
+
     /**
      * Check if a contour is empty.
      */
@@ -183,4 +223,280 @@ public class GeometryTest extends GraphicsTestCase {
         assertEquals(200f, g.getLength());
     }
 
+    public void testIndexedPoints() {
+        Geometry g = new Geometry();
+        Path p1 = new Path();
+        p1.line(0, 0, 10, 0);
+        p1.add(new Contour());
+        p1.line(20, 0, 30, 0);
+        Path p2 = new Path();
+        p2.addPoint(40, 5);
+        g.add(new Path());
+        g.add(p1);
+        g.add(p2);
+        List<Point> points = g.getPoints();
+        assertEquals(5, points.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i), g.getPoint(i));
+            assertEquals(points.get(i).x, g.getX(i));
+            assertEquals(points.get(i).y, g.getY(i));
+        }
+        g.setPoint(4, 50, 50);
+        assertPointEquals(50, 50, p2.getPoint(0));
+        assertEquals(new Rect(0, 0, 50, 50), g.getBounds());
+        try {
+            g.getPoint(5);
+            fail("There are only five points.");
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        // Adding points updates the index.
+        g.addPoint(60, 60);
+        assertPointEquals(60, 60, g.getPoint(5));
+    }
+
+    public void testMapPoints() {
+        Geometry g = new Geometry();
+        Path p = new Path();
+        p.rect(5, 5, 10, 10);
+        g.add(p);
+        // Points handed out before are kept up to date.
+        List<Point> points = p.getPoints();
+        g.mapPoints(new PointKernel() {
+            public void apply(float[] coordinates, int pointCount) {
+                for (int i = 0; i < pointCount * 2; i++) {
+                    coordinates[i] *= 2;
+                }
+            }
+        });
+        assertEquals(new Rect(0, 0, 20, 20), g.getBounds());
+        assertPointEquals(20, 20, points.get(2));
+        final float[] sum = new float[1];
+        g.forEachPoint(new PointVisitor() {
+            public void visit(float x, float y, int type) {
+                sum[0] += x + y;
+            }
+        });
+        assertEquals(80f, sum[0]);
+    }
+
+    public void testUnionAll() {
+        Geometry g = new Geometry();
+        // Two overlapping rectangles and one that stands apart.
+        g.add(rectPath(0, 0, 20, 20));
+        g.add(rectPath(10, 10, 20, 20));
+        g.add(rectPath(100, 100, 10, 10));
+        Path expected = g.getPaths().get(0).united(g.getPaths().get(1)).united(g.getPaths().get(2));
+        assertBooleanResult(expected, g.unionAll());
+        assertBooleanResult(expected, g.unionAll(true));
+        assertEquals(2, g.unionAll().getContours().size());
+        assertTrue(new Geometry().unionAll().isEmpty());
+    }
+
+    public void testUnionAllMany() {
+        Geometry g = new Geometry();
+        for (int i = 0; i < 100; i++) {
+            g.add(rectPath(i * 15, (i % 7) * 5, 20, 20));
+        }
+        Path expected = g.getPaths().get(0);
+        for (Path p : g.getPaths()) {
+            expected = expected.united(p);
+        }
+        assertBooleanResult(expected, g.unionAll());
+        assertBooleanResult(expected, g.unionAll(true));
+    }
+
+    public void testIntersectAll() {
+        Geometry g = new Geometry();
+        g.add(rectPath(0, 0, 20, 20));
+        g.add(rectPath(10, 10, 20, 20));
+        g.add(rectPath(5, 5, 10, 10));
+        assertEquals(new Rect(10, 10, 5, 5), g.intersectAll().getBounds());
+        assertEquals(new Rect(10, 10, 5, 5), g.intersectAll(true).getBounds());
+        g.add(rectPath(100, 100, 10, 10));
+        assertTrue(g.intersectAll().isEmpty());
+    }
+
+    public void testSubtractAll() {
+        Geometry g = new Geometry();
+        g.add(rectPath(0, 0, 20, 20));
+        g.add(rectPath(10, 0, 20, 20));
+        g.add(rectPath(100, 100, 10, 10));
+        Path result = g.subtractAll();
+        assertEquals(new Rect(0, 0, 10, 20), result.getBounds());
+        assertEquals(result.getBounds(), g.subtractAll(true).getBounds());
+    }
+
+    public void testInstances() {
+        Geometry shape = new Geometry();
+        Path p = new Path();
+        p.ellipse(0, 0, 20, 10);
+        shape.add(p);
+        Geometry instanced = new Geometry();
+        Geometry expanded = new Geometry();
+        for (int i = 0; i < 5; i++) {
+            Transform t = new Transform();
+            t.translate(i * 30, i * 5);
+            t.rotate(i * 20);
+            instanced.addInstance(shape, t);
+            expanded.extend(t.map(shape));
+        }
+        assertEquals(5, instanced.getInstanceCount());
+        assertEquals(5, instanced.size());
+        assertFalse(instanced.isEmpty());
+        assertRectEquals(expanded.getBounds(), instanced.getBounds());
+        instanced.translate(10, 20);
+        expanded.translate(10, 20);
+        instanced.setFillColor(new Color(1, 0, 0));
+        expanded.setFillColor(new Color(1, 0, 0));
+        assertRectEquals(expanded.getBounds(), instanced.getBounds());
+        assertEquals(5, instanced.getInstanceCount());
+        assertImageEquals(draw(expanded), draw(instanced));
+        // Asking for the points copies the instances.
+        List<Point> points = instanced.getPoints();
+        assertEquals(0, instanced.getInstanceCount());
+        assertEquals(expanded.getPointCount(), points.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertPointEquals(expanded.getX(i), expanded.getY(i), points.get(i));
+        }
+        assertEquals(5, instanced.getPaths().size());
+        assertEquals(new Color(1, 0, 0), instanced.getPaths().get(4).getFillColor());
+        // The shared shape is not changed.
+        assertEquals(1, shape.size());
+        assertEquals(p.getBounds(), shape.getBounds());
+    }
+
+    public void testCopyInstances() {
+        Geometry shape = new Geometry();
+        shape.add(rectPath(0, 0, 10, 10));
+        Geometry g = new Geometry();
+        g.addInstance(shape, Transform.translated(100, 0));
+        Geometry copy = g.clone();
+        copy.translate(0, 50);
+        assertEquals(new Rect(100, 0, 10, 10), g.getBounds());
+        assertEquals(new Rect(100, 50, 10, 10), copy.getBounds());
+        Geometry combined = new Geometry();
+        combined.add(rectPath(0, 0, 10, 10));
+        combined.extend(g);
+        assertEquals(1, combined.getInstanceCount());
+        assertEquals(new Rect(0, 0, 110, 10), combined.getBounds());
+        assertEquals(2, combined.getPaths().size());
+        assertEquals(new Rect(100, 0, 10, 10), combined.getPaths().get(1).getBounds());
+    }
+
+    /**
+     * Copying the instances of a group does not change the shared shapes, even when they have instances themselves.
+     */
+    public void testExpandNestedInstances() {
+        Geometry shape = new Geometry();
+        shape.add(rectPath(0, 0, 10, 10));
+        Geometry row = new Geometry();
+        row.add(rectPath(0, 20, 10, 10));
+        row.addInstance(shape, Transform.translated(20, 0));
+        Geometry g = new Geometry();
+        g.addInstance(row, Transform.translated(100, 0));
+        g.setFillColor(new Color(1, 0, 0));
+        List<Path> paths = g.getPaths();
+        assertEquals(2, paths.size());
+        assertEquals(new Rect(100, 20, 10, 10), paths.get(0).getBounds());
+        assertEquals(new Rect(120, 0, 10, 10), paths.get(1).getBounds());
+        assertEquals(new Color(1, 0, 0), paths.get(1).getFillColor());
+        assertEquals(1, row.getInstanceCount());
+        assertEquals(1, row._paths().size());
+        assertEquals(new Rect(0, 0, 30, 30), row.getBounds());
+    }
+
+    public void testInstancesEqual() {
+        Geometry shape = new Geometry();
+        shape.add(rectPath(0, 0, 10, 10));
+        Geometry sameShape = shape.clone();
+        Geometry g1 = new Geometry();
+        Geometry g2 = new Geometry();
+        for (int i = 0; i < 10; i++) {
+            g1.addInstance(shape, Transform.translated(i * 20, 0));
+            g2.addInstance(sameShape, Transform.translated(i * 20, 0));
+        }
+        assertEquals(g1, g2);
+        assertEquals(g1.hashCode(), g2.hashCode());
+        g2.setFillColor(new Color(1, 0, 0));
+        assertFalse(g1.equals(g2));
+        g1.setFillColor(new Color(1, 0, 0));
+        assertEquals(g1, g2);
+        g1.translate(1, 0);
+        assertFalse(g1.equals(g2));
+        // Comparing does not copy the instances.
+        assertEquals(10, g1.getInstanceCount());
+        assertEquals(10, g2.getInstanceCount());
+    }
+
+    /**
+     * Operations on paths give the same results whether they run on one thread or in parallel.
+     */
+    public void testParallelOperations() {
+        Geometry g = new Geometry();
+        for (int i = 0; i < 200; i++) {
+            Path p = new Path();
+            p.ellipse(i * 10, i % 7 * 10, 8 + i % 5, 8);
+            g.add(p);
+        }
+        int threshold = PathTasks.parallelThreshold;
+        try {
+            PathTasks.parallelThreshold = Integer.MAX_VALUE;
+            Geometry sequential = g.clone();
+            sequential.translate(5, 10);
+            Geometry sequentialResampled = sequential.resampleByLength(3);
+            PathTasks.parallelThreshold = 0;
+            Geometry parallel = g.clone();
+            parallel.translate(5, 10);
+            assertEquals(sequential.getPoints(), parallel.getPoints());
+            assertEquals(sequential.getBounds(), parallel.getBounds());
+            assertEquals(sequential.getLength(), parallel.getLength(), 0.001f);
+            assertEquals(sequentialResampled, parallel.resampleByLength(3));
+            assertEquals(sequential.resampleByAmount(10, true), parallel.resampleByAmount(10, true));
+        } finally {
+            PathTasks.parallelThreshold = threshold;
+        }
+    }
+
+    private Path rectPath(float x, float y, float width, float height) {
+        Path p = new Path();
+        p.rect(x + width / 2, y + height / 2, width, height);
+        return p;
+    }
+
+    /**
+     * Check that the result covers the same area as the expected path, by testing points on a grid.
+     */
+    private void assertBooleanResult(Path expected, Path actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        Rect bounds = expected.getBounds();
+        for (float x = bounds.getX() + 0.5f; x < bounds.getX() + bounds.getWidth(); x += 1) {
+            for (float y = bounds.getY() + 0.5f; y < bounds.getY() + bounds.getHeight(); y += 1) {
+                assertEquals(expected.contains(x, y), actual.contains(x, y));
+            }
+        }
+    }
+
+    private void assertRectEquals(Rect expected, Rect actual) {
+        assertEquals(expected.getX(), actual.getX(), 0.001f);
+        assertEquals(expected.getY(), actual.getY(), 0.001f);
+        assertEquals(expected.getWidth(), actual.getWidth(), 0.001f);
+        assertEquals(expected.getHeight(), actual.getHeight(), 0.001f);
+    }
+
+    private BufferedImage draw(Geometry g) {
+        BufferedImage img = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = img.createGraphics();
+        g.draw(g2);
+        g2.dispose();
+        return img;
+    }
+
+    private void assertImageEquals(BufferedImage expected, BufferedImage actual) {
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,179 @@
+package nodebox.graphics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GraphicsCodecTest extends GraphicsTestCase {
+
+    public void testPrimitives() throws IOException {
+        assertRoundTrip(null);
+        assertRoundTrip(42);
+        assertRoundTrip(3.5f);
+        assertRoundTrip(1e100);
+        assertRoundTrip(true);
+        assertRoundTrip("Hello, w\u00f6rld");
+        List<Object> list = new ArrayList<Object>();
+        list.add(1);
+        list.add("two");
+        list.add(new Point(3, 4));
+        assertRoundTrip(list);
+    }
+
+    public void testPoint() throws IOException {
+        assertRoundTrip(new Point(1.5f, -2.5f));
+        assertRoundTrip(new Point(10, 20, Point.CURVE_DATA));
+        assertRoundTrip(new Color(0.1, 0.2, 0.3, 0.4));
+    }
+
+    public void testPath() throws IOException {
+        Path p = new Path();
+        p.rect(10, 20, 30, 40);
+        p.moveto(0, 0);
+        p.curveto(10, 0, 20, 10, 20, 20);
+        p.setFillColor(new Color(1, 0, 0));
+        p.setStrokeColor(null);
+        p.setStrokeWidth(3);
+        Path decoded = (Path) assertRoundTrip(p);
+        assertNull(decoded.getStrokeColor());
+        assertEquals(2, decoded.getContours().size());
+        assertTrue(decoded.getContours().get(0).isClosed());
+        assertFalse(decoded.getContours().get(1).isClosed());
+    }
+
+    public void testGeometry() throws IOException {
+        Geometry g = new Geometry();
+        Path p1 = new Path();
+        p1.ellipse(0, 0, 100, 100);
+        Path p2 = new Path();
+        p2.rect(50, 50, 20, 20);
+        p2.setStrokeColor(new Color(0, 0, 1));
+        g.add(p1);
+        g.add(p2);
+        assertRoundTrip(g);
+    }
+
+    public void testGeometryInstances() throws IOException {
+        Geometry shape = new Geometry();
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        shape.add(p);
+        Geometry g = new Geometry();
+        g.add(p.clone());
+        for (int i = 0; i < 100; i++) {
+            g.addInstance(shape, Transform.translated(i * 20, 0));
+        }
+        g.setFillColor(new Color(1, 0, 0));
+        Geometry nested = new Geometry();
+        nested.addInstance(g, Transform.translated(0, 50));
+        nested.addInstance(shape, Transform.translated(0, 100));
+        Geometry decoded = (Geometry) assertRoundTrip(nested);
+        // Encoding does not copy the instances.
+        assertEquals(2, nested.getInstanceCount());
+        assertEquals(100, g.getInstanceCount());
+        assertEquals(2, decoded.getInstanceCount());
+        assertEquals(nested.getBounds(), decoded.getBounds());
+        assertEquals(nested.getPaths(), decoded.getPaths());
+    }
+
+    public void testCanvas() throws IOException {
+        Canvas c = new Canvas(300, 200);
+        c.setBackground(new Color(0.5));
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        c.add(p);
+        Canvas decoded = (Canvas) assertRoundTrip(c);
+        assertEquals(300f, decoded.getWidth());
+        assertEquals(1, decoded.getItems().size());
+    }
+
+    public void testText() throws IOException {
+        Text t = new Text("Hello", 10, 20, 200, 0);
+        t.setFontName("Courier");
+        t.setFontSize(36);
+        t.setAlign(Text.Align.RIGHT);
+        t.setFillColor(new Color(0, 1, 0));
+        t.rotate(45);
+        Text decoded = (Text) assertRoundTrip(t);
+        assertEquals(t.getTransform(), decoded.getTransform());
+        Canvas c = new Canvas();
+        c.add(t);
+        assertRoundTrip(c);
+    }
+
+    public void testCompression() throws IOException {
+        Path p = new Path();
+        for (int i = 0; i < 1000; i++) {
+            p.rect(i, 0, 10, 10);
+        }
+        byte[] plain = GraphicsCodec.encode(p);
+        byte[] compressed = GraphicsCodec.encode(p, true);
+        assertTrue(compressed.length < plain.length);
+        assertEquals(p, GraphicsCodec.decode(compressed));
+    }
+
+    /**
+     * Values can be read from the middle of a buffer, and the buffer is positioned after the value.
+     */
+    public void testDecodeBuffer() throws IOException {
+        Path p = new Path();
+        p.ellipse(0, 0, 50, 50);
+        byte[] first = GraphicsCodec.encode(p);
+        byte[] second = GraphicsCodec.encode("end", true);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(first.length + second.length + 3);
+        buffer.put(new byte[]{1, 2, 3});
+        buffer.put(first);
+        buffer.put(second);
+        buffer.flip();
+        buffer.position(3);
+        assertEquals(p, GraphicsCodec.decode(buffer));
+        assertEquals(3 + first.length, buffer.position());
+        assertEquals("end", GraphicsCodec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testInvalidData() {
+        assertInvalid(new byte[]{1, 2, 3, 4, 1, 0, 0});
+        byte[] bytes = GraphicsCodec.encode(new Point(1, 2));
+        // Unsupported version.
+        bytes[4] = 99;
+        assertInvalid(bytes);
+        // Truncated data.
+        bytes = GraphicsCodec.encode(new Point(1, 2));
+        byte[] truncated = new byte[bytes.length - 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertInvalid(truncated);
+        // Unknown tag.
+        bytes[6] = 99;
+        assertInvalid(bytes);
+    }
+
+    public void testUnsupported() {
+        assertFalse(GraphicsCodec.canEncode(new Object()));
+        List<Object> list = new ArrayList<Object>();
+        list.add(new Object());
+        assertFalse(GraphicsCodec.canEncode(list));
+        try {
+            GraphicsCodec.encode(new Object());
+            fail("Objects can not be encoded.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private void assertInvalid(byte[] bytes) {
+        try {
+            GraphicsCodec.decode(bytes);
+            fail("The data should be invalid.");
+        } catch (IOException ignored) {
+        }
+    }
+
+    private Object assertRoundTrip(Object value) throws IOException {
+        assertTrue(GraphicsCodec.canEncode(value));
+        Object decoded = GraphicsCodec.decode(GraphicsCodec.encode(value));
+        assertEquals(value, decoded);
+        return decoded;
+    }
+
+}
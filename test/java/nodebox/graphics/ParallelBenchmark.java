@@ -0,0 +1,91 @@
+package nodebox.graphics;
+
+/**
+ * Measures the speed of geometry operations that run on each path, on one thread and on all processors.
+ * <p/>
+ * The results show the number of points where running in parallel starts to pay off, which is used as
+ * {@link PathTasks#parallelThreshold}.
+ * This is not a unit test; run it using "java nodebox.graphics.ParallelBenchmark [pathCount...]".
+ * The default path counts go from ten to ten thousand paths, each with a circle and a rectangle.
+ */
+public class ParallelBenchmark {
+
+    private static final int RUNS = 20;
+
+    private interface Operation {
+        void run(Geometry g);
+    }
+
+    public static void main(String[] args) {
+        int[] pathCounts = {10, 30, 100, 300, 1000, 3000, 10000};
+        if (args.length > 0) {
+            pathCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                pathCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int pathCount : pathCounts) {
+            Geometry g = createGeometry(pathCount);
+            System.out.printf("%,6d paths, %,8d points:%n", pathCount, g.getPointCount());
+            benchmark("transform", g, new Operation() {
+                public void run(Geometry g) {
+                    g.translate(1, 0);
+                }
+            });
+            benchmark("length", g, new Operation() {
+                public void run(Geometry g) {
+                    g.invalidate();
+                    g.getLength();
+                }
+            });
+            benchmark("bounds", g, new Operation() {
+                public void run(Geometry g) {
+                    g.invalidate();
+                    g.getBounds();
+                }
+            });
+            benchmark("resample", g, new Operation() {
+                public void run(Geometry g) {
+                    g.resampleByLength(5);
+                }
+            });
+        }
+    }
+
+    private static Geometry createGeometry(int pathCount) {
+        Geometry g = new Geometry();
+        for (int i = 0; i < pathCount; i++) {
+            Path p = new Path();
+            p.ellipse(i % 100 * 50, i / 100 * 50, 40, 40);
+            p.rect(i % 100 * 50, i / 100 * 50, 30, 30);
+            g.add(p);
+        }
+        return g;
+    }
+
+    private static void benchmark(String name, Geometry g, Operation operation) {
+        int threshold = PathTasks.parallelThreshold;
+        try {
+            PathTasks.parallelThreshold = Integer.MAX_VALUE;
+            long sequential = measure(g, operation);
+            PathTasks.parallelThreshold = 0;
+            long parallel = measure(g, operation);
+            System.out.printf("    %-10s sequential %,9d us, parallel %,9d us%n", name, sequential / 1000, parallel / 1000);
+        } finally {
+            PathTasks.parallelThreshold = threshold;
+        }
+    }
+
+    private static long measure(Geometry g, Operation operation) {
+        // Run the operation a few times first, so the results are not skewed by compilation.
+        for (int i = 0; i < 5; i++) {
+            operation.run(g);
+        }
+        long t = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            operation.run(g);
+        }
+        return (System.nanoTime() - t) / RUNS;
+    }
+
+}
@@ -132,6 +132,31 @@ public class PathTest extends GraphicsTestCase {
         assertPointEquals(100, 0, p.pointAt(1.0f));
     }
 
+    /**
+     * Making points sweeps through the contours once; the result should be the same as calling pointAt.
+     */
+    public void testMakePointsMultipleContours() {
+        Path p = new Path();
+        for (int i = 0; i < 10; i++) {
+            p.rect(i * 20, 0, 10 + i, 10);
+        }
+        p.moveto(0, 50);
+        p.curveto(20, 100, 80, 0, 100, 50);
+        Point[] points = p.makePoints(97);
+        float delta = 1f / (97 - 1);
+        for (int i = 0; i < points.length; i++) {
+            assertPointEquals(p.pointAt(delta * i).x, p.pointAt(delta * i).y, points[i]);
+        }
+        Geometry g = new Geometry();
+        g.add(p);
+        g.add(p.clone());
+        points = g.makePoints(50);
+        delta = 1f / (50 - 1);
+        for (int i = 0; i < points.length; i++) {
+            assertPointEquals(g.pointAt(delta * i).x, g.pointAt(delta * i).y, points[i]);
+        }
+    }
+
     public void testContour() {
         final float SIDE = 50;
         Point[] points;
@@ -238,6 +263,29 @@ public class PathTest extends GraphicsTestCase {
         assertEquals(Rect.centeredRect(-80, -200, 100, 100), p2.getBounds());
     }
 
+    public void testCurveBounds() {
+        Path p = new Path();
+        p.ellipse(0, 0, 100, 50);
+        Rect r = p.getBounds();
+        assertEquals(-50f, r.getX(), 0.001f);
+        assertEquals(-25f, r.getY(), 0.001f);
+        assertEquals(100f, r.getWidth(), 0.001f);
+        assertEquals(50f, r.getHeight(), 0.001f);
+    }
+
+    public void testCachedBounds() {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        Rect r = p.getBounds();
+        assertSame(r, p.getBounds());
+        p.translate(5, 0);
+        assertEquals(Rect.centeredRect(5, 0, 10, 10), p.getBounds());
+        // Live points can change without invalidating the path, so the bounds follow them.
+        Point pt = p.getPoints().get(0);
+        pt.x = -100;
+        assertEquals(-100f, p.getBounds().getX());
+    }
+
     /**
      * Check the bounds for an empty path.
      */
@@ -259,4 +307,61 @@ public class PathTest extends GraphicsTestCase {
         assertEquals(r, p3.getBounds());
     }
 
+    public void testFlatten() {
+        Path p = new Path();
+        p.ellipse(0, 0, 100, 100);
+        p.rect(200, 0, 10, 10);
+        p.setFillColor(new Color(1, 0, 0));
+        Path flat = p.flattened();
+        assertEquals(2, flat.getContours().size());
+        assertEquals(p.getFillColor(), flat.getFillColor());
+        for (Point pt : flat.getPoints()) {
+            assertEquals(Point.LINE_TO, pt.type);
+        }
+        assertEquals(p.getLength(), flat.getLength(), 0.5f);
+        Geometry g = new Geometry();
+        g.add(p);
+        Geometry flatGeometry = g.flattened();
+        assertEquals(flat, flatGeometry.getPaths().get(0));
+        p.flatten();
+        assertEquals(flat, p);
+        assertEquals(flat.getLength(), p.getLength());
+    }
+
+    /**
+     * Resampling the whole path creates a single contour, which is closed if the path is closed.
+     */
+    public void testResampleClosed() {
+        Path p = new Path();
+        p.rect(50, 50, 100, 100);
+        Path resampled = p.resampleByAmount(8, false);
+        assertEquals(1, resampled.getContours().size());
+        Contour c = resampled.getContours().get(0);
+        assertTrue(c.isClosed());
+        assertEquals(8, c.getPointCount());
+        assertPointEquals(0, 0, c.getPoint(0));
+        assertPointEquals(50, 0, c.getPoint(1));
+        assertPointEquals(0, 50, c.getPoint(7));
+        assertEquals(p.getLength(), resampled.getLength(), 0.001f);
+        for (Point pt : c.getPoints()) {
+            assertEquals(Point.LINE_TO, pt.type);
+        }
+        // Empty contours are skipped.
+        Path open = new Path();
+        open.line(0, 0, 100, 0);
+        open.add(new Contour());
+        open.line(0, 100, 100, 100);
+        Point[] points = open.makePoints(5, false);
+        assertPointEquals(0, 0, points[0]);
+        assertPointEquals(100, 0, points[2]);
+        assertPointEquals(100, 100, points[4]);
+        assertFalse(open.resampleByAmount(5, false).isClosed());
+        Geometry g = new Geometry();
+        g.add(p);
+        g.add(open);
+        Geometry resampledGeometry = g.resampleByAmount(10, false);
+        assertEquals(1, resampledGeometry.getPaths().size());
+        assertEquals(10, resampledGeometry.getPointCount());
+    }
+
 }
@@ -0,0 +1,91 @@
+package nodebox.graphics;
+
+public class PreparedShapeTest extends GraphicsTestCase {
+
+    public void testRect() {
+        Path p = new Path();
+        p.rect(50, 50, 100, 100);
+        PreparedShape shape = p.prepare();
+        assertTrue(shape.contains(50, 50));
+        assertTrue(shape.contains(new Point(1, 99)));
+        assertFalse(shape.contains(-1, 50));
+        assertFalse(shape.contains(50, 101));
+        assertEquals(new Rect(0, 0, 100, 100), shape.getBounds());
+        assertSameAsPath(p);
+    }
+
+    public void testCurves() {
+        Path p = new Path();
+        p.ellipse(0, 0, 100, 60);
+        assertSameAsPath(p);
+    }
+
+    /**
+     * A path with a hole and a self-intersecting contour, which follow the non-zero winding rule.
+     */
+    public void testWinding() {
+        Path outer = new Path();
+        outer.rect(50, 50, 100, 100);
+        Path inner = new Path();
+        inner.rect(50, 50, 40, 40);
+        Path hole = outer.subtracted(inner);
+        assertFalse(hole.prepare().contains(50, 50));
+        assertSameAsPath(hole);
+        Path star = new Path();
+        star.moveto(50, 0);
+        star.lineto(80, 100);
+        star.lineto(0, 35);
+        star.lineto(100, 35);
+        star.lineto(20, 100);
+        star.close();
+        assertTrue(star.prepare().contains(50, 50));
+        assertSameAsPath(star);
+    }
+
+    public void testOpenContour() {
+        Path p = new Path();
+        p.moveto(0, 0);
+        p.lineto(100, 0);
+        p.lineto(100, 100);
+        assertTrue(p.prepare().contains(90, 10));
+        assertSameAsPath(p);
+    }
+
+    /**
+     * Each path in a geometry has its own winding, so overlapping paths do not cancel each other out.
+     */
+    public void testGeometry() {
+        Geometry g = new Geometry();
+        Path p1 = new Path();
+        p1.rect(50, 50, 100, 100);
+        Path p2 = new Path();
+        p2.moveto(40, 40);
+        p2.lineto(40, 200);
+        p2.lineto(200, 200);
+        p2.lineto(200, 40);
+        p2.close();
+        g.add(p1);
+        g.add(p2);
+        PreparedShape shape = g.prepare();
+        assertTrue(shape.contains(45, 45));
+        assertTrue(shape.contains(10, 10));
+        assertTrue(shape.contains(150, 150));
+        assertFalse(shape.contains(150, 20));
+        assertFalse(new Geometry().prepare().contains(0, 0));
+    }
+
+    private void assertSameAsPath(Path p) {
+        PreparedShape shape = p.prepare();
+        Rect bounds = p.getBounds();
+        for (float x = bounds.getX() - 5.5f; x < bounds.getX() + bounds.getWidth() + 5; x += 1) {
+            for (float y = bounds.getY() - 5.5f; y < bounds.getY() + bounds.getHeight() + 5; y += 1) {
+                // Points close to curves may differ.
+                if (p.contains(x, y) != shape.contains(x, y)) {
+                    Path flat = p.flattened(Contour.DEFAULT_FLATNESS);
+                    assertEquals("Point " + x + "," + y, flat.contains(x, y), shape.contains(x, y));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package nodebox.graphics;
+
+/**
+ * Measures the speed of resampling a geometry to a large number of points, as done by the resample node.
+ * <p/>
+ * The streaming resampler is compared with looking up each point using pointAt, which is how resampling used to work.
+ * This is not a unit test; run it using "java nodebox.graphics.ResampleBenchmark [pointCount...]".
+ * The default point count is a hundred thousand.
+ */
+public class ResampleBenchmark {
+
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int[] pointCounts = {100000};
+        if (args.length > 0) {
+            pointCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                pointCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Geometry g = createGeometry();
+        for (int pointCount : pointCounts) {
+            // Run both methods a few times first, so the results are not skewed by compilation.
+            for (int i = 0; i < 3; i++) {
+                resampleByPointAt(g, pointCount);
+                g.resampleByAmount(pointCount, false);
+            }
+            long t = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                resampleByPointAt(g, pointCount);
+            }
+            report("pointAt", pointCount, System.nanoTime() - t);
+            t = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                g.resampleByAmount(pointCount, false);
+            }
+            report("Streaming", pointCount, System.nanoTime() - t);
+        }
+    }
+
+    /**
+     * Create a geometry with paths of lines and curves, similar to the output of text or a grid of shapes.
+     */
+    private static Geometry createGeometry() {
+        Geometry g = new Geometry();
+        for (int y = 0; y < 20; y++) {
+            Path p = new Path();
+            for (int x = 0; x < 20; x++) {
+                p.ellipse(x * 50, y * 50, 40, 40);
+                p.rect(x * 50, y * 50, 30, 30);
+            }
+            g.add(p);
+        }
+        return g;
+    }
+
+    private static Geometry resampleByPointAt(Geometry g, int amount) {
+        Geometry resampled = new Geometry();
+        float delta = 1f / amount;
+        for (int i = 0; i < amount; i++) {
+            resampled.addPoint(g.pointAt(delta * i));
+        }
+        return resampled;
+    }
+
+    private static void report(String name, int pointCount, long time) {
+        System.out.printf("%-10s %,9d points: %,8.2f ms%n", name, pointCount, time / 1000000.0 / RUNS);
+    }
+
+}
@@ -0,0 +1,91 @@
+package nodebox.graphics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SpatialIndexTest extends GraphicsTestCase {
+
+    public void testPaths() {
+        Geometry g = new Geometry();
+        for (int i = 0; i < 100; i++) {
+            Path p = new Path();
+            p.rect(i * 20 + 5, 5, 10, 10);
+            g.add(p);
+        }
+        SpatialIndex index = g.getSpatialIndex();
+        List<Path> found = index.findPaths(new Rect(41, 0, 40, 10));
+        assertEquals(3, found.size());
+        assertSame(g.getPaths().get(2), found.get(0));
+        assertSame(g.getPaths().get(4), found.get(2));
+        assertTrue(index.findPaths(new Rect(0, 50, 10, 10)).isEmpty());
+        assertSame(g.getPaths().get(50), index.nearestPath(1005, 100));
+    }
+
+    public void testPoints() {
+        Random random = new Random(42);
+        Geometry g = new Geometry();
+        for (int i = 0; i < 10; i++) {
+            Path p = new Path();
+            for (int j = 0; j < 100; j++) {
+                p.addPoint(random.nextFloat() * 1000, random.nextFloat() * 1000);
+            }
+            g.add(p);
+        }
+        List<Point> points = g.getPoints();
+        SpatialIndex index = g.getSpatialIndex();
+        assertEquals(1000, index.getPointCount());
+        assertEquals(points.get(123), index.getPoint(123));
+        for (int q = 0; q < 50; q++) {
+            float x = random.nextFloat() * 1000;
+            float y = random.nextFloat() * 1000;
+            float radius = random.nextFloat() * 100;
+            // Compare the results with a linear search.
+            int nearest = 0;
+            double nearestDistance = Double.MAX_VALUE;
+            int withinCount = 0;
+            for (int i = 0; i < points.size(); i++) {
+                double d = distance(points.get(i), x, y);
+                if (d < nearestDistance) {
+                    nearestDistance = d;
+                    nearest = i;
+                }
+                if (d <= radius) withinCount++;
+            }
+            assertEquals(nearest, index.nearestPoint(x, y));
+            int[] within = index.findPoints(x, y, radius);
+            assertEquals(withinCount, within.length);
+            for (int i : within) {
+                assertTrue(distance(points.get(i), x, y) <= radius);
+            }
+            int[] nearestFive = index.nearestPoints(x, y, 5);
+            assertEquals(nearest, nearestFive[0]);
+            for (int i = 1; i < nearestFive.length; i++) {
+                assertTrue(distance(points.get(nearestFive[i - 1]), x, y) <= distance(points.get(nearestFive[i]), x, y));
+            }
+        }
+        int[] inRect = index.findPoints(new Rect(0, 0, 500, 500));
+        for (int i = 0; i < points.size(); i++) {
+            Point pt = points.get(i);
+            boolean inside = pt.x <= 500 && pt.y <= 500;
+            assertEquals(inside, Arrays.binarySearch(inRect, i) >= 0);
+        }
+    }
+
+    public void testInvalidate() {
+        Geometry g = new Geometry();
+        assertEquals(-1, g.getSpatialIndex().nearestPoint(0, 0));
+        assertNull(g.getSpatialIndex().nearestPath(0, 0));
+        g.addPoint(10, 10);
+        assertEquals(0, g.getSpatialIndex().nearestPoint(0, 0));
+        SpatialIndex index = g.getSpatialIndex();
+        assertSame(index, g.getSpatialIndex());
+        g.translate(5, 5);
+        assertEquals(new Point(15, 15), g.getSpatialIndex().getPoint(0));
+    }
+
+    private static double distance(Point pt, float x, float y) {
+        return Math.hypot(pt.x - x, pt.y - y);
+    }
+
+}
@@ -171,6 +171,28 @@ public class NDBXHandlerTest extends TestCase {
         assertEquals(Polygon.class, gamma.getDataClass());
     }
 
+    /**
+     * Test if the lazy flag on ports is stored/loaded correctly.
+     */
+    public void testLazyPorts() {
+        resetManager();
+        NodeLibrary lazyLib = new NodeLibrary("lazyLib");
+        Node alpha = Node.ROOT_NODE.newInstance(lazyLib, "alpha", Polygon.class);
+        alpha.addPort("eager");
+        alpha.addPort("lazy", Port.Cardinality.MULTIPLE).setLazy(true);
+        NodeLibrary library = parseXml(lazyLib.toXml());
+        alpha = library.getRootNode().getChild("alpha");
+        assertFalse(alpha.getPort("eager").isLazy());
+        assertTrue(alpha.getPort("lazy").isLazy());
+        assertEquals(Port.Cardinality.MULTIPLE, alpha.getPort("lazy").getCardinality());
+        // Instances that make an inherited port lazy only persist the flag.
+        NodeLibrary betaLibrary = new NodeLibrary("beta");
+        Node beta = alpha.newInstance(betaLibrary, "beta");
+        beta.getPort("eager").setLazy(true);
+        String xml = betaLibrary.toXml();
+        assertTrue(xml.contains("lazy=\"true\""));
+    }
+
     /**
      * Test a bug where having a node with the name same as the parent stopped loading.
      */
@@ -5,7 +5,10 @@ import nodebox.client.PythonUtils;
 import nodebox.node.polygraph.Polygon;
 import nodebox.node.polygraph.Rectangle;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -564,6 +567,103 @@ public class NodeLibraryTest extends TestCase {
         assertFalse(n.isDirty());
     }
 
+    /**
+     * Test if copying a library retains all nodes, connections and expressions.
+     */
+    public void testCopy() {
+        NodeLibrary library = new NodeLibrary("test");
+        Node root = library.getRootNode();
+        Node alpha = root.create(Node.ROOT_NODE, "alpha", Polygon.class);
+        alpha.addParameter("v", Parameter.Type.INT, 10);
+        Node beta = root.create(alpha, "beta");
+        beta.addPort("polygon");
+        beta.getPort("polygon").connect(alpha);
+        beta.getParameter("v").setExpression("alpha.v + 32");
+        beta.setRendered();
+        Node net = root.create(Node.ROOT_NODE, "net");
+        net.create(Node.ROOT_NODE, "gamma");
+        library.setFrame(5);
+
+        NodeLibrary copy = library.copy();
+        assertEquals(library.toXml(), copy.toXml());
+        assertEquals(5f, copy.getFrame());
+        Node newRoot = copy.getRootNode();
+        Node newAlpha = newRoot.getChild("alpha");
+        Node newBeta = newRoot.getChild("beta");
+        assertNotSame(alpha, newAlpha);
+        assertSame(copy, newAlpha.getLibrary());
+        // Prototypes inside of the library point to the copy.
+        assertSame(newAlpha, newBeta.getPrototype());
+        assertTrue(newBeta.isConnectedTo(newAlpha));
+        assertSame(newBeta, newRoot.getRenderedChild());
+        assertNotNull(newRoot.getChild("net").getChild("gamma"));
+        newBeta.update();
+        assertEquals(42, newBeta.getValue("v"));
+
+        // Changes to the copy don't affect the original.
+        newAlpha.setValue("v", 20);
+        newBeta.update();
+        assertEquals(52, newBeta.getValue("v"));
+        assertEquals(10, alpha.getValue("v"));
+        newBeta.getPort("polygon").disconnect();
+        assertTrue(beta.isConnectedTo(alpha));
+    }
+
+    /**
+     * Test if copies of a library can be processed on different threads at the same time.
+     */
+    public void testCopyConcurrently() throws InterruptedException {
+        NodeLibrary library = new NodeLibrary("test");
+        Node frameNode = library.getRootNode().create(Node.ROOT_NODE, "frame");
+        // The frame parameter makes the node change with every frame.
+        frameNode.addParameter("f", Parameter.Type.INT).setExpression("FRAME");
+        // Each copy counts its own calls in the namespace of its code.
+        frameNode.setValue("_code", new PythonCode("calls = []\n" +
+                "def cook(self):\n" +
+                "  calls.append(self.f)\n" +
+                "  print self.f\n" +
+                "  return '%d:%d' % (self.f, len(calls))"));
+        frameNode.setRendered();
+        frameNode.update();
+        final List<String> errors = new ArrayList<String>();
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            Thread[] threads = new Thread[2];
+            for (int i = 0; i < threads.length; i++) {
+                final NodeLibrary copy = library.copy();
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        Node node = copy.getRootNode().getChild("frame");
+                        for (int frame = 1; frame < 200; frame++) {
+                            copy.setFrame(frame);
+                            node.update();
+                            Object value = node.getOutputValue();
+                            if (!(frame + ":" + frame).equals(value)) {
+                                synchronized (errors) {
+                                    errors.add("Frame " + frame + " returned " + value);
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            // The output of the code goes to the processing context, not to the system output.
+            System.out.print("done");
+            assertEquals("done", out.toString());
+        } finally {
+            System.setOut(originalOut);
+        }
+        assertEquals(new ArrayList<String>(), errors);
+    }
+
     /**
      * Assert that the search string only appears once in the source.
      *
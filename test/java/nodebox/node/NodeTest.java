@@ -18,6 +18,9 @@
  */
 package nodebox.node;
 
+import nodebox.graphics.Geometry;
+import nodebox.graphics.Path;
+import nodebox.graphics.Transform;
 import nodebox.node.event.NodeAttributeChangedEvent;
 import nodebox.node.event.NodeDirtyEvent;
 import nodebox.node.event.NodeUpdatedEvent;
@@ -302,6 +305,135 @@ public class NodeTest extends NodeTestCase {
         assertFalse(n.isDirty());
     }
 
+    /**
+     * Nodes whose upstream nodes produce the same value are not processed again.
+     */
+    public void testEarlyCutoff() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node number1 = net.create(numberNode);
+        Node zero1 = net.create(numberNode);
+        Node multiply1 = net.create(multiplyNode);
+        Node counter1 = net.create(Node.ROOT_NODE, "counter1", Integer.class);
+        counter1.addPort("value");
+        counter1.setValue("_code", new JavaMethodWrapper(getClass(), "_countingNegate"));
+        number1.setValue("value", 5);
+        multiply1.getPort("v1").connect(number1);
+        multiply1.getPort("v2").connect(zero1);
+        counter1.getPort("value").connect(multiply1);
+        cookCounter = 0;
+        counter1.update();
+        assertEquals(1, cookCounter);
+        assertEquals(0, counter1.getOutputValue());
+        long revision = multiply1.getOutputRevision();
+        // The multiply node still returns zero, so the counter node doesn't need to be processed.
+        number1.setValue("value", 7);
+        assertTrue(counter1.isDirty());
+        counter1.update();
+        assertFalse(counter1.isDirty());
+        assertEquals(1, cookCounter);
+        assertEquals(revision, multiply1.getOutputRevision());
+        // Now the output of the multiply node changes.
+        zero1.setValue("value", 2);
+        counter1.update();
+        assertEquals(2, cookCounter);
+        assertEquals(-14, counter1.getOutputValue());
+        assertTrue(revision != multiply1.getOutputRevision());
+        // Changing the node itself always processes the node.
+        counter1.setValue("_code", new JavaMethodWrapper(getClass(), "_countingNegate"));
+        counter1.update();
+        assertEquals(3, cookCounter);
+    }
+
+    /**
+     * Nodes with the same code, parameter values and upstream nodes are only processed once.
+     */
+    public void testSharedOutput() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node number1 = net.create(numberNode);
+        number1.setValue("value", 5);
+        Node counter1 = net.create(Node.ROOT_NODE, "counter1", Integer.class);
+        counter1.addPort("value");
+        counter1.setValue("_code", new JavaMethodWrapper(getClass(), "_countingNegate"));
+        counter1.getPort("value").connect(number1);
+        // Copy the subnetwork.
+        Collection<Node> copies = net.copyChildren(net.getChildren(), net);
+        assertEquals(2, copies.size());
+        Node multiAdd1 = net.create(multiAddNode);
+        multiAdd1.getPort("values").connect(counter1);
+        for (Node copy : copies) {
+            if (copy.getPort("value") != null) {
+                multiAdd1.getPort("values").connect(copy);
+            }
+        }
+        cookCounter = 0;
+        multiAdd1.update();
+        assertEquals(-10, multiAdd1.getOutputValue());
+        assertEquals(1, cookCounter);
+        // Change one of the copies. Now both counters need to be processed.
+        for (Node copy : copies) {
+            if (copy.getPort("valuePort") != null) {
+                copy.setValue("value", 6);
+            }
+        }
+        multiAdd1.update();
+        assertEquals(-11, multiAdd1.getOutputValue());
+        assertEquals(2, cookCounter);
+    }
+
+    /**
+     * The output of a node that changed itself is not compared with the previous output.
+     */
+    public void testChangedOutputNotCompared() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node value1 = net.create(Node.ROOT_NODE, "value1", ComparedValue.class);
+        value1.addParameter("value", Parameter.Type.INT, 0);
+        value1.setValue("_code", new JavaMethodWrapper(getClass(), "_comparedValue"));
+        Node value2 = net.create(Node.ROOT_NODE, "value2", ComparedValue.class);
+        value2.addPort("value");
+        value2.getPort("value").connect(value1);
+        value2.setValue("_code", new JavaMethodWrapper(getClass(), "_comparedValue"));
+        value2.update();
+        ComparedValue.comparisons = 0;
+        // Value1 changed itself, so its output is not compared. Value2 was only processed because its input
+        // changed, so its output is compared and the previous output is kept.
+        value1.setValue("value", 1);
+        Object previousOutput = value2.getOutputValue();
+        value2.update();
+        assertEquals(1, ComparedValue.comparisons);
+        assertSame(previousOutput, value2.getOutputValue());
+    }
+
+    /**
+     * Comparing the output with the previous output does not replace the instances of a geometry by copies.
+     */
+    public void testOutputInstances() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node source1 = net.create(Node.ROOT_NODE, "source1", Geometry.class);
+        source1.addParameter("value", Parameter.Type.INT, 0);
+        source1.setValue("_code", new JavaMethodWrapper(getClass(), "_emptyGeometry"));
+        Node copy1 = net.create(Node.ROOT_NODE, "copy1", Geometry.class);
+        copy1.addPort("shape");
+        copy1.getPort("shape").connect(source1);
+        copy1.addParameter("copies", Parameter.Type.INT, 1000);
+        copy1.addParameter("tx", Parameter.Type.FLOAT, 10f);
+        copy1.setValue("_code", new JavaMethodWrapper(getClass(), "_copyShape"));
+        copy1.update();
+        Geometry first = (Geometry) copy1.getOutputValue();
+        assertEquals(1000, first.getInstanceCount());
+        // The output is different.
+        copy1.setValue("tx", 20f);
+        copy1.update();
+        Geometry second = (Geometry) copy1.getOutputValue();
+        assertNotSame(first, second);
+        assertEquals(1000, first.getInstanceCount());
+        assertEquals(1000, second.getInstanceCount());
+        // The upstream output changes but the output is the same, so the previous output is kept.
+        source1.setValue("value", 1);
+        copy1.update();
+        assertSame(second, copy1.getOutputValue());
+        assertEquals(1000, second.getInstanceCount());
+    }
+
     public void testError() {
         Node bad = addDirectNode.newInstance(testLibrary, "bad");
         TestDirtyListener listener = new TestDirtyListener(bad);
@@ -826,6 +958,59 @@ public class NodeTest extends NodeTestCase {
 
     //// Test node code ////
 
+    private static int cookCounter;
+
+    public static Object _countingNegate(Node node, ProcessingContext ctx) {
+        cookCounter++;
+        return -(Integer) node.getPortValue("value");
+    }
+
+    private static final Geometry copyShape = new Geometry();
+
+    static {
+        Path p = new Path();
+        p.rect(0, 0, 10, 10);
+        copyShape.add(p);
+    }
+
+    /**
+     * Copies a shape like the copy node in corevector.
+     */
+    public static Geometry _copyShape(Node node, ProcessingContext ctx) {
+        Geometry g = new Geometry();
+        float tx = node.asFloat("tx");
+        for (int i = 0; i < node.asInt("copies"); i++) {
+            g.addInstance(copyShape, Transform.translated(i * tx, 0));
+        }
+        return g;
+    }
+
+    public static ComparedValue _comparedValue(Node node, ProcessingContext ctx) {
+        return new ComparedValue();
+    }
+
+    /**
+     * A value that counts how often it is compared.
+     */
+    public static class ComparedValue {
+        private static int comparisons;
+
+        @Override
+        public boolean equals(Object o) {
+            comparisons++;
+            return o instanceof ComparedValue;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    public static Geometry _emptyGeometry(Node node, ProcessingContext ctx) {
+        return new Geometry();
+    }
+
     public static void _addParameter(Node node, ProcessingContext ctx) {
         node.addParameter("myparam", Parameter.Type.STRING, "myvalue");
     }
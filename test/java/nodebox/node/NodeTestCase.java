@@ -8,7 +8,7 @@ public class NodeTestCase extends TestCase {
 
     protected NodeLibraryManager manager;
     protected NodeLibrary testNodes, polygraphLibrary, testLibrary;
-    protected Node numberNode, negateNode, addNode, addDirectNode, addConstantNode, multiplyNode, multiAddNode,
+    protected Node numberNode, negateNode, addNode, addDirectNode, addConstantNode, multiplyNode, multiAddNode, pickNode,
             floatNegateNode, convertToUppercaseNode, crashNode, testNetworkNode,
             polygonNode, rectNode, translateNode;
 
@@ -29,6 +29,7 @@ public class NodeTestCase extends TestCase {
         addConstantNode = manager.getNode("testlib.addConstant");
         multiplyNode = manager.getNode("testlib.multiply");
         multiAddNode = manager.getNode("testlib.multiAdd");
+        pickNode = manager.getNode("testlib.pick");
         floatNegateNode = manager.getNode("testlib.floatNegate");
         convertToUppercaseNode = manager.getNode("testlib.convertToUppercase");
         crashNode = manager.getNode("testlib.crash");
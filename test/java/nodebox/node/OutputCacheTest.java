@@ -0,0 +1,180 @@
+package nodebox.node;
+
+import nodebox.client.FileUtils;
+import nodebox.graphics.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class OutputCacheTest extends NodeTestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("cache", "");
+        directory.delete();
+        cookCounter = 0;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (directory.exists())
+            FileUtils.deleteDirectory(directory);
+    }
+
+    public void testPutAndGet() {
+        OutputCache cache = new OutputCache(directory);
+        Path p = new Path();
+        p.rect(0, 0, 100, 100);
+        assertTrue(cache.put("alpha", p, 100));
+        assertTrue(cache.contains("alpha"));
+        assertEquals(p, cache.get("alpha"));
+        assertNull(cache.get("beta"));
+        // Outputs that are fast to compute are not stored.
+        assertFalse(cache.put("beta", p, 0));
+        assertFalse(cache.contains("beta"));
+        // Outputs that can not be encoded are not stored.
+        assertFalse(cache.put("gamma", new Object(), 100));
+        cache.remove("alpha");
+        assertNull(cache.get("alpha"));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction() {
+        String value = "0123456789";
+        long entrySize = storedSize(value);
+        OutputCache cache = new OutputCache(directory, entrySize * 3);
+        cache.put("a", value, 100);
+        cache.put("b", value, 100);
+        cache.put("c", value, 100);
+        // Using "a" makes "b" the least recently used output.
+        cache.get("a");
+        cache.put("d", value, 100);
+        assertEquals(3, cache.getEntryCount());
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertFalse(new File(directory, "b.bin").exists());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    public void testReopen() {
+        OutputCache cache = new OutputCache(directory);
+        cache.put("alpha", 42, 100);
+        OutputCache reopened = new OutputCache(directory);
+        assertEquals(1, reopened.getEntryCount());
+        assertEquals(cache.getSize(), reopened.getSize());
+        assertEquals(42, reopened.get("alpha"));
+        reopened.clear();
+        assertEquals(0, reopened.getEntryCount());
+        assertNull(new OutputCache(directory).get("alpha"));
+    }
+
+    public void testCorruptFile() throws Exception {
+        OutputCache cache = new OutputCache(directory);
+        cache.put("alpha", 42, 100);
+        FileUtils.writeFile(new File(directory, "alpha.bin"), "garbage");
+        assertNull(cache.get("alpha"));
+        assertFalse(cache.contains("alpha"));
+        // Data that has the right header but ends in the middle of a value is treated the same way.
+        byte[] bytes = nodebox.graphics.GraphicsCodec.encode("abcdef");
+        cache.put("beta", "abcdef", 100);
+        FileOutputStream out = new FileOutputStream(new File(directory, "beta.bin"));
+        out.write(bytes, 0, bytes.length - 8);
+        out.close();
+        assertNull(cache.get("beta"));
+        assertFalse(cache.contains("beta"));
+        assertFalse(new File(directory, "beta.bin").exists());
+    }
+
+    /**
+     * Nodes that read files, and the nodes downstream of them, are not stored.
+     */
+    public void testFileNodesNotStored() {
+        OutputCache cache = new OutputCache(directory);
+        cache.setMinimumProcessingTime(0);
+        testLibrary.setOutputCache(cache);
+        Node counter1 = createCountingNetwork(testLibrary, 5);
+        Node number1 = counter1.getParent().getChild("number1");
+        number1.addParameter("file", Parameter.Type.STRING).setWidget(Parameter.Widget.FILE);
+        counter1.update();
+        assertEquals(-5, counter1.getOutputValue());
+        assertFalse(number1.getSignature().isPersistent());
+        assertFalse(counter1.getSignature().isPersistent());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    /**
+     * Outputs stored by one library are used by an identical library opened later.
+     */
+    public void testNodeOutputs() {
+        OutputCache cache = new OutputCache(directory);
+        cache.setMinimumProcessingTime(0);
+        testLibrary.setOutputCache(cache);
+        Node counter1 = createCountingNetwork(testLibrary, 5);
+        counter1.update();
+        assertEquals(1, cookCounter);
+        assertEquals(-5, counter1.getOutputValue());
+        assertTrue(cache.getEntryCount() > 0);
+
+        NodeLibrary otherLibrary = new NodeLibrary("other");
+        OutputCache otherCache = new OutputCache(directory);
+        otherLibrary.setOutputCache(otherCache);
+        Node otherCounter = createCountingNetwork(otherLibrary, 5);
+        otherCounter.update();
+        assertEquals(1, cookCounter);
+        assertEquals(-5, otherCounter.getOutputValue());
+        // Different values are processed.
+        otherCounter.getParent().getChild("number1").setValue("value", 6);
+        otherCounter.update();
+        assertEquals(2, cookCounter);
+        assertEquals(-6, otherCounter.getOutputValue());
+    }
+
+    /**
+     * Outputs are stored per frame and per library code, since the code of a node can read both.
+     */
+    public void testContextInDigest() {
+        OutputCache cache = new OutputCache(directory);
+        cache.setMinimumProcessingTime(0);
+        testLibrary.setOutputCache(cache);
+        createCountingNetwork(testLibrary, 5).update();
+        assertEquals(1, cookCounter);
+
+        NodeLibrary otherFrame = new NodeLibrary("otherFrame");
+        otherFrame.setOutputCache(new OutputCache(directory));
+        otherFrame.setFrame(2);
+        createCountingNetwork(otherFrame, 5).update();
+        assertEquals(2, cookCounter);
+
+        NodeLibrary otherCode = new NodeLibrary("otherCode");
+        otherCode.setOutputCache(new OutputCache(directory));
+        otherCode.setCode(new JavaMethodWrapper(getClass(), "_countingNegate"));
+        createCountingNetwork(otherCode, 5).update();
+        assertEquals(3, cookCounter);
+    }
+
+    private Node createCountingNetwork(NodeLibrary library, int value) {
+        Node net = testNetworkNode.newInstance(library, "net");
+        Node number1 = net.create(numberNode);
+        Node counter1 = net.create(Node.ROOT_NODE, "counter1", Integer.class);
+        counter1.addPort("value");
+        counter1.setValue("_code", new JavaMethodWrapper(getClass(), "_countingNegate"));
+        number1.setValue("value", value);
+        counter1.getPort("value").connect(number1);
+        return counter1;
+    }
+
+    private long storedSize(Object value) {
+        return nodebox.graphics.GraphicsCodec.encode(value).length;
+    }
+
+    private static int cookCounter;
+
+    public static Object _countingNegate(Node node, ProcessingContext ctx) {
+        cookCounter++;
+        return -(Integer) node.getPortValue("value");
+    }
+
+}
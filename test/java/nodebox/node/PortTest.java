@@ -118,6 +118,60 @@ public class PortTest extends NodeTestCase {
         assertEquals(pPolygon, c.getInput());
     }
 
+    /**
+     * Lazy ports only update the upstream nodes whose values are requested.
+     */
+    public void testLazy() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node number1 = net.create(numberNode);
+        Node number2 = net.create(numberNode);
+        Node number3 = net.create(numberNode);
+        number1.setValue("value", 11);
+        number2.setValue("value", 22);
+        number3.setValue("value", 33);
+        Node pick1 = net.create(pickNode);
+        Port pValues = pick1.getPort("values");
+        assertTrue(pValues.isLazy());
+        pValues.connect(number1);
+        pValues.connect(number2);
+        pValues.connect(number3);
+        pick1.setValue("index", 1);
+        pick1.update();
+        assertEquals(22, pick1.getOutputValue());
+        assertTrue(number1.isDirty());
+        assertFalse(number2.isDirty());
+        assertTrue(number3.isDirty());
+        pick1.setValue("index", 2);
+        pick1.update();
+        assertEquals(33, pick1.getOutputValue());
+        assertTrue(number1.isDirty());
+        assertFalse(number3.isDirty());
+        // The lazy flag is retained when creating new instances.
+        Node pick2 = pick1.newInstance(testLibrary, "pick2");
+        assertTrue(pick2.getPort("values").isLazy());
+        // Output ports can't be lazy.
+        try {
+            pick1.getOutputPort().setLazy(true);
+            fail("Output ports should not be lazy.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Lazy ports with single cardinality resolve their value on first access.
+     */
+    public void testLazySingle() {
+        Node net = testNetworkNode.newInstance(testLibrary, "net");
+        Node number1 = net.create(numberNode);
+        number1.setValue("value", 5);
+        Node negate1 = net.create(negateNode);
+        negate1.getPort("value").setLazy(true);
+        negate1.getPort("value").connect(number1);
+        negate1.update();
+        assertEquals(-5, negate1.getOutputValue());
+        assertFalse(number1.isDirty());
+    }
+
 
     //// Custom assertions ////
 
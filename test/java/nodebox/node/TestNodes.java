@@ -15,6 +15,7 @@ public class TestNodes extends NodeLibrary {
         addBuiltin(new AddConstant());
         addBuiltin(new Multiply());
         addBuiltin(new MultiAdd());
+        addBuiltin(new Pick());
         addBuiltin(new FloatNegate());
         addBuiltin(new ConvertToUppercase());
         addBuiltin(new Crash());
@@ -138,6 +139,22 @@ public class TestNodes extends NodeLibrary {
         }
     }
 
+    public class Pick extends Builtin {
+        protected Node createInstance() {
+            Node n = Node.ROOT_NODE.newInstance(TestNodes.this, "pick", Integer.class);
+            n.setExported(true);
+            n.addPort("values", Port.Cardinality.MULTIPLE).setLazy(true);
+            n.addParameter("index", Parameter.Type.INT);
+            return n;
+        }
+
+        public Object cook(Node node, ProcessingContext context) {
+            List<Object> values = node.getPortValues("values");
+            if (values.isEmpty()) return 0;
+            return values.get(node.asInt("index") % values.size());
+        }
+    }
+
     public class FloatNegate extends Builtin {
         protected Node createInstance() {
             Node n = Node.ROOT_NODE.newInstance(TestNodes.this, "floatNegate", Float.class);